@@ -26,7 +26,7 @@ public class AdamActivity extends BaseActivity {
 		layoutInfo.setBackgroundResource(R.drawable.box_background_dark);
 		
 		TextView tvInfo = new TextView(this);
-		tvInfo.setText("Recipes unlocked: " + recipeDatabase.allRecipes().size());
+		tvInfo.setText("Recipes unlocked: " + recipeDatabase.getUnlockedCount());
 		tvInfo.setTextColor(Color.WHITE);
 		tvInfo.setTextSize(16 + 0.5f);
 		layoutInfo.addView(tvInfo);
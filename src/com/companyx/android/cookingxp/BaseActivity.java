@@ -18,6 +18,7 @@ public class BaseActivity extends Activity {
 	// SYSTEM
 	protected RecipeDatabase recipeDatabase;
 	protected GameData gameData;
+	protected CatalogLoader catalogLoader;
 	protected SharedPreferences sharedPref;
 	protected SharedPreferences.Editor sharedPrefEditor;
 	protected float scalingFactor; // composite scalar taking into account both screen density and size, use to scale fonts/drawables/layouts
@@ -25,6 +26,7 @@ public class BaseActivity extends Activity {
 	private void init() {
 		recipeDatabase = RecipeDatabase.getInstance(this);
 		gameData = GameData.getInstance(this);
+		catalogLoader = CatalogLoader.getInstance(this);
 		sharedPref = getSharedPreferences(getString(R.string.preference_file_key), Context.MODE_PRIVATE);
 		sharedPrefEditor = sharedPref.edit();
 		
@@ -0,0 +1,362 @@
+package com.companyx.android.cookingxp;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.companyx.android.cookingxp.RecipeDatabase.Recipe;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * Catalog Loader
+ *
+ * Loads the recipe catalog into the RecipeDatabase on a background thread, in stages, and publishes its progress.
+ * Activities either observe the load state through an OnCatalogStateChangedListener, or block on awaitState() from a worker thread.
+ *
+ * STAGES:
+ * - STATE_LOADING: the catalog is being read and parsed; the database is empty.
+ * - STATE_SEARCHABLE: recipe names and boxes are indexed, game unlocks applied, favorites and shopping list restored; listings, name search and findRecipeById work.
+ * - STATE_READY: ingredients are indexed, vegetarian recipes classified and similar recipes linked.
+ *
+ * Favorites and the shopping list are restored before any activity can change them, since saving them writes the whole of each back to the preferences.
+ * Once released, a load still running on the executor stops at the next stage and its pending main thread work is dropped; see release().
+ *
+ * RECIPE PACKS:
+ * Text files in the catalog format placed in the PACK_DIR directory are loaded on top of the catalog, in file name order, as part of the same stages.
+ * A pack recipe with the same name and author as an earlier recipe replaces it. Packs added later are loaded with loadPack(), without re-indexing the catalog; only similar recipes are linked again, over the whole database.
+ *
+ * LOAD REPORT:
+ * Debuggable builds record a LoadReport of the load, logged once the catalog is ready and available from getLoadReport(); packs loaded later add to it.
+ */
+final class CatalogLoader {
+	private static final String TAG = "CatalogLoader";
+	static final String PACK_DIR = "packs"; // under the files directory
+	private static final String PACK_SUFFIX = ".txt";
+
+	// LOAD STATES, in order of progress
+	static final int STATE_IDLE = 0;
+	static final int STATE_LOADING = 1;
+	static final int STATE_SEARCHABLE = 2;
+	static final int STATE_READY = 3;
+
+	// STATE VARIABLES
+	private volatile int state;
+	private volatile boolean released; // set by release(), stops a load still running
+	private Future<?> loadFuture;
+	private final CountDownLatch searchableLatch;
+	private final CountDownLatch readyLatch;
+	private final List<OnCatalogStateChangedListener> listeners; // accessed on the main thread only
+	private final LoadReport loadReport; // LoadReport.DISABLED unless debuggable
+
+	// SINGLETON
+	private static CatalogLoader holder;
+
+	// SYSTEM
+	private Context context;
+	private ExecutorService executor;
+	private Handler mainHandler;
+
+	/**
+	 * Callback interface invoked on the main thread whenever the load state advances.
+	 */
+	interface OnCatalogStateChangedListener {
+		/**
+		 * Called on the main thread when the load state advances.
+		 * @param state the new load state.
+		 */
+		void onCatalogStateChanged(int state);
+	}
+
+	/**
+	 * Returns the singleton instance of the catalog loader.
+	 * @param c the calling context.
+	 * @return the singleton instance of the catalog loader.
+	 */
+	public synchronized static CatalogLoader getInstance(Context c) {
+		if (holder == null)
+			holder = new CatalogLoader(c);
+
+		return holder;
+	}
+
+	/**
+	 * Private constructor.
+	 * @param c the calling context; only its application context is kept, since the loader outlives the Activity that creates it.
+	 */
+	private CatalogLoader(Context c) {
+		context = c.getApplicationContext();
+		state = STATE_IDLE;
+		searchableLatch = new CountDownLatch(1);
+		readyLatch = new CountDownLatch(1);
+		listeners = new ArrayList<OnCatalogStateChangedListener>();
+		boolean debuggable = (c.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+		loadReport = debuggable ? new LoadReport(true) : LoadReport.DISABLED;
+		executor = Executors.newSingleThreadExecutor();
+		mainHandler = new Handler(Looper.getMainLooper());
+	}
+
+	/**
+	 * Registers a listener to be notified on the main thread as the load state advances.
+	 * Must be called on the main thread.
+	 * @param listener the listener to register.
+	 */
+	void addListener(OnCatalogStateChangedListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Blocks until the load has reached at least the specified state. Must not be called on the main thread, which publishes the states.
+	 * @param targetState STATE_SEARCHABLE or STATE_READY.
+	 * @param timeout the maximum time to wait.
+	 * @param unit the time unit of the timeout argument.
+	 * @return true if the state was reached, false if the timeout elapsed first.
+	 * @throws InterruptedException if the current thread is interrupted while waiting.
+	 */
+	boolean awaitState(int targetState, long timeout, TimeUnit unit) throws InterruptedException {
+		if (targetState >= STATE_READY)
+			return readyLatch.await(timeout, unit);
+
+		return searchableLatch.await(timeout, unit);
+	}
+
+	/**
+	 * Returns the report of the catalog load so far, which is complete once STATE_READY is reached.
+	 * @return the load report, null in release builds where nothing is recorded.
+	 */
+	LoadReport getLoadReport() {
+		return loadReport.isEnabled() ? loadReport : null;
+	}
+
+	/**
+	 * Returns the current load state.
+	 * @return the current load state.
+	 */
+	int getState() {
+		return state;
+	}
+
+	/**
+	 * Returns true if the load has reached at least the specified state.
+	 * @param targetState the state to check for.
+	 * @return true if the load has reached at least the specified state, false otherwise.
+	 */
+	boolean hasReached(int targetState) {
+		return state >= targetState;
+	}
+
+	/**
+	 * Background load, runs on the executor thread.
+	 */
+	private void load() {
+		final RecipeDatabase recipeDatabase = RecipeDatabase.getInstance(context);
+		final GameData gameData = GameData.getInstance(context);
+		final List<Recipe> catalogRecipes = new ArrayList<Recipe>();
+		List<Recipe> recipes = new ArrayList<Recipe>();
+
+		// STAGE 1: READ AND INDEX HEADERS, catalog first, then packs
+		try {
+			catalogRecipes.addAll(recipeDatabase.readCatalog(loadReport));
+			recipes.addAll(catalogRecipes);
+			loadReport.beginPhase(LoadReport.PHASE_INDEX);
+			recipeDatabase.addRecipeHeaders(catalogRecipes);
+			loadReport.endPhase(LoadReport.PHASE_INDEX);
+
+			for (File packFile : listPacks()) {
+				List<Recipe> packRecipes = recipeDatabase.readPack(packFile, loadReport);
+				recipes.addAll(packRecipes);
+				loadReport.beginPhase(LoadReport.PHASE_INDEX);
+				recipeDatabase.addRecipeHeaders(packRecipes);
+				loadReport.endPhase(LoadReport.PHASE_INDEX);
+			}
+		} catch (InterruptedException e) {
+			// released while parsing, see release(); nothing parsed so far is indexed or saved
+			return;
+		} catch (RuntimeException e) {
+			Log.e(TAG, "Catalog failed to load", e);
+		}
+
+		// game unlocks are applied on the main thread, where the rest of the game logic runs
+		mainHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				if (released)
+					return;
+
+				// saved recipes may predate stable recipeId's
+				recipeDatabase.migrateRecipeIds(catalogRecipes);
+
+				// LOAD FAVORITES AND SHOPPING LIST, which need only recipe ids
+				recipeDatabase.loadFavoriteRecipes();
+				recipeDatabase.loadShoppingListRecipes();
+
+				gameData.validate();
+				publishState(STATE_SEARCHABLE);
+			}
+		});
+		if (released)
+			return;
+
+		// STAGE 2: INDEX BODIES AND LINK SIMILAR RECIPES
+		try {
+			loadReport.beginPhase(LoadReport.PHASE_CLASSIFY);
+			recipeDatabase.indexRecipeBodies(recipes);
+			loadReport.endPhase(LoadReport.PHASE_CLASSIFY);
+			loadReport.beginPhase(LoadReport.PHASE_SIMILAR);
+			recipeDatabase.linkSimilarRecipes();
+			loadReport.endPhase(LoadReport.PHASE_SIMILAR);
+		} catch (RuntimeException e) {
+			Log.e(TAG, "Catalog failed to index", e);
+		}
+		recipeDatabase.releaseStringPool(loadReport);
+		recipeDatabase.describeIndexTo(loadReport);
+
+		mainHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				if (released)
+					return;
+
+				publishState(STATE_READY);
+
+				if (loadReport.isEnabled())
+					Log.i(TAG, loadReport.toString());
+			}
+		});
+	}
+
+	/**
+	 * Loads a recipe pack on top of the recipes already loaded, indexing only the pack's recipes.
+	 * Runs in the background after any load already started; game unlocks are re-applied on the main thread once the pack is indexed.
+	 * @param packFile the pack file, in the catalog format.
+	 * @return the Future of the background pack load.
+	 */
+	Future<?> loadPack(final File packFile) {
+		return executor.submit(new Runnable() {
+			@Override
+			public void run() {
+				if (released)
+					return;
+
+				RecipeDatabase recipeDatabase = RecipeDatabase.getInstance(context);
+				final GameData gameData = GameData.getInstance(context);
+
+				try {
+					List<Recipe> packRecipes = recipeDatabase.readPack(packFile, loadReport);
+					loadReport.beginPhase(LoadReport.PHASE_INDEX);
+					recipeDatabase.addRecipeHeaders(packRecipes);
+					loadReport.endPhase(LoadReport.PHASE_INDEX);
+					loadReport.beginPhase(LoadReport.PHASE_CLASSIFY);
+					recipeDatabase.indexRecipeBodies(packRecipes);
+					loadReport.endPhase(LoadReport.PHASE_CLASSIFY);
+					loadReport.beginPhase(LoadReport.PHASE_SIMILAR);
+					recipeDatabase.linkSimilarRecipes();
+					loadReport.endPhase(LoadReport.PHASE_SIMILAR);
+				} catch (InterruptedException e) {
+					// released while parsing, see release()
+					return;
+				} catch (RuntimeException e) {
+					Log.e(TAG, "Recipe pack failed to load: " + packFile, e);
+				}
+				recipeDatabase.releaseStringPool(loadReport);
+				recipeDatabase.describeIndexTo(loadReport);
+
+				mainHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						if (!released)
+							gameData.validate();
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Helper function which lists the installed recipe packs, in file name order.
+	 * @return the installed recipe pack files, empty if there are none.
+	 */
+	private List<File> listPacks() {
+		List<File> result = new ArrayList<File>();
+
+		File[] files = new File(context.getFilesDir(), PACK_DIR).listFiles();
+		if (files != null) {
+			Arrays.sort(files);
+			for (File file : files) {
+				if (file.isFile() && file.getName().endsWith(PACK_SUFFIX))
+					result.add(file);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Advances the load state and notifies listeners. Runs on the main thread.
+	 * @param newState the new load state.
+	 */
+	private void publishState(int newState) {
+		state = newState;
+
+		if (newState >= STATE_SEARCHABLE)
+			searchableLatch.countDown();
+		if (newState >= STATE_READY)
+			readyLatch.countDown();
+
+		// copy, listeners may unregister themselves while being notified
+		for (OnCatalogStateChangedListener listener : new ArrayList<OnCatalogStateChangedListener>(listeners))
+			listener.onCatalogStateChanged(newState);
+	}
+
+	/**
+	 * Release all system references for immediate garbage collection.
+	 * A load still running stops at its next stage, and nothing it has posted to the main thread runs; a new instance can then load afresh.
+	 */
+	void release() {
+		released = true;
+		executor.shutdownNow();
+		mainHandler.removeCallbacksAndMessages(null);
+		listeners.clear();
+
+		synchronized (CatalogLoader.class) {
+			if (holder == this)
+				holder = null;
+		}
+	}
+
+	/**
+	 * Unregisters a previously registered listener. Must be called on the main thread.
+	 * @param listener the listener to unregister.
+	 */
+	void removeListener(OnCatalogStateChangedListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Starts loading the catalog in the background, if not already started.
+	 * @return the Future of the background load, completing once the bodies are indexed.
+	 */
+	synchronized Future<?> start() {
+		if (loadFuture == null) {
+			state = STATE_LOADING;
+			loadFuture = executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					load();
+				}
+			});
+		}
+
+		return loadFuture;
+	}
+}
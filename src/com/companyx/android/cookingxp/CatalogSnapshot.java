@@ -0,0 +1,423 @@
+package com.companyx.android.cookingxp;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.companyx.android.cookingxp.RecipeDatabase.Recipe;
+import com.companyx.android.cookingxp.RecipeDatabase.RecipeBodySource;
+import com.companyx.android.cookingxp.RecipeDatabase.RecipeDirection;
+import com.companyx.android.cookingxp.RecipeDatabase.RecipeIngredient;
+import com.companyx.android.cookingxp.RecipeDatabase.RecipeTime;
+
+/**
+ * Catalog Snapshot
+ *
+ * Compiles the parsed recipe catalog into a compact, versioned binary file and reads it back through a memory-mapped buffer.
+ * Recipe headers are read up front; ingredients and directions stay in the mapped file and are decoded on demand, through a bounded cache.
+ *
+ * LAYOUT (big-endian, sections in this order):
+ * - header: magic, format version, source stamp, section counts
+ * - recipe records: fixed width, see RECORD_SIZE
+ * - ingredient table: four string references per ingredient (amount, measurement, name, notes)
+ * - direction table: one string reference per direction
+ * - box table: one short per box assignment
+ * - string table: start offset of every distinct string, followed by the UTF-16 character data
+ */
+final class CatalogSnapshot implements RecipeBodySource {
+	// CONSTANTS
+	static final String FILE_NAME = "catalog.snapshot";
+	private static final int MAGIC = 0x43585053; // "CXPS"
+	private static final int FORMAT_VERSION = 2; // 2: stable, content-derived recipeIds
+	private static final int HEADER_SIZE = 40;
+	private static final int RECORD_SIZE = 36;
+	private static final int INGREDIENT_SIZE = 16;
+	private static final int DIRECTION_SIZE = 4;
+	private static final int BOX_SIZE = 2;
+	private static final int BODY_CACHE_SIZE = 32; // recipes whose decoded bodies are kept, least recently used are evicted
+
+	// MAPPED FILE
+	private final MappedByteBuffer buffer;
+	private final CharBuffer chars;
+	private final int recipeCount;
+	private final int ingredientSection;
+	private final int directionSection;
+	private final int boxSection;
+	private final int stringOffsetSection;
+	private final String[] headerStrings; // decoded names and authors, shared between recipes
+
+	// STATE VARIABLES
+	private final Map<Integer, RecipeBody> bodyCache; // maps record index to decoded body, in access order
+
+	/**
+	 * Decoded body of one recipe. Each part is decoded the first time it is asked for.
+	 */
+	private static class RecipeBody {
+		List<RecipeIngredient> ingredients;
+		List<RecipeDirection> directions;
+	}
+
+	/**
+	 * Private constructor, see open().
+	 * @param buffer the mapped snapshot file, already validated.
+	 */
+	private CatalogSnapshot(MappedByteBuffer buffer) {
+		this.buffer = buffer;
+
+		recipeCount = buffer.getInt(16);
+		int ingredientCount = buffer.getInt(20);
+		int directionCount = buffer.getInt(24);
+		int boxCount = buffer.getInt(28);
+		int stringCount = buffer.getInt(32);
+
+		ingredientSection = HEADER_SIZE + recipeCount * RECORD_SIZE;
+		directionSection = ingredientSection + ingredientCount * INGREDIENT_SIZE;
+		boxSection = directionSection + directionCount * DIRECTION_SIZE;
+		stringOffsetSection = boxSection + boxCount * BOX_SIZE;
+
+		buffer.position(stringOffsetSection + (stringCount + 1) * 4);
+		chars = buffer.slice().asCharBuffer();
+		headerStrings = new String[stringCount];
+
+		bodyCache = new LinkedHashMap<Integer, RecipeBody>(BODY_CACHE_SIZE, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, RecipeBody> eldest) {
+				return size() > BODY_CACHE_SIZE;
+			}
+		};
+	}
+
+	/**
+	 * Helper function which decodes a String from the string table without keeping it.
+	 * @param ref the string table reference.
+	 * @return the decoded String.
+	 */
+	private String decode(int ref) {
+		int start = buffer.getInt(stringOffsetSection + ref * 4);
+		int end = buffer.getInt(stringOffsetSection + (ref + 1) * 4);
+
+		// absolute reads only, the buffer is shared between threads
+		char[] c = new char[end - start];
+		for (int i = 0; i < c.length; i++)
+			c[i] = chars.get(start + i);
+
+		return new String(c);
+	}
+
+	/**
+	 * Adds the size and record counts of this snapshot to a load report.
+	 * @param report the load report to add to.
+	 */
+	void describeTo(LoadReport report) {
+		report.addBytesRead(buffer.capacity());
+		report.addRecords(recipeCount, buffer.getInt(20), buffer.getInt(24), 0);
+	}
+
+	/**
+	 * Helper function which returns the cached body for a record, creating an empty one if needed.
+	 * @param bodyRecord the record index.
+	 * @return the cached body for the record.
+	 */
+	private RecipeBody getBody(int bodyRecord) {
+		RecipeBody body = bodyCache.get(bodyRecord);
+
+		if (body == null) {
+			body = new RecipeBody();
+			bodyCache.put(bodyRecord, body);
+		}
+
+		return body;
+	}
+
+	/**
+	 * Helper function which decodes a name or author, keeping it for all Recipes that share it.
+	 * @param ref the string table reference.
+	 * @return the decoded String.
+	 */
+	private String getHeaderString(int ref) {
+		String result = headerStrings[ref];
+
+		if (result == null) {
+			result = decode(ref);
+			headerStrings[ref] = result;
+		}
+
+		return result;
+	}
+
+	/**
+	 * Helper function which assigns a string table reference to a String, if it does not have one yet.
+	 * @param string the String to add to the string table.
+	 * @param stringRefs maps each String to its string table reference.
+	 * @param strings the string table, in reference order.
+	 */
+	private static void intern(String string, Map<String, Integer> stringRefs, List<String> strings) {
+		if (!stringRefs.containsKey(string)) {
+			stringRefs.put(string, strings.size());
+			strings.add(string);
+		}
+	}
+
+	/**
+	 * Maps the snapshot file and validates its header and layout.
+	 * @param file the snapshot file.
+	 * @param sourceStamp the stamp identifying the current text catalog; a snapshot compiled from a different catalog is rejected.
+	 * @return the opened snapshot, or null if the snapshot is missing, stale or unreadable.
+	 */
+	static CatalogSnapshot open(File file, long sourceStamp) {
+		if (!file.exists())
+			return null;
+
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "r");
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()); // stays valid after the file is closed
+
+			// HEADER
+			if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION || buffer.getLong(8) != sourceStamp)
+				return null;
+
+			// LAYOUT, section sizes must add up to the file size
+			long expectedSize = HEADER_SIZE + (long) buffer.getInt(16) * RECORD_SIZE + (long) buffer.getInt(20) * INGREDIENT_SIZE + (long) buffer.getInt(24) * DIRECTION_SIZE
+					+ (long) buffer.getInt(28) * BOX_SIZE + ((long) buffer.getInt(32) + 1) * 4 + (long) buffer.getInt(36) * 2;
+			if (expectedSize != buffer.capacity())
+				return null;
+
+			return new CatalogSnapshot(buffer);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		} catch (RuntimeException e) { // truncated or corrupt file, e.g. IndexOutOfBoundsException
+			e.printStackTrace();
+			return null;
+		} finally {
+			if (raf != null) {
+				try {
+					raf.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	@Override
+	public synchronized List<RecipeDirection> readDirections(int bodyRecord) {
+		RecipeBody body = getBody(bodyRecord);
+
+		if (body.directions == null) {
+			int p = HEADER_SIZE + bodyRecord * RECORD_SIZE;
+			int numOfDirections = buffer.getShort(p + 26) & 0xFFFF;
+			int firstDirection = buffer.getInt(p + 28);
+
+			List<RecipeDirection> directions = new ArrayList<RecipeDirection>(numOfDirections);
+			for (int i = 0; i < numOfDirections; i++)
+				directions.add(new RecipeDirection(decode(buffer.getInt(directionSection + (firstDirection + i) * DIRECTION_SIZE))));
+
+			body.directions = directions;
+		}
+
+		return body.directions;
+	}
+
+	/**
+	 * Reads the headers of all Recipes in the snapshot, in catalog order. Their bodies are read from this snapshot on demand.
+	 * @return the List of Recipe headers.
+	 */
+	List<Recipe> readHeaders() {
+		List<Recipe> result = new ArrayList<Recipe>(recipeCount);
+		Map<Long, RecipeTime> recipeTimes = new HashMap<Long, RecipeTime>(); // shared between recipes of the same times
+
+		for (int r = 0; r < recipeCount; r++) {
+			int p = HEADER_SIZE + r * RECORD_SIZE;
+
+			int recipeId = buffer.getInt(p);
+			String name = getHeaderString(buffer.getInt(p + 4));
+			String author = getHeaderString(buffer.getInt(p + 8));
+			long timeKey = buffer.getLong(p + 12) >>> 16; // prep, inactive prep and cook time
+			RecipeTime recipeTime = recipeTimes.get(timeKey);
+			if (recipeTime == null) {
+				recipeTime = new RecipeTime(buffer.getShort(p + 12), buffer.getShort(p + 14), buffer.getShort(p + 16));
+				recipeTimes.put(timeKey, recipeTime);
+			}
+			byte numOfServings = buffer.get(p + 18);
+			int numOfBoxes = buffer.get(p + 19) & 0xFF;
+			int firstBox = buffer.getInt(p + 32);
+
+			short[] boxes = new short[numOfBoxes];
+			for (int i = 0; i < numOfBoxes; i++)
+				boxes[i] = buffer.getShort(boxSection + (firstBox + i) * BOX_SIZE);
+
+			// linked to itself until similar recipes are linked, see RecipeDatabase.linkSimilarRecipes()
+			result.add(new Recipe(recipeId, name, author, this, r, new int[] {recipeId}, boxes, recipeTime, numOfServings));
+		}
+
+		return result;
+	}
+
+	@Override
+	public synchronized List<RecipeIngredient> readIngredients(int bodyRecord) {
+		RecipeBody body = getBody(bodyRecord);
+
+		if (body.ingredients == null) {
+			int p = HEADER_SIZE + bodyRecord * RECORD_SIZE;
+			int firstIngredient = buffer.getInt(p + 20);
+			int numOfIngredients = buffer.getShort(p + 24) & 0xFFFF;
+
+			List<RecipeIngredient> ingredients = new ArrayList<RecipeIngredient>(numOfIngredients);
+			for (int i = 0; i < numOfIngredients; i++) {
+				int q = ingredientSection + (firstIngredient + i) * INGREDIENT_SIZE;
+				ingredients.add(new RecipeIngredient(decode(buffer.getInt(q)), decode(buffer.getInt(q + 4)), decode(buffer.getInt(q + 8)), decode(buffer.getInt(q + 12))));
+			}
+
+			body.ingredients = ingredients;
+		}
+
+		return body.ingredients;
+	}
+
+	/**
+	 * Compiles the Recipes into a snapshot file.
+	 * The file is written to a temporary location and renamed into place, so readers never see a partial snapshot.
+	 * @param file the snapshot file to write.
+	 * @param sourceStamp the stamp identifying the text catalog the Recipes were parsed from.
+	 * @param recipes the List of Recipes to compile, in catalog order.
+	 * @return true if the snapshot was written successfully, false otherwise.
+	 */
+	static boolean write(File file, long sourceStamp, List<Recipe> recipes) {
+		// BUILD STRING TABLE, each distinct string stored once
+		Map<String, Integer> stringRefs = new HashMap<String, Integer>();
+		List<String> strings = new ArrayList<String>();
+		int ingredientCount = 0;
+		int directionCount = 0;
+		int boxCount = 0;
+
+		for (Recipe recipe : recipes) {
+			intern(recipe.name, stringRefs, strings);
+			intern(recipe.author, stringRefs, strings);
+
+			for (RecipeIngredient ri : recipe.getIngredients()) {
+				intern(ri.amount, stringRefs, strings);
+				intern(ri.measurement, stringRefs, strings);
+				intern(ri.ingredientName, stringRefs, strings);
+				intern(ri.notes, stringRefs, strings);
+			}
+
+			for (RecipeDirection rd : recipe.getDirections())
+				intern(rd.direction, stringRefs, strings);
+
+			ingredientCount += recipe.getIngredients().size();
+			directionCount += recipe.getDirections().size();
+			boxCount += recipe.boxes.length;
+		}
+
+		int stringCharCount = 0;
+		for (String s : strings)
+			stringCharCount += s.length();
+
+		File tempFile = new File(file.getPath() + ".tmp");
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+
+			// HEADER
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeLong(sourceStamp);
+			out.writeInt(recipes.size());
+			out.writeInt(ingredientCount);
+			out.writeInt(directionCount);
+			out.writeInt(boxCount);
+			out.writeInt(strings.size());
+			out.writeInt(stringCharCount);
+
+			// RECIPE RECORDS
+			int firstIngredient = 0;
+			int firstDirection = 0;
+			int firstBox = 0;
+			for (Recipe recipe : recipes) {
+				out.writeInt(recipe.recipeId);
+				out.writeInt(stringRefs.get(recipe.name));
+				out.writeInt(stringRefs.get(recipe.author));
+				out.writeShort(recipe.recipeTime.prepTimeInMin);
+				out.writeShort(recipe.recipeTime.inactivePrepTimeInMin);
+				out.writeShort(recipe.recipeTime.cookTimeInMin);
+				out.writeByte(recipe.numOfServings);
+				out.writeByte(recipe.boxes.length);
+				out.writeInt(firstIngredient);
+				out.writeShort(recipe.getIngredients().size());
+				out.writeShort(recipe.getDirections().size());
+				out.writeInt(firstDirection);
+				out.writeInt(firstBox);
+
+				firstIngredient += recipe.getIngredients().size();
+				firstDirection += recipe.getDirections().size();
+				firstBox += recipe.boxes.length;
+			}
+
+			// INGREDIENT TABLE
+			for (Recipe recipe : recipes) {
+				for (RecipeIngredient ri : recipe.getIngredients()) {
+					out.writeInt(stringRefs.get(ri.amount));
+					out.writeInt(stringRefs.get(ri.measurement));
+					out.writeInt(stringRefs.get(ri.ingredientName));
+					out.writeInt(stringRefs.get(ri.notes));
+				}
+			}
+
+			// DIRECTION TABLE
+			for (Recipe recipe : recipes) {
+				for (RecipeDirection rd : recipe.getDirections())
+					out.writeInt(stringRefs.get(rd.direction));
+			}
+
+			// BOX TABLE
+			for (Recipe recipe : recipes) {
+				for (short boxId : recipe.boxes)
+					out.writeShort(boxId);
+			}
+
+			// STRING TABLE
+			int offset = 0;
+			for (String s : strings) {
+				out.writeInt(offset);
+				offset += s.length();
+			}
+			out.writeInt(offset);
+
+			for (String s : strings)
+				out.writeChars(s);
+
+			out.close();
+			out = null;
+
+			return tempFile.renameTo(file);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+			tempFile.delete();
+		}
+	}
+}
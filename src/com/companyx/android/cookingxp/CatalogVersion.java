@@ -0,0 +1,163 @@
+package com.companyx.android.cookingxp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.companyx.android.cookingxp.RecipeDatabase.Recipe;
+
+/**
+ * Catalog Version
+ *
+ * An immutable copy of the recipe catalog as it stood at one moment: the recipes by ordinal and by recipeId, the recipes of each box, which recipes are unlocked, the similar recipes linked to each, and the name order.
+ * RecipeDatabase publishes the current version through a volatile reference, so the listings that only need the catalog are read without taking the database lock, and a loader adding recipes on another thread never holds them up.
+ * Writers never change a version: they build a new one under the lock once a batch of recipes is added or linked and swap it in, or, for unlocks, swap in a copy differing only in which recipes are unlocked. Readers never build one.
+ *
+ * Every read of one version sees the same catalog, so a count and a listing taken from it agree; readers that need several reads to agree take the version once, see RecipeDatabase.getCatalog().
+ * The Recipe objects are shared with the database. The fields a version reads (recipeId, ordinal, name, author, boxes, times and body) are set before a recipe is first published and never change after;
+ * what does change is held by the version itself: which recipes are unlocked, as its own bitmap, and the similar-recipe links, as the link arrays current when it was built, which are replaced rather than modified.
+ * Thread-safe, being immutable.
+ */
+final class CatalogVersion {
+	// STATE VARIABLES
+	private final List<Recipe> recipes; // the recipes, indexed by ordinal
+	private final RecipeIdTable idMap; // maps recipeId to the ordinal of the corresponding recipe
+	private final Map<Short, RecipeBitmap> boxMap; // maps boxId to bitmap of recipe ordinals
+	private final RecipeBitmap unlockedRecipes; // bitmap of ordinals of unlocked recipes
+	private final int[][] linkedRecipes; // recipeIds of the most similar recipes, indexed by ordinal
+	private final RecipeOrder nameOrder; // the recipes sorted by name, shared with the database
+
+	/**
+	 * Constructor, copying the catalog of the database; called under the database lock.
+	 * @param ordinalMap the recipes of the database, indexed by ordinal.
+	 * @param idMap the database table of recipeId to recipe ordinal.
+	 * @param boxMap the database map of boxId to bitmap of recipe ordinals.
+	 * @param unlockedRecipes the bitmap of ordinals of the unlocked recipes.
+	 * @param nameOrder the recipes of the database sorted by name, as of ordinalMap.
+	 */
+	CatalogVersion(List<Recipe> ordinalMap, RecipeIdTable idMap, Map<Short, RecipeBitmap> boxMap, RecipeBitmap unlockedRecipes, RecipeOrder nameOrder) {
+		this.recipes = Collections.unmodifiableList(new ArrayList<Recipe>(ordinalMap));
+		this.idMap = idMap.copy();
+		this.boxMap = new HashMap<Short, RecipeBitmap>();
+		for (Map.Entry<Short, RecipeBitmap> entry : boxMap.entrySet())
+			this.boxMap.put(entry.getKey(), entry.getValue().copy());
+		this.unlockedRecipes = unlockedRecipes.copy();
+		this.nameOrder = nameOrder;
+
+		// the arrays themselves are shared, linkSimilarRecipes() replaces them rather than writing into them
+		this.linkedRecipes = new int[ordinalMap.size()][];
+		for (int ordinal = 0; ordinal < linkedRecipes.length; ordinal++)
+			this.linkedRecipes[ordinal] = ordinalMap.get(ordinal).linkedRecipes;
+	}
+
+	/**
+	 * Private constructor, for a version sharing all but the unlocked recipes with another.
+	 * @param version the version to share with.
+	 * @param unlockedRecipes the bitmap of ordinals of the unlocked recipes, not to be modified afterwards.
+	 */
+	private CatalogVersion(CatalogVersion version, RecipeBitmap unlockedRecipes) {
+		this.recipes = version.recipes;
+		this.idMap = version.idMap;
+		this.boxMap = version.boxMap;
+		this.unlockedRecipes = unlockedRecipes;
+		this.nameOrder = version.nameOrder;
+		this.linkedRecipes = version.linkedRecipes;
+	}
+
+	/**
+	 * Returns a list of all unlocked recipes, sorted by name.
+	 * @return a new List of the unlocked recipes, sorted by name.
+	 */
+	List<Recipe> allRecipes() {
+		return list(unlockedRecipes);
+	}
+
+	/**
+	 * Returns a cursor over all unlocked recipes, sorted by name.
+	 * @return a new cursor over the unlocked recipes, sorted by name.
+	 */
+	RecipeCursor allRecipesCursor() {
+		int[] array = unlockedRecipes.toArray();
+
+		// nothing here changes, so the version itself serves as the lock the cursor reads pages under
+		return nameOrder.cursor(this, recipes, array, array.length);
+	}
+
+	/**
+	 * Returns the Recipe corresponding to the unique Id.
+	 * @param recipeId the unique identifier to retrieve the Recipe for.
+	 * @return the Recipe corresponding to the unique Id, null if non-existent or invalid Id.
+	 */
+	Recipe findRecipeById(int recipeId) {
+		int ordinal = idMap.get(recipeId);
+
+		return (ordinal != RecipeIdTable.NOT_FOUND) ? recipes.get(ordinal) : null;
+	}
+
+	/**
+	 * Returns a list of the unlocked recipes of a box, sorted by name.
+	 * @param boxId the unique identifier for the box.
+	 * @return a new List of the unlocked recipes of the box, sorted by name; empty for an unknown box.
+	 */
+	List<Recipe> getRecipesByBox(short boxId) {
+		RecipeBitmap box = boxMap.get(boxId);
+		if (box == null)
+			return new ArrayList<Recipe>();
+
+		return list(RecipeBitmap.and(box, unlockedRecipes));
+	}
+
+	/**
+	 * Returns the unlocked recipes most similar to a recipe, as linked when the version was built.
+	 * @param recipeId the unique identifier of the recipe.
+	 * @param limit the most recipes to return.
+	 * @return a new List of the unlocked recipes most similar to the recipe, most similar first; empty for an unknown recipe.
+	 */
+	List<Recipe> getSimilarRecipes(int recipeId, int limit) {
+		List<Recipe> result = new ArrayList<Recipe>();
+		int ordinal = idMap.get(recipeId);
+		if (ordinal == RecipeIdTable.NOT_FOUND)
+			return result;
+
+		for (int linkedId : linkedRecipes[ordinal]) {
+			if (result.size() == limit)
+				break;
+
+			int linkedOrdinal = idMap.get(linkedId);
+			if (linkedOrdinal != RecipeIdTable.NOT_FOUND && linkedOrdinal != ordinal && unlockedRecipes.contains(linkedOrdinal))
+				result.add(recipes.get(linkedOrdinal));
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the number of unlocked recipes, without listing them.
+	 * @return the number of unlocked recipes.
+	 */
+	int getUnlockedCount() {
+		return unlockedRecipes.cardinality();
+	}
+
+	/**
+	 * Helper function which lists a set of recipes, sorted by name.
+	 * @param ordinals the bitmap of the ordinals of the recipes.
+	 * @return a new List of the recipes, sorted by name.
+	 */
+	private List<Recipe> list(RecipeBitmap ordinals) {
+		int[] array = ordinals.toArray();
+
+		return nameOrder.list(recipes, array, array.length);
+	}
+
+	/**
+	 * Returns a version of the same recipes with other recipes unlocked, sharing everything else with this one; much cheaper than copying the catalog again.
+	 * @param unlockedRecipes the bitmap of ordinals of the unlocked recipes, not to be modified afterwards.
+	 * @return the new version.
+	 */
+	CatalogVersion withUnlocked(RecipeBitmap unlockedRecipes) {
+		return new CatalogVersion(this, unlockedRecipes);
+	}
+}
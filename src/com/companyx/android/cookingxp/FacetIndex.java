@@ -0,0 +1,147 @@
+package com.companyx.android.cookingxp;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import com.companyx.android.cookingxp.RecipeDatabase.Recipe;
+
+/**
+ * Facet Index
+ *
+ * The facet values of every recipe in the database, precomputed so that any result set is counted by category, author, box and vegetarian flag in a single pass over its ordinals, see RecipeFacets.
+ * Each recipe gets a word of flags, a bit for each category it is in plus one if it is vegetarian, marked from the category and vegetarian bitmaps when the index is built; the position of its author among the authors of the database; and the positions of its boxes among the boxes of the database.
+ * Counting a result is then a few array reads, without looking anything up by name.
+ *
+ * An index must be rebuilt when recipes are added to the database or indexed, or to count other categories.
+ */
+final class FacetIndex {
+	// CONSTANTS
+	static final int MAX_CATEGORIES = 31; // a flag bit each, next to the vegetarian flag
+	private static final int VEGETARIAN_FLAG = 1 << MAX_CATEGORIES;
+
+	// STATE VARIABLES
+	private final String[] categoryKeys; // query keys of the categories, null for all recipes
+	private final int[] flags; // category and vegetarian flags, by recipe ordinal
+	private final String[] authors; // the authors of the database, sorted
+	private final int[] authorPositions; // position in authors of the author of each recipe, by ordinal
+	private final short[] boxIds; // the boxes of the database, ascending
+	private final int[] boxStarts; // start in boxPositions of the boxes of each recipe, by ordinal, and the end of the last
+	private final int[] boxPositions; // positions in boxIds of the boxes of each recipe, recipe after recipe
+
+	/**
+	 * Constructor.
+	 * @param recipes the recipes of the database, indexed by ordinal.
+	 * @param categoryKeys the query keys of the categories, null for a category of all recipes.
+	 * @param categories the bitmaps of the ordinals of the recipes in each category, null for a category of all recipes; at most MAX_CATEGORIES.
+	 * @param vegetarian the bitmap of the ordinals of vegetarian recipes.
+	 */
+	FacetIndex(List<Recipe> recipes, String[] categoryKeys, RecipeBitmap[] categories, RecipeBitmap vegetarian) {
+		int numRecipes = recipes.size();
+		this.categoryKeys = categoryKeys;
+
+		// CATEGORY AND VEGETARIAN FLAGS
+		flags = new int[numRecipes];
+		for (int category = 0; category < categories.length; category++) {
+			int flag = 1 << category;
+			if (categories[category] == null) {
+				for (int ordinal = 0; ordinal < numRecipes; ordinal++)
+					flags[ordinal] |= flag;
+			} else {
+				for (int ordinal : categories[category].toArray())
+					flags[ordinal] |= flag;
+			}
+		}
+		for (int ordinal : vegetarian.toArray())
+			flags[ordinal] |= VEGETARIAN_FLAG;
+
+		// AUTHORS AND BOXES, numbered in order
+		TreeSet<String> sortedAuthors = new TreeSet<String>();
+		TreeSet<Short> sortedBoxIds = new TreeSet<Short>();
+		int numBoxes = 0;
+		for (Recipe recipe : recipes) {
+			sortedAuthors.add(recipe.author);
+			for (short boxId : recipe.boxes)
+				sortedBoxIds.add(boxId);
+			numBoxes += recipe.boxes.length;
+		}
+
+		authors = sortedAuthors.toArray(new String[sortedAuthors.size()]);
+		Map<String, Integer> authorMap = new HashMap<String, Integer>();
+		for (int i = 0; i < authors.length; i++)
+			authorMap.put(authors[i], i);
+
+		boxIds = new short[sortedBoxIds.size()];
+		int i = 0;
+		for (short boxId : sortedBoxIds)
+			boxIds[i++] = boxId;
+
+		authorPositions = new int[numRecipes];
+		boxStarts = new int[numRecipes + 1];
+		boxPositions = new int[numBoxes];
+		int boxEnd = 0;
+		for (int ordinal = 0; ordinal < numRecipes; ordinal++) {
+			Recipe recipe = recipes.get(ordinal);
+			authorPositions[ordinal] = authorMap.get(recipe.author);
+
+			boxStarts[ordinal] = boxEnd;
+			for (short boxId : recipe.boxes)
+				boxPositions[boxEnd++] = Arrays.binarySearch(boxIds, boxId);
+		}
+		boxStarts[numRecipes] = boxEnd;
+	}
+
+	/**
+	 * Counts a result set by facet, in one pass over its ordinals.
+	 * @param ordinals the ordinals of the results, in any order, each at most once.
+	 * @return the counts.
+	 */
+	RecipeFacets count(int[] ordinals) {
+		int[] categoryCounts = new int[categoryKeys.length];
+		int vegetarianCount = 0;
+		int[] authorCounts = new int[authors.length];
+		int[] boxCounts = new int[boxIds.length];
+
+		for (int ordinal : ordinals) {
+			int recipeFlags = flags[ordinal];
+			if ((recipeFlags & VEGETARIAN_FLAG) != 0)
+				vegetarianCount++;
+
+			for (recipeFlags &= ~VEGETARIAN_FLAG; recipeFlags != 0; recipeFlags &= recipeFlags - 1)
+				categoryCounts[Integer.numberOfTrailingZeros(recipeFlags)]++;
+
+			authorCounts[authorPositions[ordinal]]++;
+
+			for (int i = boxStarts[ordinal]; i < boxStarts[ordinal + 1]; i++)
+				boxCounts[boxPositions[i]]++;
+		}
+
+		// only facet values of some result
+		Map<String, Integer> authorMap = new LinkedHashMap<String, Integer>();
+		for (int i = 0; i < authors.length; i++) {
+			if (authorCounts[i] > 0)
+				authorMap.put(authors[i], authorCounts[i]);
+		}
+
+		Map<Short, Integer> boxMap = new LinkedHashMap<Short, Integer>();
+		for (int i = 0; i < boxIds.length; i++) {
+			if (boxCounts[i] > 0)
+				boxMap.put(boxIds[i], boxCounts[i]);
+		}
+
+		return new RecipeFacets(ordinals.length, categoryCounts, vegetarianCount, Collections.unmodifiableMap(authorMap), Collections.unmodifiableMap(boxMap));
+	}
+
+	/**
+	 * Returns true if the index counts the specified categories.
+	 * @param categoryKeys the query keys of the categories, null for a category of all recipes.
+	 * @return true if the index was built for the same categories, in the same order.
+	 */
+	boolean counts(String[] categoryKeys) {
+		return Arrays.equals(this.categoryKeys, categoryKeys);
+	}
+}
@@ -0,0 +1,281 @@
+package com.companyx.android.cookingxp;
+
+/**
+ * Load Report
+ *
+ * Structured account of one catalog load: how long each phase took, how much was read, and what was found.
+ * The loading code reports into whichever LoadReport it is handed; the shared DISABLED instance ignores everything, so a load without reporting only pays for a field check per call, and never for the clock.
+ *
+ * PHASES:
+ * - PHASE_READ: reading the catalog into memory; mapping and validating the snapshot, or reading the text catalog when it is parsed in chunks.
+ * - PHASE_PARSE: turning the catalog into Recipes; streaming text parses include their reading here.
+ * - PHASE_INDEX: indexing recipe names and boxes.
+ * - PHASE_CLASSIFY: indexing ingredients and classifying vegetarian recipes.
+ * - PHASE_SIMILAR: linking each recipe to the recipes most similar to it, see SimilarityIndex.
+ *
+ * The search index size is recorded as of the end of the load: the distinct search words, and the words indexed in all, whose indexing takes up most of the index and classify phases.
+ */
+final class LoadReport {
+	// PHASES
+	static final int PHASE_READ = 0;
+	static final int PHASE_PARSE = 1;
+	static final int PHASE_INDEX = 2;
+	static final int PHASE_CLASSIFY = 3;
+	static final int PHASE_SIMILAR = 4;
+	private static final String[] PHASE_NAMES = {"read", "parse", "index", "classify", "similar"};
+
+	// SOURCES
+	static final String SOURCE_SNAPSHOT = "snapshot";
+	static final String SOURCE_TEXT = "text";
+
+	/**
+	 * Shared report which records nothing, used when reporting is off.
+	 */
+	static final LoadReport DISABLED = new LoadReport(false);
+
+	// STATE VARIABLES
+	private final boolean enabled;
+	private final long[] phaseNanos;
+	private final long[] phaseStarts; // start time of each phase in progress
+	private String source;
+	private long bytesRead;
+	private int packs;
+	private int recipes;
+	private int ingredients;
+	private int directions;
+	private int malformedRecords;
+	private int distinctStrings;
+	private int sharedStrings;
+	private long sharedChars;
+	private int searchWords;
+	private long indexedWords;
+
+	/**
+	 * Constructor.
+	 * @param enabled false for a report which records nothing; use DISABLED instead.
+	 */
+	LoadReport(boolean enabled) {
+		this.enabled = enabled;
+		phaseNanos = new long[PHASE_NAMES.length];
+		phaseStarts = new long[PHASE_NAMES.length];
+	}
+
+	/**
+	 * Adds to the number of bytes read from storage.
+	 * @param bytes the number of bytes read.
+	 */
+	synchronized void addBytesRead(long bytes) {
+		if (enabled)
+			bytesRead += bytes;
+	}
+
+	/**
+	 * Counts one recipe pack loaded on top of the catalog.
+	 */
+	synchronized void addPack() {
+		if (enabled)
+			packs++;
+	}
+
+	/**
+	 * Adds to the record counts.
+	 * @param recipes the number of complete recipes.
+	 * @param ingredients the number of ingredients in those recipes.
+	 * @param directions the number of directions in those recipes.
+	 * @param malformedRecords the number of recipes skipped because they were incomplete or unreadable.
+	 */
+	synchronized void addRecords(int recipes, int ingredients, int directions, int malformedRecords) {
+		if (enabled) {
+			this.recipes += recipes;
+			this.ingredients += ingredients;
+			this.directions += directions;
+			this.malformedRecords += malformedRecords;
+		}
+	}
+
+	/**
+	 * Adds to the string deduplication counts.
+	 * @param distinctStrings the number of distinct Strings kept.
+	 * @param sharedStrings the number of times an existing String was shared instead of creating a copy.
+	 * @param sharedChars the number of characters in those copies.
+	 */
+	synchronized void addStrings(int distinctStrings, int sharedStrings, long sharedChars) {
+		if (enabled) {
+			this.distinctStrings += distinctStrings;
+			this.sharedStrings += sharedStrings;
+			this.sharedChars += sharedChars;
+		}
+	}
+
+	/**
+	 * Starts timing a phase. Phases may be timed more than once; their times add up.
+	 * @param phase the phase to time, one of the PHASE constants.
+	 */
+	synchronized void beginPhase(int phase) {
+		if (enabled)
+			phaseStarts[phase] = System.nanoTime();
+	}
+
+	/**
+	 * Stops timing a phase started with beginPhase().
+	 * @param phase the phase being timed, one of the PHASE constants.
+	 */
+	synchronized void endPhase(int phase) {
+		if (enabled)
+			phaseNanos[phase] += System.nanoTime() - phaseStarts[phase];
+	}
+
+	/**
+	 * Returns the number of bytes read from storage.
+	 * @return the number of bytes read from storage.
+	 */
+	synchronized long getBytesRead() {
+		return bytesRead;
+	}
+
+	/**
+	 * Returns the number of directions loaded.
+	 * @return the number of directions loaded.
+	 */
+	synchronized int getDirections() {
+		return directions;
+	}
+
+	/**
+	 * Returns the number of distinct Strings kept by string deduplication.
+	 * @return the number of distinct Strings.
+	 */
+	synchronized int getDistinctStrings() {
+		return distinctStrings;
+	}
+
+	/**
+	 * Returns the number of words indexed, counting every occurrence in the recipes.
+	 * @return the number of words indexed.
+	 */
+	synchronized long getIndexedWords() {
+		return indexedWords;
+	}
+
+	/**
+	 * Returns the number of ingredients loaded.
+	 * @return the number of ingredients loaded.
+	 */
+	synchronized int getIngredients() {
+		return ingredients;
+	}
+
+	/**
+	 * Returns the number of recipes skipped because they were incomplete or unreadable.
+	 * @return the number of malformed records.
+	 */
+	synchronized int getMalformedRecords() {
+		return malformedRecords;
+	}
+
+	/**
+	 * Returns the number of recipe packs loaded on top of the catalog.
+	 * @return the number of recipe packs.
+	 */
+	synchronized int getPacks() {
+		return packs;
+	}
+
+	/**
+	 * Returns the total time spent in a phase.
+	 * @param phase the phase, one of the PHASE constants.
+	 * @return the time spent in the phase, in milliseconds.
+	 */
+	synchronized long getPhaseMillis(int phase) {
+		return phaseNanos[phase] / 1000000;
+	}
+
+	/**
+	 * Returns the number of recipes loaded.
+	 * @return the number of recipes loaded.
+	 */
+	synchronized int getRecipes() {
+		return recipes;
+	}
+
+	/**
+	 * Returns the number of distinct words in the search index.
+	 * @return the number of search words.
+	 */
+	synchronized int getSearchWords() {
+		return searchWords;
+	}
+
+	/**
+	 * Returns the number of characters in the String copies avoided by string deduplication.
+	 * @return the number of characters shared.
+	 */
+	synchronized long getSharedChars() {
+		return sharedChars;
+	}
+
+	/**
+	 * Returns the number of times string deduplication shared an existing String instead of creating a copy.
+	 * @return the number of shared Strings.
+	 */
+	synchronized int getSharedStrings() {
+		return sharedStrings;
+	}
+
+	/**
+	 * Returns where the catalog was read from.
+	 * @return SOURCE_SNAPSHOT or SOURCE_TEXT, null if nothing was read.
+	 */
+	synchronized String getSource() {
+		return source;
+	}
+
+	/**
+	 * Returns true if this report records anything.
+	 * @return true if this report records anything, false for DISABLED.
+	 */
+	boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Sets the size of the search index.
+	 * @param searchWords the number of distinct words in the search index.
+	 * @param indexedWords the number of words indexed, counting every occurrence in the recipes.
+	 */
+	synchronized void setSearchIndex(int searchWords, long indexedWords) {
+		if (enabled) {
+			this.searchWords = searchWords;
+			this.indexedWords = indexedWords;
+		}
+	}
+
+	/**
+	 * Sets where the catalog was read from.
+	 * @param source SOURCE_SNAPSHOT or SOURCE_TEXT.
+	 */
+	synchronized void setSource(String source) {
+		if (enabled)
+			this.source = source;
+	}
+
+	@Override
+	public synchronized String toString() {
+		StringBuilder sb = new StringBuilder("Catalog load from ").append(source).append(':');
+
+		for (int i = 0; i < PHASE_NAMES.length; i++)
+			sb.append(' ').append(PHASE_NAMES[i]).append(' ').append(phaseNanos[i] / 1000000).append(" ms,");
+
+		sb.append(' ').append(bytesRead).append(" bytes, ");
+		sb.append(recipes).append(" recipes, ");
+		sb.append(ingredients).append(" ingredients, ");
+		sb.append(directions).append(" directions, ");
+		sb.append(malformedRecords).append(" malformed, ");
+		sb.append(packs).append(" packs, ");
+		sb.append(distinctStrings).append(" strings, ");
+		sb.append(sharedStrings).append(" shared (").append(sharedChars).append(" chars), ");
+		sb.append(searchWords).append(" search words (").append(indexedWords).append(" indexed)");
+
+		return sb.toString();
+	}
+}
@@ -1,6 +1,5 @@
 package com.companyx.android.cookingxp;
 
-import java.io.InputStream;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
@@ -130,18 +129,8 @@ public class MainActivity extends BaseActivity {
 		super.onCreate(savedInstanceState);
 		setContentView(R.layout.activity_main);
 		
-		// LOAD RECIPES FROM FILE
-		InputStream inputStream = getResources().openRawResource(R.raw.master_recipe_data);
-		RecipeLoader loader = new RecipeLoader(inputStream, recipeDatabase);
-		loader.loadData();
-		
-		// LOAD FAVORITES
-		recipeDatabase.loadFavoriteRecipes();
-		
-		// LOAD SHOPPING LIST
-		recipeDatabase.loadShoppingListRecipes();
-		
-		gameData.validate();
+		// LOAD RECIPES, FAVORITES AND SHOPPING LIST IN THE BACKGROUND
+		catalogLoader.start();
 	}
 	
 	@Override
@@ -153,6 +142,7 @@ public class MainActivity extends BaseActivity {
 	protected void onDestroy() {
 		super.onDestroy();
 		
+		catalogLoader.release();
 		recipeDatabase.release();
 		gameData.release();
 		
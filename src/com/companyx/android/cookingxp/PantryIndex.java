@@ -0,0 +1,309 @@
+package com.companyx.android.cookingxp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Pantry Index
+ *
+ * Matches the ingredients a user has on hand against the ingredient lists of the recipes, for "cook with what I have".
+ * A recipe scores the share of its ingredients the pantry covers, counting each ingredient name of the recipe once; salt, pepper, water and other staples can be left out of both sides of the share.
+ *
+ * A pantry item covers an ingredient when either holds all the search words of the other: "chicken" covers "chicken breast", and "smoked paprika" covers "paprika".
+ * The ingredients covered are found through the search words of the ingredient names, then their recipes are counted from one bitmap per ingredient name, so a pantry costs a count per recipe using one of its ingredients rather than a look at every recipe.
+ * Only the best recipes are kept, in a heap bounded by the number of results wanted, as in RecipeRanker.
+ *
+ * The index shares the ingredient bitmaps of the database; it must be rebuilt when recipe ingredients are indexed or removed.
+ * Not thread-safe; indexes are only touched under the RecipeDatabase lock.
+ */
+final class PantryIndex {
+	// CONSTANTS
+	private static final String[] STAPLE_WORDS = {"salt", "pepper", "water", "black", "white", "kosher", "sea", "table", "ground", "fresh", "freshly", "cold", "warm", "hot", "ice"}; // ingredients of these words alone are staples
+	private static final Set<String> STAPLE_TERMS = new HashSet<String>(); // the STAPLE_WORDS, analyzed
+	static {
+		TextAnalyzer stapleAnalyzer = new TextAnalyzer();
+		for (String word : STAPLE_WORDS)
+			STAPLE_TERMS.add(stapleAnalyzer.analyze(word));
+	}
+
+	// STATE VARIABLES
+	private final TextAnalyzer analyzer = new TextAnalyzer();
+	private final RecipeBitmap[] recipes; // recipe ordinals using each ingredient name, shared with the database
+	private final int[] nameWordCounts; // distinct search words in each ingredient name
+	private final boolean[] staples; // whether each ingredient name is a staple
+	private final Map<String, int[]> wordNames; // maps search word to the ingredient names using it, by index, ascending
+	private final short[] ingredientCounts; // ingredient names of each recipe, by ordinal
+	private final short[] stapleCounts; // staples among them, by ordinal
+
+	// SCRATCH SPACE, reused across lookups
+	private int[] nameHits; // pantry item words found in each ingredient name
+	private int[] touchedNames; // the ingredient names with hits
+	private short[] recipeHits; // covered ingredient names of each recipe, by ordinal
+	private int[] touchedRecipes; // the recipe ordinals with hits
+
+	// TOP RECIPES, a min-heap with the weakest recipe kept at the root
+	private int[] heapOrdinals;
+	private int[] heapCovered;
+	private int[] heapTotals;
+	private int heapSize;
+
+	/**
+	 * Constructor.
+	 * @param ingredientMap the ingredient index of the database, mapping ingredient name to bitmap of the ordinals of the recipes using it.
+	 * @param numRecipes the number of recipes in the database.
+	 */
+	PantryIndex(Map<String, RecipeBitmap> ingredientMap, int numRecipes) {
+		int numNames = ingredientMap.size();
+		recipes = new RecipeBitmap[numNames];
+		nameWordCounts = new int[numNames];
+		staples = new boolean[numNames];
+		ingredientCounts = new short[numRecipes];
+		stapleCounts = new short[numRecipes];
+
+		// INGREDIENT NAMES BY SEARCH WORD
+		Map<String, List<Integer>> names = new HashMap<String, List<Integer>>();
+		int name = 0;
+		for (Map.Entry<String, RecipeBitmap> entry : ingredientMap.entrySet()) {
+			recipes[name] = entry.getValue();
+
+			Set<String> words = new HashSet<String>();
+			analyzer.reset(entry.getKey());
+			while (analyzer.next())
+				words.add(analyzer.term());
+
+			nameWordCounts[name] = words.size();
+			staples[name] = !words.isEmpty() && STAPLE_TERMS.containsAll(words);
+			for (String word : words) {
+				List<Integer> wordList = names.get(word);
+				if (wordList == null) {
+					wordList = new ArrayList<Integer>();
+					names.put(word, wordList);
+				}
+				wordList.add(name);
+			}
+
+			// INGREDIENT COUNTS, by recipe
+			for (int ordinal : recipes[name].toArray()) {
+				ingredientCounts[ordinal]++;
+				if (staples[name])
+					stapleCounts[ordinal]++;
+			}
+
+			name++;
+		}
+
+		wordNames = new HashMap<String, int[]>();
+		for (Map.Entry<String, List<Integer>> entry : names.entrySet()) {
+			List<Integer> wordList = entry.getValue();
+			int[] array = new int[wordList.size()];
+			for (int i = 0; i < array.length; i++)
+				array[i] = wordList.get(i);
+			wordNames.put(entry.getKey(), array);
+		}
+
+		nameHits = new int[numNames];
+		touchedNames = new int[numNames];
+		recipeHits = new short[numRecipes];
+		touchedRecipes = new int[numRecipes];
+	}
+
+	/**
+	 * Returns true if a search word is a staple word, one of those an ingredient can consist of alone and be a staple, such as "salt" or "ground".
+	 * @param term the search word, as analyzed for the search index.
+	 * @return true if the word is a staple word, false otherwise.
+	 */
+	static boolean isStaple(String term) {
+		return STAPLE_TERMS.contains(term);
+	}
+
+	/**
+	 * Helper function which returns true if the recipe at one heap position ranks below the one at another: it covers a smaller share, or the same share of fewer ingredients, or comes later in the catalog.
+	 * @param i the first heap position.
+	 * @param j the second heap position.
+	 * @return true if the recipe at i ranks below the one at j, false otherwise.
+	 */
+	private boolean isWeaker(int i, int j) {
+		return isWeaker(heapCovered[i], heapTotals[i], heapOrdinals[i], heapCovered[j], heapTotals[j], heapOrdinals[j]);
+	}
+
+	/**
+	 * Helper function which returns true if one recipe ranks below another, see isWeaker(int, int).
+	 * @param covered the ingredients of the first recipe the pantry covers.
+	 * @param total the ingredients of the first recipe.
+	 * @param ordinal the ordinal of the first recipe.
+	 * @param otherCovered the ingredients of the second recipe the pantry covers.
+	 * @param otherTotal the ingredients of the second recipe.
+	 * @param otherOrdinal the ordinal of the second recipe.
+	 * @return true if the first recipe ranks below the second, false otherwise.
+	 */
+	private static boolean isWeaker(int covered, int total, int ordinal, int otherCovered, int otherTotal, int otherOrdinal) {
+		long share = (long) covered * otherTotal;
+		long otherShare = (long) otherCovered * total;
+		if (share != otherShare)
+			return share < otherShare;
+		if (covered != otherCovered)
+			return covered < otherCovered;
+
+		return ordinal > otherOrdinal;
+	}
+
+	/**
+	 * Returns the recipes best covered by a pantry.
+	 * @param pantry the ingredients on hand, as typed.
+	 * @param filter the ordinals of the recipes to consider.
+	 * @param ignoreStaples true to leave staples out, both as pantry items and as recipe ingredients.
+	 * @param limit the number of recipes to return.
+	 * @return the ordinals of the recipes covering the largest share of their ingredients, best first; recipes covered not at all are left out.
+	 */
+	int[] match(List<String> pantry, RecipeBitmap filter, boolean ignoreStaples, int limit) {
+		// INGREDIENT NAMES COVERED by any pantry item
+		boolean[] covered = new boolean[recipes.length];
+		int[] coveredNames = new int[recipes.length];
+		int numCovered = 0;
+		for (String item : pantry) {
+			Set<String> words = new HashSet<String>();
+			analyzer.reset(item);
+			while (analyzer.next())
+				words.add(analyzer.term());
+
+			int numTouched = 0;
+			for (String word : words) {
+				int[] names = wordNames.get(word);
+				if (names == null)
+					continue;
+
+				for (int name : names) {
+					if (nameHits[name]++ == 0)
+						touchedNames[numTouched++] = name;
+				}
+			}
+
+			for (int i = 0; i < numTouched; i++) {
+				int name = touchedNames[i];
+				if (!covered[name] && (nameHits[name] == words.size() || nameHits[name] == nameWordCounts[name]) && !(ignoreStaples && staples[name])) {
+					covered[name] = true;
+					coveredNames[numCovered++] = name;
+				}
+				nameHits[name] = 0;
+			}
+		}
+
+		// RECIPES USING THEM, counting the covered ingredients of each
+		int numMatched = 0;
+		for (int i = 0; i < numCovered; i++) {
+			for (int ordinal : recipes[coveredNames[i]].toArray()) {
+				if (recipeHits[ordinal]++ == 0)
+					touchedRecipes[numMatched++] = ordinal;
+			}
+		}
+
+		// KEEP THE BEST
+		heapOrdinals = new int[Math.max(0, Math.min(limit, numMatched))];
+		heapCovered = new int[heapOrdinals.length];
+		heapTotals = new int[heapOrdinals.length];
+		heapSize = 0;
+		for (int i = 0; i < numMatched; i++) {
+			int ordinal = touchedRecipes[i];
+			int hits = recipeHits[ordinal];
+			recipeHits[ordinal] = 0;
+
+			int total = ingredientCounts[ordinal] - (ignoreStaples ? stapleCounts[ordinal] : 0);
+			if (heapOrdinals.length > 0 && filter.contains(ordinal))
+				rank(hits, total, ordinal);
+		}
+
+		// the root is the weakest, so the array fills from the back
+		int[] result = new int[heapSize];
+		while (heapSize > 0) {
+			result[heapSize - 1] = heapOrdinals[0];
+			heapSize--;
+			if (heapSize > 0) {
+				heapOrdinals[0] = heapOrdinals[heapSize];
+				heapCovered[0] = heapCovered[heapSize];
+				heapTotals[0] = heapTotals[heapSize];
+				siftDown(0);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Helper function which keeps a recipe if it ranks among the best so far.
+	 * @param covered the ingredients of the recipe the pantry covers.
+	 * @param total the ingredients of the recipe.
+	 * @param ordinal the ordinal of the recipe.
+	 */
+	private void rank(int covered, int total, int ordinal) {
+		if (heapSize < heapOrdinals.length) {
+			heapOrdinals[heapSize] = ordinal;
+			heapCovered[heapSize] = covered;
+			heapTotals[heapSize] = total;
+			siftUp(heapSize++);
+		} else if (isWeaker(heapCovered[0], heapTotals[0], heapOrdinals[0], covered, total, ordinal)) {
+			heapOrdinals[0] = ordinal;
+			heapCovered[0] = covered;
+			heapTotals[0] = total;
+			siftDown(0);
+		}
+	}
+
+	/**
+	 * Helper function which moves the recipe at a heap position down to where it belongs.
+	 * @param i the heap position.
+	 */
+	private void siftDown(int i) {
+		while (true) {
+			int weakest = i;
+			int left = 2 * i + 1;
+			int right = left + 1;
+			if (left < heapSize && isWeaker(left, weakest))
+				weakest = left;
+			if (right < heapSize && isWeaker(right, weakest))
+				weakest = right;
+			if (weakest == i)
+				return;
+
+			swap(i, weakest);
+			i = weakest;
+		}
+	}
+
+	/**
+	 * Helper function which moves the recipe at a heap position up to where it belongs.
+	 * @param i the heap position.
+	 */
+	private void siftUp(int i) {
+		while (i > 0) {
+			int parent = (i - 1) / 2;
+			if (!isWeaker(i, parent))
+				return;
+
+			swap(i, parent);
+			i = parent;
+		}
+	}
+
+	/**
+	 * Helper function which swaps two heap positions.
+	 * @param i the first heap position.
+	 * @param j the second heap position.
+	 */
+	private void swap(int i, int j) {
+		int ordinal = heapOrdinals[i];
+		heapOrdinals[i] = heapOrdinals[j];
+		heapOrdinals[j] = ordinal;
+
+		int covered = heapCovered[i];
+		heapCovered[i] = heapCovered[j];
+		heapCovered[j] = covered;
+
+		int total = heapTotals[i];
+		heapTotals[i] = heapTotals[j];
+		heapTotals[j] = total;
+	}
+}
@@ -0,0 +1,111 @@
+package com.companyx.android.cookingxp;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Query Cache
+ *
+ * Keeps the results of recent searches, so that searches repeated while nothing changed, such as recipe categories revisited, are not run again.
+ * Results are kept by query key for as long as the generation they were cached in lasts; the database starts a new generation whenever recipes are added, indexed, unlocked or locked, which makes every earlier result stale at once without having to clear them.
+ * The least recently used results are evicted once the cache is full.
+ *
+ * Not thread-safe; RecipeDatabase only uses its cache under its lock.
+ */
+final class QueryCache {
+	// STATE VARIABLES
+	private final Map<String, CachedResult> results; // maps query key to result, in access order
+	private int generation;
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * The result of one query, and the generation it was cached in.
+	 */
+	private static class CachedResult {
+		final RecipeCursor recipes;
+		final int generation;
+
+		CachedResult(RecipeCursor recipes, int generation) {
+			this.recipes = recipes;
+			this.generation = generation;
+		}
+	}
+
+	/**
+	 * Constructor.
+	 * @param capacity the number of results to keep.
+	 */
+	QueryCache(final int capacity) {
+		results = new LinkedHashMap<String, CachedResult>(capacity, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+				if (size() <= capacity)
+					return false;
+
+				evictions++;
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Returns the cached result of a query, if it is still current.
+	 * @param key the query key.
+	 * @return the cached results; null if the query is not cached or its result is stale.
+	 */
+	RecipeCursor get(String key) {
+		CachedResult result = results.get(key);
+
+		if (result == null || result.generation != generation) {
+			misses++;
+			return null;
+		}
+
+		hits++;
+		return result.recipes;
+	}
+
+	/**
+	 * Returns the number of results evicted to make room for others.
+	 * @return the number of cache evictions.
+	 */
+	long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * Returns the number of lookups answered from the cache.
+	 * @return the number of cache hits.
+	 */
+	long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of lookups that had to run their query, because it was not cached or its result was stale.
+	 * @return the number of cache misses.
+	 */
+	long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Starts a new generation, making every cached result stale.
+	 */
+	void invalidate() {
+		generation++;
+	}
+
+	/**
+	 * Caches the result of a query in the current generation.
+	 * @param key the query key.
+	 * @param recipes the results of the query.
+	 */
+	void put(String key, RecipeCursor recipes) {
+		results.put(key, new CachedResult(recipes, generation));
+	}
+}
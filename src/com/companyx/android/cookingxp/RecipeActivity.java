@@ -35,9 +35,11 @@ import com.companyx.android.cookingxp.RecipeDatabase.RecipeTime;
 public class RecipeActivity extends BaseActivity {
 	// DEFAULT SETTINGS
 	private static final byte MAX_QUANTITY = 8;
+	private static final int MAX_SIMILAR_RECIPES = 3;
 	
 	// VIEW HOLDERS
 	private LinearLayout layoutBody;
+	private LinearLayout layoutSimilar;
 	private TextView textViewName;
 	private TextView textViewSubtitle;
 	private ImageButton buttonFavorite;
@@ -47,6 +49,9 @@ public class RecipeActivity extends BaseActivity {
 	private int recipeId;
 	private Recipe recipe;
 	
+	// SYSTEM
+	private CatalogLoader.OnCatalogStateChangedListener catalogListener;
+	
 	/**
 	 * Adds a formatted header to the parent ViewGroup.
 	 * @param title the String to use as the header title.
@@ -103,6 +108,18 @@ public class RecipeActivity extends BaseActivity {
 		viewGroup.addView(tv);
 	}
 	
+	/**
+	 * Adds the similar recipes section, once the catalog is ready; similar recipes are only linked then.
+	 */
+	private void addSimilarRecipes() {
+		List<Recipe> similarRecipes = recipeDatabase.getSimilarRecipes(recipeId, MAX_SIMILAR_RECIPES);
+		if (!similarRecipes.isEmpty()) {
+			addHeader(getString(R.string.recipe_header_similar), layoutSimilar, this, scalingFactor);
+			for (Recipe similarRecipe : similarRecipes)
+				addTextLine(similarRecipe.name, layoutSimilar, this, scalingFactor);
+		}
+	}
+	
 	/**
 	 * Adds a formatted text line to the parent ViewGroup.
 	 * @param text the String to add as the text.
@@ -243,8 +260,7 @@ public class RecipeActivity extends BaseActivity {
 		LinearLayout llBoxes = new LinearLayout(this);
 		llBoxes.setOrientation(LinearLayout.VERTICAL);
 		
-		List<Short> boxes = recipe.boxes;
-		for (short boxId : boxes) {
+		for (short boxId : recipe.boxes) {
 			ImageView iv = new ImageView(this);
 			iv.setImageResource(gameData.findBoxById(boxId).unlockedImgRes);
 			llBoxes.addView(iv);
@@ -256,7 +272,7 @@ public class RecipeActivity extends BaseActivity {
 		
 		// INGREDIENTS
 		addHeader(getString(R.string.recipe_header_ingredients), layoutBody, this, scalingFactor);
-		for (RecipeIngredient ri : recipe.ingredients) {
+		for (RecipeIngredient ri : recipe.getIngredients()) {
 			String s = ri.amount + " " + ri.measurement + " " + ri.ingredientName;
 			
 			// ingredient notes
@@ -269,11 +285,19 @@ public class RecipeActivity extends BaseActivity {
 		
 		// DIRECTIONS
 		addHeader(getString(R.string.recipe_header_directions), layoutBody, this, scalingFactor);
-		if (recipe.directions != null) {
-			for (RecipeDirection rd : recipe.directions)
+		List<RecipeDirection> directions = recipe.getDirections();
+		if (directions != null) {
+			for (RecipeDirection rd : directions)
 				addTextLine(rd.direction, layoutBody, this, scalingFactor);
 		}
 		
+		// SIMILAR RECIPES, filled in when the catalog is ready if it is still loading
+		layoutSimilar = new LinearLayout(this);
+		layoutSimilar.setOrientation(LinearLayout.VERTICAL);
+		layoutBody.addView(layoutSimilar, new LinearLayout.LayoutParams(LinearLayout.LayoutParams.MATCH_PARENT, LinearLayout.LayoutParams.WRAP_CONTENT));
+		if (catalogLoader.hasReached(CatalogLoader.STATE_READY))
+			addSimilarRecipes();
+		
 		// "I COOKED IT" TODO for debugging
 		Button buttonICookedIt = new Button(this);
 		buttonICookedIt.setText("I cooked it, Scout's honor.");
@@ -294,6 +318,36 @@ public class RecipeActivity extends BaseActivity {
 		
 		getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
 
-		initialize();
+		// wait for the catalog if the Activity was opened while it is still loading: searchable to show the recipe, ready to show similar recipes
+		if (catalogLoader.hasReached(CatalogLoader.STATE_SEARCHABLE))
+			initialize();
+		if (!catalogLoader.hasReached(CatalogLoader.STATE_READY)) {
+			catalogListener = new CatalogLoader.OnCatalogStateChangedListener() {
+				@Override
+				public void onCatalogStateChanged(int state) {
+					if (state >= CatalogLoader.STATE_READY) {
+						catalogLoader.removeListener(this);
+						catalogListener = null;
+						
+						// initialize() adds similar recipes itself once the catalog is ready
+						if (recipe == null)
+							initialize();
+						else
+							addSimilarRecipes();
+					}
+					else if (state >= CatalogLoader.STATE_SEARCHABLE && recipe == null)
+						initialize();
+				}
+			};
+			catalogLoader.addListener(catalogListener);
+		}
+	}
+	
+	@Override
+	protected void onDestroy() {
+		super.onDestroy();
+		
+		if (catalogListener != null)
+			catalogLoader.removeListener(catalogListener);
 	}
 }
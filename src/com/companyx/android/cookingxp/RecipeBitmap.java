@@ -0,0 +1,712 @@
+package com.companyx.android.cookingxp;
+
+/**
+ * Recipe Bitmap
+ *
+ * Compressed set of recipe ordinals (see RecipeDatabase), laid out like a Roaring bitmap.
+ * Values are split by their high 16 bits into chunks of 65536, and each chunk in use is held in a container of its own:
+ * - sparse chunks, up to ARRAY_MAX values, as a sorted char[] of the low 16 bits; 2 bytes per value
+ * - dense chunks as a 65536-bit bitset; 8 KB, whatever the number of values
+ * Set operations run container by container, with an algorithm for each pair of container kinds.
+ *
+ * RULES:
+ * - Not thread-safe; bitmaps are only touched under the RecipeDatabase lock.
+ * - The results of and(), or() and andNot() may share containers with their inputs, or be one of the inputs; they are read-only.
+ */
+final class RecipeBitmap {
+	// CONSTANTS
+	private static final int ARRAY_MAX = 4096; // above this many values a bitset is smaller than an array
+	private static final int BITSET_WORDS = 1024; // 65536 bits
+	private static final int[] EMPTY = new int[0];
+
+	// STATE VARIABLES
+	private char[] keys; // high 16 bits of the values in each container, ascending
+	private Container[] containers;
+	private int numContainers;
+	private int cardinality;
+
+	/**
+	 * Set of the low 16 bits of the values in one chunk.
+	 * Mutators return the container to use from then on, which may be a new container of the other kind.
+	 */
+	private static abstract class Container {
+		abstract Container add(char value);
+		abstract Container and(Container other);
+		abstract Container andNot(Container other);
+		abstract int cardinality();
+		abstract boolean contains(char value);
+		abstract Container copy();
+		abstract Container or(Container other);
+		abstract Container remove(char value);
+
+		/**
+		 * Writes the values of the container, combined with the high bits, in ascending order.
+		 * @param out the array to write to.
+		 * @param offset the index to start writing at.
+		 * @param high the high 16 bits, already shifted into place.
+		 */
+		abstract void toArray(int[] out, int offset, int high);
+	}
+
+	/**
+	 * Container for sparse chunks: the values in a sorted array.
+	 */
+	private static final class ArrayContainer extends Container {
+		char[] values;
+		int cardinality;
+
+		ArrayContainer(int capacity) {
+			values = new char[capacity];
+		}
+
+		@Override
+		Container add(char value) {
+			// values mostly arrive in ascending order
+			int i = (cardinality == 0 || values[cardinality - 1] < value) ? -(cardinality + 1) : search(value);
+			if (i >= 0)
+				return this;
+
+			if (cardinality == ARRAY_MAX)
+				return toBitset().add(value);
+
+			i = -(i + 1);
+			if (cardinality == values.length) {
+				char[] grown = new char[Math.min(ARRAY_MAX, Math.max(4, cardinality * 2))];
+				System.arraycopy(values, 0, grown, 0, cardinality);
+				values = grown;
+			}
+			System.arraycopy(values, i, values, i + 1, cardinality - i);
+			values[i] = value;
+			cardinality++;
+
+			return this;
+		}
+
+		@Override
+		Container and(Container other) {
+			if (other instanceof BitsetContainer) {
+				ArrayContainer result = new ArrayContainer(cardinality);
+				for (int i = 0; i < cardinality; i++) {
+					if (other.contains(values[i]))
+						result.values[result.cardinality++] = values[i];
+				}
+				return result;
+			}
+
+			// walk the smaller array, galloping through the larger one from the last match
+			ArrayContainer small = this;
+			ArrayContainer large = (ArrayContainer) other;
+			if (small.cardinality > large.cardinality) {
+				small = large;
+				large = this;
+			}
+
+			ArrayContainer result = new ArrayContainer(small.cardinality);
+			int position = 0;
+			for (int i = 0; i < small.cardinality; i++) {
+				position = gallop(large.values, position, large.cardinality, small.values[i]);
+				if (position == large.cardinality)
+					break;
+				if (large.values[position] == small.values[i])
+					result.values[result.cardinality++] = small.values[i];
+			}
+
+			return result;
+		}
+
+		@Override
+		Container andNot(Container other) {
+			ArrayContainer result = new ArrayContainer(cardinality);
+			for (int i = 0; i < cardinality; i++) {
+				if (!other.contains(values[i]))
+					result.values[result.cardinality++] = values[i];
+			}
+
+			return result;
+		}
+
+		@Override
+		int cardinality() {
+			return cardinality;
+		}
+
+		@Override
+		boolean contains(char value) {
+			return search(value) >= 0;
+		}
+
+		@Override
+		Container copy() {
+			ArrayContainer result = new ArrayContainer(cardinality);
+			System.arraycopy(values, 0, result.values, 0, cardinality);
+			result.cardinality = cardinality;
+
+			return result;
+		}
+
+		@Override
+		Container or(Container other) {
+			if (other instanceof BitsetContainer)
+				return other.or(this);
+
+			ArrayContainer that = (ArrayContainer) other;
+			if (cardinality + that.cardinality > ARRAY_MAX)
+				return toBitset().or(that);
+
+			// MERGE
+			ArrayContainer result = new ArrayContainer(cardinality + that.cardinality);
+			int i = 0;
+			int j = 0;
+			while (i < cardinality && j < that.cardinality) {
+				char a = values[i];
+				char b = that.values[j];
+				if (a <= b)
+					i++;
+				if (b <= a)
+					j++;
+				result.values[result.cardinality++] = (a <= b) ? a : b;
+			}
+			while (i < cardinality)
+				result.values[result.cardinality++] = values[i++];
+			while (j < that.cardinality)
+				result.values[result.cardinality++] = that.values[j++];
+
+			return result;
+		}
+
+		@Override
+		Container remove(char value) {
+			int i = search(value);
+			if (i >= 0) {
+				System.arraycopy(values, i + 1, values, i, cardinality - i - 1);
+				cardinality--;
+			}
+
+			return this;
+		}
+
+		/**
+		 * Helper function which binary searches the values.
+		 * @param value the value to search for.
+		 * @return the index of the value, or -(insertion point + 1) if absent.
+		 */
+		private int search(char value) {
+			int low = 0;
+			int high = cardinality - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				if (values[mid] < value)
+					low = mid + 1;
+				else if (values[mid] > value)
+					high = mid - 1;
+				else
+					return mid;
+			}
+
+			return -(low + 1);
+		}
+
+		@Override
+		void toArray(int[] out, int offset, int high) {
+			for (int i = 0; i < cardinality; i++)
+				out[offset + i] = high | values[i];
+		}
+
+		/**
+		 * Helper function which converts the container to a bitset container.
+		 * @return the bitset container holding the same values.
+		 */
+		private BitsetContainer toBitset() {
+			BitsetContainer result = new BitsetContainer();
+			for (int i = 0; i < cardinality; i++)
+				result.words[values[i] >>> 6] |= 1L << values[i];
+			result.cardinality = cardinality;
+
+			return result;
+		}
+	}
+
+	/**
+	 * Container for dense chunks: one bit per possible value.
+	 */
+	private static final class BitsetContainer extends Container {
+		final long[] words;
+		int cardinality;
+
+		BitsetContainer() {
+			words = new long[BITSET_WORDS];
+		}
+
+		@Override
+		Container add(char value) {
+			long bit = 1L << value;
+			if ((words[value >>> 6] & bit) == 0) {
+				words[value >>> 6] |= bit;
+				cardinality++;
+			}
+
+			return this;
+		}
+
+		@Override
+		Container and(Container other) {
+			if (other instanceof ArrayContainer)
+				return other.and(this);
+
+			BitsetContainer result = new BitsetContainer();
+			long[] otherWords = ((BitsetContainer) other).words;
+			for (int i = 0; i < BITSET_WORDS; i++) {
+				result.words[i] = words[i] & otherWords[i];
+				result.cardinality += Long.bitCount(result.words[i]);
+			}
+
+			return result.shrink();
+		}
+
+		@Override
+		Container andNot(Container other) {
+			BitsetContainer result = new BitsetContainer();
+			if (other instanceof ArrayContainer) {
+				System.arraycopy(words, 0, result.words, 0, BITSET_WORDS);
+				result.cardinality = cardinality;
+
+				ArrayContainer that = (ArrayContainer) other;
+				for (int i = 0; i < that.cardinality; i++) {
+					char value = that.values[i];
+					long bit = 1L << value;
+					if ((result.words[value >>> 6] & bit) != 0) {
+						result.words[value >>> 6] &= ~bit;
+						result.cardinality--;
+					}
+				}
+			} else {
+				long[] otherWords = ((BitsetContainer) other).words;
+				for (int i = 0; i < BITSET_WORDS; i++) {
+					result.words[i] = words[i] & ~otherWords[i];
+					result.cardinality += Long.bitCount(result.words[i]);
+				}
+			}
+
+			return result.shrink();
+		}
+
+		@Override
+		int cardinality() {
+			return cardinality;
+		}
+
+		@Override
+		boolean contains(char value) {
+			return (words[value >>> 6] & (1L << value)) != 0;
+		}
+
+		@Override
+		Container copy() {
+			BitsetContainer result = new BitsetContainer();
+			System.arraycopy(words, 0, result.words, 0, BITSET_WORDS);
+			result.cardinality = cardinality;
+
+			return result;
+		}
+
+		@Override
+		Container or(Container other) {
+			BitsetContainer result = new BitsetContainer();
+			System.arraycopy(words, 0, result.words, 0, BITSET_WORDS);
+
+			if (other instanceof ArrayContainer) {
+				result.cardinality = cardinality;
+
+				ArrayContainer that = (ArrayContainer) other;
+				for (int i = 0; i < that.cardinality; i++)
+					result.add(that.values[i]);
+			} else {
+				long[] otherWords = ((BitsetContainer) other).words;
+				for (int i = 0; i < BITSET_WORDS; i++) {
+					result.words[i] |= otherWords[i];
+					result.cardinality += Long.bitCount(result.words[i]);
+				}
+			}
+
+			return result;
+		}
+
+		@Override
+		Container remove(char value) {
+			long bit = 1L << value;
+			if ((words[value >>> 6] & bit) != 0) {
+				words[value >>> 6] &= ~bit;
+				cardinality--;
+			}
+
+			return shrink();
+		}
+
+		/**
+		 * Helper function which converts the container to an array container once it is sparse enough.
+		 * @return an array container holding the same values if sparse, this container otherwise.
+		 */
+		private Container shrink() {
+			if (cardinality > ARRAY_MAX)
+				return this;
+
+			ArrayContainer result = new ArrayContainer(cardinality);
+			toArray(result.values, cardinality);
+			result.cardinality = cardinality;
+
+			return result;
+		}
+
+		/**
+		 * Helper function which writes the set bits, in ascending order, as chars.
+		 * @param out the array to write to.
+		 * @param count the number of set bits.
+		 */
+		private void toArray(char[] out, int count) {
+			int n = 0;
+			for (int i = 0; i < BITSET_WORDS && n < count; i++) {
+				long word = words[i];
+				while (word != 0) {
+					out[n++] = (char) ((i << 6) + Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+		}
+
+		@Override
+		void toArray(int[] out, int offset, int high) {
+			int n = offset;
+			for (int i = 0; i < BITSET_WORDS; i++) {
+				long word = words[i];
+				while (word != 0) {
+					out[n++] = high | ((i << 6) + Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Constructor for an empty bitmap.
+	 */
+	RecipeBitmap() {
+		this(1);
+	}
+
+	/**
+	 * Constructor for an empty bitmap with room for the specified number of containers.
+	 * @param capacity the number of containers to make room for.
+	 */
+	private RecipeBitmap(int capacity) {
+		keys = new char[Math.max(1, capacity)];
+		containers = new Container[keys.length];
+	}
+
+	/**
+	 * Adds a value; adding one already present has no effect.
+	 * @param value the value to add, not negative.
+	 * @return true if the value was added, false if it was already present.
+	 */
+	boolean add(int value) {
+		char key = (char) (value >>> 16);
+		int i = search(key);
+
+		if (i < 0) {
+			i = -(i + 1);
+			insert(i, key, new ArrayContainer(4));
+		}
+
+		Container container = containers[i];
+		int before = container.cardinality();
+		containers[i] = container.add((char) value);
+		int added = containers[i].cardinality() - before;
+		cardinality += added;
+
+		return added > 0;
+	}
+
+	/**
+	 * Returns the intersection of two bitmaps.
+	 * @param a the first bitmap.
+	 * @param b the second bitmap.
+	 * @return a read-only bitmap of the values present in both.
+	 */
+	static RecipeBitmap and(RecipeBitmap a, RecipeBitmap b) {
+		RecipeBitmap result = new RecipeBitmap(Math.min(a.numContainers, b.numContainers));
+
+		int i = 0;
+		int j = 0;
+		while (i < a.numContainers && j < b.numContainers) {
+			if (a.keys[i] < b.keys[j])
+				i++;
+			else if (a.keys[i] > b.keys[j])
+				j++;
+			else {
+				result.append(a.keys[i], a.containers[i].and(b.containers[j]));
+				i++;
+				j++;
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the intersection of several bitmaps, intersecting the smallest first and stopping as soon as the result is empty.
+	 * @param bitmaps the bitmaps to intersect; reordered by cardinality.
+	 * @param count the number of bitmaps, at least one.
+	 * @return a read-only bitmap of the values present in all of them.
+	 */
+	static RecipeBitmap and(RecipeBitmap[] bitmaps, int count) {
+		// PLAN: smallest first, insertion sort as there are only a few
+		for (int i = 1; i < count; i++) {
+			RecipeBitmap bitmap = bitmaps[i];
+			int j = i - 1;
+			while (j >= 0 && bitmaps[j].cardinality > bitmap.cardinality) {
+				bitmaps[j + 1] = bitmaps[j];
+				j--;
+			}
+			bitmaps[j + 1] = bitmap;
+		}
+
+		RecipeBitmap result = bitmaps[0];
+		for (int k = 1; k < count && !result.isEmpty(); k++) {
+			if (bitmaps[k] != bitmaps[k - 1]) // repeated term
+				result = and(result, bitmaps[k]);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the difference of two bitmaps.
+	 * @param a the bitmap to subtract from.
+	 * @param b the bitmap to subtract.
+	 * @return a read-only bitmap of the values present in a but not in b.
+	 */
+	static RecipeBitmap andNot(RecipeBitmap a, RecipeBitmap b) {
+		RecipeBitmap result = new RecipeBitmap(a.numContainers);
+
+		int j = 0;
+		for (int i = 0; i < a.numContainers; i++) {
+			while (j < b.numContainers && b.keys[j] < a.keys[i])
+				j++;
+
+			if (j < b.numContainers && b.keys[j] == a.keys[i])
+				result.append(a.keys[i], a.containers[i].andNot(b.containers[j]));
+			else
+				result.append(a.keys[i], a.containers[i]);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Helper function which adds a container after all others, unless it is empty.
+	 * @param key the high 16 bits of the container, greater than any present.
+	 * @param container the container.
+	 */
+	private void append(char key, Container container) {
+		if (container.cardinality() > 0) {
+			insert(numContainers, key, container);
+			cardinality += container.cardinality();
+		}
+	}
+
+	/**
+	 * Returns the number of values in the bitmap.
+	 * @return the number of values.
+	 */
+	int cardinality() {
+		return cardinality;
+	}
+
+	/**
+	 * Returns true if the bitmap holds the value.
+	 * @param value the value to look for.
+	 * @return true if the bitmap holds the value, false otherwise.
+	 */
+	boolean contains(int value) {
+		int i = search((char) (value >>> 16));
+
+		return i >= 0 && containers[i].contains((char) value);
+	}
+
+	/**
+	 * Returns a copy of the bitmap which shares nothing with it, for keeping a set as it is while the bitmap goes on changing; see CatalogVersion.
+	 * @return a new bitmap of the same values.
+	 */
+	RecipeBitmap copy() {
+		RecipeBitmap result = new RecipeBitmap(numContainers);
+		for (int i = 0; i < numContainers; i++)
+			result.append(keys[i], containers[i].copy());
+
+		return result;
+	}
+
+	/**
+	 * Helper function which returns the index of the first value not less than the target, galloping ahead from a starting index.
+	 * Steps ahead in doubling strides, then binary searches the last stride, so a short hop costs little and a long one costs a logarithm.
+	 * @param values the sorted values.
+	 * @param from the index to start searching from.
+	 * @param size the number of values.
+	 * @param target the value to search for.
+	 * @return the index of the first value not less than the target, or size if there is none.
+	 */
+	private static int gallop(char[] values, int from, int size, char target) {
+		if (from >= size || values[from] >= target)
+			return from;
+
+		// values[low] < target from here on
+		int low = from;
+		int step = 1;
+		while (low + step < size && values[low + step] < target) {
+			low += step;
+			step <<= 1;
+		}
+		int high = Math.min(low + step, size);
+
+		// values[low] < target <= values[high], treating values[size] as infinite
+		while (high - low > 1) {
+			int mid = (low + high) >>> 1;
+			if (values[mid] < target)
+				low = mid;
+			else
+				high = mid;
+		}
+
+		return high;
+	}
+
+	/**
+	 * Helper function which inserts a container at an index, shifting later ones back.
+	 * @param i the index to insert at.
+	 * @param key the high 16 bits of the container.
+	 * @param container the container.
+	 */
+	private void insert(int i, char key, Container container) {
+		if (numContainers == keys.length) {
+			char[] grownKeys = new char[keys.length * 2];
+			Container[] grownContainers = new Container[keys.length * 2];
+			System.arraycopy(keys, 0, grownKeys, 0, numContainers);
+			System.arraycopy(containers, 0, grownContainers, 0, numContainers);
+			keys = grownKeys;
+			containers = grownContainers;
+		}
+
+		System.arraycopy(keys, i, keys, i + 1, numContainers - i);
+		System.arraycopy(containers, i, containers, i + 1, numContainers - i);
+		keys[i] = key;
+		containers[i] = container;
+		numContainers++;
+	}
+
+	/**
+	 * Returns true if the bitmap holds no values.
+	 * @return true if the bitmap is empty, false otherwise.
+	 */
+	boolean isEmpty() {
+		return cardinality == 0;
+	}
+
+	/**
+	 * Returns the union of two bitmaps.
+	 * @param a the first bitmap.
+	 * @param b the second bitmap.
+	 * @return a read-only bitmap of the values present in either.
+	 */
+	static RecipeBitmap or(RecipeBitmap a, RecipeBitmap b) {
+		if (a.isEmpty())
+			return b;
+		if (b.isEmpty())
+			return a;
+
+		RecipeBitmap result = new RecipeBitmap(a.numContainers + b.numContainers);
+
+		int i = 0;
+		int j = 0;
+		while (i < a.numContainers || j < b.numContainers) {
+			if (j == b.numContainers || (i < a.numContainers && a.keys[i] < b.keys[j])) {
+				result.append(a.keys[i], a.containers[i]);
+				i++;
+			} else if (i == a.numContainers || a.keys[i] > b.keys[j]) {
+				result.append(b.keys[j], b.containers[j]);
+				j++;
+			} else {
+				result.append(a.keys[i], a.containers[i].or(b.containers[j]));
+				i++;
+				j++;
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Removes a value, if present.
+	 * @param value the value to remove.
+	 */
+	void remove(int value) {
+		int i = search((char) (value >>> 16));
+		if (i < 0)
+			return;
+
+		Container container = containers[i];
+		int before = container.cardinality();
+		container = container.remove((char) value);
+		cardinality -= before - container.cardinality();
+
+		if (container.cardinality() > 0)
+			containers[i] = container;
+		else {
+			// drop the empty container
+			System.arraycopy(keys, i + 1, keys, i, numContainers - i - 1);
+			System.arraycopy(containers, i + 1, containers, i, numContainers - i - 1);
+			numContainers--;
+			containers[numContainers] = null;
+		}
+	}
+
+	/**
+	 * Helper function which binary searches the container keys.
+	 * @param key the high 16 bits to search for.
+	 * @return the index of the container, or -(insertion point + 1) if absent.
+	 */
+	private int search(char key) {
+		// values mostly arrive in ascending order, so try the last container first
+		if (numContainers > 0 && keys[numContainers - 1] == key)
+			return numContainers - 1;
+
+		int low = 0;
+		int high = numContainers - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (keys[mid] < key)
+				low = mid + 1;
+			else if (keys[mid] > key)
+				high = mid - 1;
+			else
+				return mid;
+		}
+
+		return -(low + 1);
+	}
+
+	/**
+	 * Returns the values in the bitmap, in ascending order.
+	 * @return the values in ascending order.
+	 */
+	int[] toArray() {
+		if (cardinality == 0)
+			return EMPTY;
+
+		int[] result = new int[cardinality];
+		int offset = 0;
+		for (int i = 0; i < numContainers; i++) {
+			containers[i].toArray(result, offset, keys[i] << 16);
+			offset += containers[i].cardinality();
+		}
+
+		return result;
+	}
+}
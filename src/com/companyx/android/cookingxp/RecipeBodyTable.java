@@ -0,0 +1,125 @@
+package com.companyx.android.cookingxp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.companyx.android.cookingxp.RecipeDatabase.Recipe;
+import com.companyx.android.cookingxp.RecipeDatabase.RecipeBodySource;
+import com.companyx.android.cookingxp.RecipeDatabase.RecipeDirection;
+import com.companyx.android.cookingxp.RecipeDatabase.RecipeIngredient;
+
+/**
+ * Recipe Body Table
+ *
+ * Holds the bodies of recipes kept in memory, such as recipe packs, as flat columns rather than a List of small objects per recipe, in the layout CatalogSnapshot keeps on disk.
+ * Each field of the ingredients is a column of Strings, in recipe order, and the ingredients of a recipe are the run from its start offset to the next recipe's; directions likewise.
+ * This saves the list and element objects of every recipe, about half the heap a parsed body takes; the Strings themselves are shared through the StringPool as before.
+ * Ingredients and directions are handed out as new Lists built from the columns when asked for.
+ *
+ * Thread-safe, being immutable once built.
+ */
+final class RecipeBodyTable implements RecipeBodySource {
+	// INGREDIENT COLUMNS
+	private final int[] ingredientStarts; // position of the first ingredient of each recipe, and the ingredient count at the end
+	private final String[] amounts;
+	private final String[] measurements;
+	private final String[] ingredientNames;
+	private final String[] notes;
+
+	// DIRECTION COLUMNS
+	private final int[] directionStarts; // position of the first direction of each recipe, and the direction count at the end
+	private final String[] directions;
+	private final short[] directionTimes;
+
+	/**
+	 * Private constructor, see moveBodies().
+	 * @param recipes the recipes whose bodies to copy, holding their bodies.
+	 */
+	private RecipeBodyTable(List<Recipe> recipes) {
+		int numRecipes = recipes.size();
+		ingredientStarts = new int[numRecipes + 1];
+		directionStarts = new int[numRecipes + 1];
+
+		int numIngredients = 0;
+		int numDirections = 0;
+		for (int r = 0; r < numRecipes; r++) {
+			Recipe recipe = recipes.get(r);
+			ingredientStarts[r] = numIngredients;
+			directionStarts[r] = numDirections;
+			numIngredients += recipe.getIngredients().size();
+			if (recipe.getDirections() != null)
+				numDirections += recipe.getDirections().size();
+		}
+		ingredientStarts[numRecipes] = numIngredients;
+		directionStarts[numRecipes] = numDirections;
+
+		amounts = new String[numIngredients];
+		measurements = new String[numIngredients];
+		ingredientNames = new String[numIngredients];
+		notes = new String[numIngredients];
+		directions = new String[numDirections];
+		directionTimes = new short[numDirections];
+
+		for (int r = 0; r < numRecipes; r++) {
+			int i = ingredientStarts[r];
+			for (RecipeIngredient ri : recipes.get(r).getIngredients()) {
+				amounts[i] = ri.amount;
+				measurements[i] = ri.measurement;
+				ingredientNames[i] = ri.ingredientName;
+				notes[i] = ri.notes;
+				i++;
+			}
+
+			List<RecipeDirection> recipeDirections = recipes.get(r).getDirections();
+			if (recipeDirections == null)
+				continue;
+
+			int d = directionStarts[r];
+			for (RecipeDirection rd : recipeDirections) {
+				directions[d] = rd.direction;
+				directionTimes[d] = rd.timeInMin;
+				d++;
+			}
+		}
+	}
+
+	/**
+	 * Moves the bodies of recipes into a new table, after which the recipes read their bodies from it.
+	 * @param recipes the recipes, holding their bodies.
+	 * @return the table holding the bodies.
+	 */
+	static RecipeBodyTable moveBodies(List<Recipe> recipes) {
+		RecipeBodyTable table = new RecipeBodyTable(recipes);
+		for (int r = 0; r < recipes.size(); r++)
+			recipes.get(r).setBodySource(table, r);
+
+		return table;
+	}
+
+	@Override
+	public List<RecipeDirection> readDirections(int bodyRecord) {
+		int start = directionStarts[bodyRecord];
+		int end = directionStarts[bodyRecord + 1];
+
+		List<RecipeDirection> result = new ArrayList<RecipeDirection>(end - start);
+		for (int d = start; d < end; d++) {
+			RecipeDirection direction = new RecipeDirection(directions[d]);
+			direction.timeInMin = directionTimes[d];
+			result.add(direction);
+		}
+
+		return result;
+	}
+
+	@Override
+	public List<RecipeIngredient> readIngredients(int bodyRecord) {
+		int start = ingredientStarts[bodyRecord];
+		int end = ingredientStarts[bodyRecord + 1];
+
+		List<RecipeIngredient> result = new ArrayList<RecipeIngredient>(end - start);
+		for (int i = start; i < end; i++)
+			result.add(new RecipeIngredient(amounts[i], measurements[i], ingredientNames[i], notes[i]));
+
+		return result;
+	}
+}
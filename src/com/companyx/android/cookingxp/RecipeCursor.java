@@ -0,0 +1,118 @@
+package com.companyx.android.cookingxp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.companyx.android.cookingxp.RecipeDatabase.Recipe;
+
+/**
+ * Recipe Cursor
+ *
+ * The results of a recipe query in display order, read a page at a time so that only the recipes on screen are ever listed.
+ * The results are held as a bitset over the ranks of a RecipeOrder, with a running count of results every 64 ranks to find where a page starts: about 20 bytes per 100 recipes in the database however many match, instead of a List of all of them.
+ *
+ * The results are fixed when the query runs; recipes added, unlocked or locked since show up in the next query.
+ * Thread-safe, pages are read under the database lock.
+ */
+final class RecipeCursor {
+	// STATE VARIABLES
+	private final Object lock; // the database, guarding recipes
+	private final List<Recipe> recipes; // the recipes of the database, indexed by ordinal
+	private final int[] ordinals; // recipe ordinals by rank, shared with the RecipeOrder
+	private final long[] marks; // bitset of the ranks of the results
+	private final int[] counts; // number of results ranked before each word of marks
+	private final int count;
+
+	/**
+	 * Constructor.
+	 * @param lock the lock guarding recipes.
+	 * @param recipes the recipes of the database, indexed by ordinal.
+	 * @param ordinals the recipe ordinals of the order, by rank.
+	 * @param marks the bitset of the ranks of the results, not to be modified afterwards.
+	 */
+	RecipeCursor(Object lock, List<Recipe> recipes, int[] ordinals, long[] marks) {
+		this.lock = lock;
+		this.recipes = recipes;
+		this.ordinals = ordinals;
+		this.marks = marks;
+
+		counts = new int[marks.length];
+		int total = 0;
+		for (int i = 0; i < marks.length; i++) {
+			counts[i] = total;
+			total += Long.bitCount(marks[i]);
+		}
+		count = total;
+	}
+
+	/**
+	 * Returns the number of results, without listing them.
+	 * @return the number of recipes the query returned.
+	 */
+	int getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the ordinals of all results, for counting them rather than listing them; see RecipeDatabase.getFacets().
+	 * @return a new array of the ordinals of the results, in display order.
+	 */
+	int[] getOrdinals() {
+		int[] result = new int[count];
+
+		int n = 0;
+		for (int i = 0; i < marks.length; i++) {
+			for (long word = marks[i]; word != 0; word &= word - 1)
+				result[n++] = ordinals[(i << 6) + Long.numberOfTrailingZeros(word)];
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns a page of results, in display order.
+	 * @param offset the position of the first result of the page, from 0.
+	 * @param pageSize the most results to return.
+	 * @return a new List of the results from offset on, shorter than pageSize at the end of the results and empty past them.
+	 */
+	List<Recipe> getPage(int offset, int pageSize) {
+		if (offset < 0 || offset >= count || pageSize <= 0)
+			return new ArrayList<Recipe>();
+
+		List<Recipe> result = new ArrayList<Recipe>(Math.min(pageSize, count - offset));
+
+		// FIND THE FIRST RESULT, in the last word with no more than offset results before it
+		int low = 0;
+		int high = marks.length - 1;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (counts[middle] <= offset)
+				low = middle;
+			else
+				high = middle - 1;
+		}
+
+		long word = marks[low];
+		for (int skip = offset - counts[low]; skip > 0; skip--)
+			word &= word - 1;
+
+		// READ THE PAGE
+		synchronized (lock) {
+			int i = low;
+			while (true) {
+				while (word != 0) {
+					int rank = (i << 6) + Long.numberOfTrailingZeros(word);
+					word &= word - 1;
+
+					result.add(recipes.get(ordinals[rank]));
+					if (result.size() == pageSize)
+						return result;
+				}
+
+				if (++i == marks.length)
+					return result;
+				word = marks[i];
+			}
+		}
+	}
+}
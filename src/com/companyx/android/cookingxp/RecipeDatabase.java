@@ -1,13 +1,17 @@
 package com.companyx.android.cookingxp;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
 import java.util.TreeSet;
 
 import com.companyx.android.cookingxp.R;
@@ -15,6 +19,7 @@ import com.companyx.android.cookingxp.R;
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.util.Log;
 
 /**
  * Recipe Database
@@ -24,6 +29,13 @@ import android.content.SharedPreferences;
  * @author James Chin <jameslchin@gmail.com>
  */
 public final class RecipeDatabase {
+	private static final String TAG = "RecipeDatabase";
+	
+	// RECIPE ID SCHEMES, persisted so saved recipeId's can be migrated
+	private static final String ID_SCHEME_KEY = "RECIPE_ID_SCHEME";
+	private static final int ID_SCHEME_SEQUENTIAL = 0; // position in the catalog file
+	private static final int ID_SCHEME_STABLE = 1; // derived from title and author, see stableRecipeId()
+	
 	// FOOD TYPES
 	public static final int[] MEAT = {R.string.bacon, R.string.beef, R.string.chicken, R.string.duck, R.string.eel, R.string.ham, R.string.pork, R.string.steak, R.string.turkey};
 	public static final int[] SEAFOOD = {R.string.carp, R.string.clam, R.string.crab, R.string.fish, R.string.herring, R.string.lobster, R.string.oyster, R.string.salmon, R.string.tilapia, R.string.tuna};
@@ -33,7 +45,7 @@ public final class RecipeDatabase {
 	public static final byte TYPE_SEAFOOD = 1;
 	public static final byte TYPE_PRODUCE = 2;
 	
-	private static Set<String> meats; // set containing meats, used to screen for vegetarian recipes
+	private static Set<String> meats; // set containing meats as search words, used to screen for vegetarian recipes
 	private static Map<String, Byte> foodTypeMap; // maps ingredient keywords to their type category
 	
 	// MEASUREMENT ALIASES
@@ -41,13 +53,46 @@ public final class RecipeDatabase {
 	public static final String POUNDS = "pounds";
 	private Map<String, String> measurementAliases; // maps measurement alias to the preferred measurement name, i.e. "lbs" to "pounds"
 	
+	// RECIPE ORDERS, see sortRecipes()
+	public static final int ORDER_NAME = 0;
+	public static final int ORDER_TIME = 1; // total of prep, inactive prep and cook time, shortest first; recipes without times last
+	public static final int ORDER_SERVINGS = 2; // fewest servings first
+	public static final int ORDER_AUTHOR = 3;
+	static final int NUM_ORDERS = 4;
+	
+	// QUERY CACHE
+	private static final int QUERY_CACHE_SIZE = 16; // searches whose results are kept, see QueryCache
+	
+	// SIMILAR RECIPES
+	private static final int NUM_SIMILAR_RECIPES = 8; // linked to each recipe, see linkSimilarRecipes()
+	
 	// STATE VARIABLES
-	private Map<String, Set<Integer>> indexMap; // maps search word to Set of recipeId's
-	private Map<Integer, Recipe> idMap; // maps recipeId to corresponding recipe
-	private Set<Integer> favoriteRecipes; // set containing recipeId's of favorite recipes
+	private Map<String, RecipeBitmap> indexMap; // maps search word to bitmap of recipe ordinals
+	private Map<String, RecipeBitmap> nameIndexMap; // maps search word to bitmap of ordinals of the recipes using it in their name, for ranking
+	private Map<String, RecipeBitmap> authorIndexMap; // maps author search word to bitmap of recipe ordinals, for author: queries
+	private Map<String, RecipeBitmap> ingredientMap; // maps ingredient name to bitmap of ordinals of the recipes using it, for pantry matching
+	private PantryIndex pantryIndex; // ingredient names by search word for pantry matching, null until needed or after ingredients are indexed or removed
+	private SimilarityIndex similarityIndex; // MinHash signatures of the ingredients of each recipe, for linking similar recipes
+	private Map<String, RecipeBitmap[]> repeatIndexMap; // maps search word to bitmaps of ordinals of the recipes using it at least 2, 3, ... times, for ranking; only words some recipe repeats
+	private long totalNameLength; // search words in all recipe names, for ranking
+	private long totalIngredientLength; // search words in all indexed ingredient lists, for ranking
+	private Map<String, String> termLabels; // maps search words changed by stemming to the word first indexed under them, i.e. "tomato" to "tomatoes", for display
+	private long indexedWords; // words indexed since the database was reset, for the load report
+	private final TextAnalyzer analyzer; // splits names and search Strings into search words, see TextAnalyzer
+	private TermDictionary termDictionary; // sorted view of the indexMap words for prefix search, null until needed or after words are added or removed
+	private RecipeIdTable idMap; // maps recipeId to the ordinal of the corresponding recipe
+	private List<Recipe> ordinalMap; // maps recipe ordinal to corresponding recipe
+	private RecipeOrder[] recipeOrders; // precomputed recipe orders by the ORDER constants, each null until needed or after recipes are added
+	private TimeIndex timeIndex; // recipes ranked by their times for time: queries, null until needed or after recipes are added
+	private QueryCache queryCache; // results of recent searches, invalidated whenever recipes are added, indexed, unlocked or locked
+	private FacetIndex facetIndex; // facet values of every recipe for the categories last counted, null until needed or after recipes are added or indexed
+	private RecipeBitmap favoriteRecipes; // bitmap of ordinals of favorite recipes
 	private Map<Integer, Byte> shoppingListRecipes; // maps recipeId to shopping list quantity
-	private Set<Integer> vegetarianRecipes; // set containing recipeId's of vegetarian recipes
-	private Map<Short, Set<Integer>> boxMap; // maps boxId to Set of RecipeId's
+	private RecipeBitmap vegetarianRecipes; // bitmap of ordinals of vegetarian recipes
+	private RecipeBitmap unlockedRecipes; // bitmap of ordinals of unlocked recipes, changed only by unlockRecipesByBox() and resetRecipeLocks()
+	private Map<Short, RecipeBitmap> boxMap; // maps boxId to bitmap of recipe ordinals
+	private StringPool stringPool; // shared with RecipeLoader while loading, null otherwise
+	private volatile CatalogVersion catalog; // the catalog as last published by a writer, see getCatalog(); never null
 	
 	// SINGLETON
 	private static RecipeDatabase holder;
@@ -58,20 +103,25 @@ public final class RecipeDatabase {
 	
 	/**
 	 * Class representing a recipe.
+	 * The header fields are always in memory, as primitive arrays rather than boxed Lists. The body (ingredients and directions) is either held directly, or read on demand from a RecipeBodySource.
 	 */
 	static class Recipe {
 		int recipeId;
+		int ordinal; // dense position in the database, which the RecipeBitmap sets hold instead of the sparse recipeId
+		short nameLength; // search words in the name, for ranking
+		short ingredientLength; // search words in the ingredient names, for ranking; 0 until the body is indexed
 		String name;
 		String author;
-		List<RecipeIngredient> ingredients;
-		List<RecipeDirection> directions;
-		List<Integer> linkedRecipes;
-		List<Short> boxes;
-		RecipeTime recipeTime;
+		private List<RecipeIngredient> ingredients; // null when the body is read on demand
+		private List<RecipeDirection> directions; // null when the body is read on demand
+		private RecipeBodySource bodySource;
+		private int bodyRecord; // position of the body in bodySource
+		int[] linkedRecipes; // recipeIds of the most similar recipes, see linkSimilarRecipes(); the recipe itself until linked
+		short[] boxes;
+		RecipeTime recipeTime; // shared between recipes of the same times
 		byte numOfServings;
-		boolean unlocked;
 		
-		Recipe(int recipeId, String name, String author, List<RecipeIngredient> ingredients, List<RecipeDirection> directions, List<Integer> linkedRecipes, List<Short> boxes, RecipeTime recipeTime, byte numOfServings) {
+		Recipe(int recipeId, String name, String author, List<RecipeIngredient> ingredients, List<RecipeDirection> directions, int[] linkedRecipes, short[] boxes, RecipeTime recipeTime, byte numOfServings) {
 			this.recipeId = recipeId;
 			this.name = name;
 			this.author = author;
@@ -81,8 +131,61 @@ public final class RecipeDatabase {
 			this.boxes = boxes;
 			this.recipeTime = recipeTime;
 			this.numOfServings = numOfServings;
-			unlocked = false;
 		}
+		
+		Recipe(int recipeId, String name, String author, RecipeBodySource bodySource, int bodyRecord, int[] linkedRecipes, short[] boxes, RecipeTime recipeTime, byte numOfServings) {
+			this(recipeId, name, author, null, null, linkedRecipes, boxes, recipeTime, numOfServings);
+			this.bodySource = bodySource;
+			this.bodyRecord = bodyRecord;
+		}
+		
+		/**
+		 * Returns the List of directions, reading them from the body source if needed.
+		 * @return the List of directions.
+		 */
+		List<RecipeDirection> getDirections() {
+			return (bodySource == null) ? directions : bodySource.readDirections(bodyRecord);
+		}
+		
+		/**
+		 * Returns the List of ingredients, reading them from the body source if needed.
+		 * @return the List of ingredients.
+		 */
+		List<RecipeIngredient> getIngredients() {
+			return (bodySource == null) ? ingredients : bodySource.readIngredients(bodyRecord);
+		}
+		
+		/**
+		 * Switches the recipe over to reading its body from a body source, dropping the body it held.
+		 * @param bodySource the source holding the body.
+		 * @param bodyRecord the position of the body in bodySource.
+		 */
+		void setBodySource(RecipeBodySource bodySource, int bodyRecord) {
+			this.bodySource = bodySource;
+			this.bodyRecord = bodyRecord;
+			ingredients = null;
+			directions = null;
+		}
+	}
+	
+	/**
+	 * Source of recipe bodies for recipes held as headers only.
+	 * Implementations must be thread-safe and are free to drop bodies that have not been used recently.
+	 */
+	interface RecipeBodySource {
+		/**
+		 * Returns the directions of the recipe body at the given position.
+		 * @param bodyRecord the position of the recipe body.
+		 * @return the List of directions.
+		 */
+		List<RecipeDirection> readDirections(int bodyRecord);
+		
+		/**
+		 * Returns the ingredients of the recipe body at the given position.
+		 * @param bodyRecord the position of the recipe body.
+		 * @return the List of ingredients.
+		 */
+		List<RecipeIngredient> readIngredients(int bodyRecord);
 	}
 	
 	/**
@@ -117,6 +220,7 @@ public final class RecipeDatabase {
 	
 	/**
 	 * Class representing the different cooking times involved in each recipe.
+	 * Recipes of the same times share one instance, so it is never modified once created.
 	 */
 	static class RecipeTime {
 		short prepTimeInMin;
@@ -165,6 +269,7 @@ public final class RecipeDatabase {
 	 */
 	private RecipeDatabase(Context c) {
 		context = c;
+		analyzer = new TextAnalyzer();
 		resetDatabase();
 	}
 	
@@ -172,68 +277,289 @@ public final class RecipeDatabase {
 	 * Add Recipe to favoriteRecipes.
 	 * @param recipeId the unique identifier of the Recipe to add to favoriteRecipes. 
 	 */
-	public void addFavorite(int recipeId) {
-		favoriteRecipes.add(recipeId);
+	public synchronized void addFavorite(int recipeId) {
+		Recipe recipe = getRecipeById(recipeId);
+		if (recipe != null)
+			favoriteRecipes.add(recipe.ordinal);
 	}
 	
 	/**
 	 * Adds a new recipe to the database, indexes the recipe.
 	 * @param newRecipe the new recipe to be added to the database.
 	 */
-	public void addRecipe(Recipe newRecipe) {
+	public synchronized void addRecipe(Recipe newRecipe) {
 		if (newRecipe == null)
 			return;
 		
-		// GET UNIQUE ID
-		int recipeId = newRecipe.recipeId;
+		addRecipeHeader(newRecipe);
+		indexRecipeBody(newRecipe);
+		publishCatalog();
+	}
+	
+	/**
+	 * Helper function which adds a recipe to the database and indexes everything but its ingredients.
+	 * A recipe with the same name and author as one already in the database replaces it, keeping its recipeId, ordinal and unlock status; this is how recipe packs overlay the catalog.
+	 * The recipe is not in the published catalog until the caller publishes a new version, see publishCatalog().
+	 * A recipe whose stable id is already held by another recipe takes the next free id; the id of a recipe already added never changes, see stableRecipeId().
+	 * @param newRecipe the new recipe to be added to the database.
+	 */
+	private void addRecipeHeader(Recipe newRecipe) {
+		// GET UNIQUE ID, probing past other recipes whose stable id collides with this one
+		int recipeId = stableRecipeId(newRecipe.name, newRecipe.author);
+		int ordinal = ordinalMap.size();
+		Recipe oldRecipe;
+		while ((oldRecipe = getRecipeById(recipeId)) != null) {
+			if (oldRecipe.name.equals(newRecipe.name) && oldRecipe.author.equals(newRecipe.author)) {
+				removeRecipe(oldRecipe);
+				ordinal = oldRecipe.ordinal;
+				break;
+			}
+			
+			recipeId = (recipeId + 1) & Integer.MAX_VALUE;
+		}
 		
-		// INDEX ID
-		idMap.put(recipeId, newRecipe);
-		vegetarianRecipes.add(recipeId); // removed during indexing if found to contain meat ingredient(s)
+		if (recipeId != newRecipe.recipeId) {
+			for (int i = 0; i < newRecipe.linkedRecipes.length; i++) {
+				if (newRecipe.linkedRecipes[i] == newRecipe.recipeId)
+					newRecipe.linkedRecipes[i] = recipeId;
+			}
+			newRecipe.recipeId = recipeId;
+		}
 		
-		// INDEX RECIPE NAME
-		index(newRecipe.name, recipeId);
+		// INDEX ID AND ORDINAL
+		idMap.put(recipeId, ordinal);
+		Arrays.fill(recipeOrders, null);
+		timeIndex = null;
+		queryCache.invalidate();
+		facetIndex = null;
+		newRecipe.ordinal = ordinal;
+		if (ordinal == ordinalMap.size())
+			ordinalMap.add(newRecipe);
+		else
+			ordinalMap.set(ordinal, newRecipe);
 		
-		// INDEX INGREDIENT NAMES
-		for (RecipeIngredient ri : newRecipe.ingredients)
-			index(ri.ingredientName, recipeId);
+		// INDEX RECIPE NAME AND AUTHOR
+		newRecipe.nameLength = 0;
+		index(newRecipe.name, newRecipe, true);
+		indexAuthor(newRecipe.author, ordinal);
 		
 		// INDEX BOXES
 		for (short boxId : newRecipe.boxes) {
 			if (!boxMap.containsKey(boxId))
-				boxMap.put(boxId, new HashSet<Integer>());
+				boxMap.put(boxId, new RecipeBitmap());
 			
-			Set<Integer> set = (HashSet<Integer>) boxMap.get(boxId);
-			set.add(recipeId);
+			boxMap.get(boxId).add(ordinal);
+		}
+	}
+	
+	/**
+	 * Adds recipes to the database, indexing their names and boxes only; enough for listings, name search and unlocking.
+	 * Follow up with indexRecipeBodies() to make the recipes searchable by ingredient.
+	 * The lock is taken per recipe so readers on other threads are never held up for the whole batch; the batch is published as one new catalog version at the end.
+	 * @param recipes the new recipes to be added to the database.
+	 */
+	void addRecipeHeaders(List<Recipe> recipes) {
+		for (Recipe recipe : recipes) {
+			synchronized(this) {
+				addRecipeHeader(recipe);
+			}
+		}
+		
+		synchronized(this) {
+			publishCatalog();
 		}
 	}
 	
+	/**
+	 * Helper function which returns the ordinals of all recipes, locked or not, for queries that exclude recipes rather than find them.
+	 * @return a new bitmap of all recipe ordinals.
+	 */
+	private RecipeBitmap allOrdinals() {
+		RecipeBitmap result = new RecipeBitmap();
+		for (int ordinal = 0; ordinal < ordinalMap.size(); ordinal++)
+			result.add(ordinal);
+		
+		return result;
+	}
+	
 	/**
 	 * Returns a list of all recipes, sorted by name.
+	 * Read from the current catalog version without taking the lock, see getCatalog().
 	 * @return a list of all recipes, sorted by name.
 	 */
 	public List<Recipe> allRecipes() {
-		return getRecipesById(idMap.keySet());
+		return getCatalog().allRecipes();
+	}
+	
+	/**
+	 * Returns a cursor over all recipes, sorted by name, to be read a page at a time; see allRecipes().
+	 * Read from the current catalog version without taking the lock, see getCatalog().
+	 * @return a cursor over all recipes, sorted by name.
+	 */
+	public RecipeCursor allRecipesCursor() {
+		return getCatalog().allRecipesCursor();
+	}
+	
+	/**
+	 * Helper function which returns true if any of the words contained in the specified String is a meat.
+	 * @param string String containing the words to check.
+	 * @return true if any of the words is a meat, false otherwise.
+	 */
+	private boolean containsMeat(String string) {
+		analyzer.reset(string);
+		while (analyzer.next()) {
+			if (meats.contains(analyzer.term()))
+				return true;
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Helper function which returns true if a recipe uses the terms of a phrase in order, next to each other, in a field.
+	 * @param recipe the recipe.
+	 * @param field the field to look in, one of the RecipeQuery FIELD constants.
+	 * @param terms the terms of the phrase, analyzed.
+	 * @return true if the recipe uses the phrase in the field, false otherwise.
+	 */
+	private boolean containsPhrase(Recipe recipe, int field, String[] terms) {
+		if (field == RecipeQuery.FIELD_AUTHOR)
+			return containsPhrase(recipe.author, terms);
+		
+		if (field != RecipeQuery.FIELD_INGREDIENT && containsPhrase(recipe.name, terms))
+			return true;
+		
+		if (field != RecipeQuery.FIELD_NAME) {
+			for (RecipeIngredient ri : recipe.getIngredients()) {
+				if (containsPhrase(ri.ingredientName, terms))
+					return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Helper function which returns true if a String holds the terms of a phrase in order, next to each other.
+	 * @param string the String to look in.
+	 * @param terms the terms of the phrase, analyzed.
+	 * @return true if the String holds the phrase, false otherwise.
+	 */
+	private boolean containsPhrase(String string, String[] terms) {
+		List<String> stringTerms = new ArrayList<String>();
+		analyzer.reset(string);
+		while (analyzer.next())
+			stringTerms.add(analyzer.term());
+		
+		for (int start = 0; start + terms.length <= stringTerms.size(); start++) {
+			int i = 0;
+			while (i < terms.length && terms[i].equals(stringTerms.get(start + i)))
+				i++;
+			if (i == terms.length)
+				return true;
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Adds the size of the search index to a load report.
+	 * @param report the load report to record the index size into, LoadReport.DISABLED to record nothing.
+	 */
+	synchronized void describeIndexTo(LoadReport report) {
+		report.setSearchIndex(indexMap.size(), indexedWords);
 	}
 	
 	/**
 	 * Returns the Recipe corresponding to the unique Id, null if non-existent or invalid Id.
+	 * Read from the current catalog version without taking the lock, see getCatalog().
 	 * @param recipeId the unique identifier to retrieve the Recipe for.
 	 * @return the Recipe corresponding to the unique Id, null if non-existent or invalid Id.
 	 */
 	public Recipe findRecipeById (int recipeId) {
-		if (recipeId < 0)
-			return null;
-		
-		return idMap.get(recipeId);
+		return getCatalog().findRecipeById(recipeId);
+	}
+	
+	/**
+	 * Returns the current version of the catalog, for reading recipes, boxes, unlock status and similar recipes without taking the lock.
+	 * Writers publish a new version once per batch of recipes added or linked, see publishCatalog(), and once per unlock or lock, see publishUnlocked(); a reader never builds one.
+	 * Take the version once for reads that must agree with each other, such as a count and a listing.
+	 * @return the current catalog version, never null.
+	 */
+	CatalogVersion getCatalog() {
+		return catalog;
+	}
+	
+	/**
+	 * Counts a result set by category, author, box and vegetarian flag, in one pass over the results.
+	 * The facet values of every recipe are precomputed on first use and kept until recipes are added or indexed, or other categories are counted; see FacetIndex.
+	 * @param results the results to count, such as a cursor returned by allRecipesCursor() or queryRecipesCursor().
+	 * @param categories the categories to count, as parsed queries; null for a category of all recipes. At most FacetIndex.MAX_CATEGORIES.
+	 * @return the counts of the results.
+	 */
+	public synchronized RecipeFacets getFacets(RecipeCursor results, RecipeQuery[] categories) {
+		if (categories.length > FacetIndex.MAX_CATEGORIES)
+			throw new IllegalArgumentException("Too many categories: " + categories.length);
+	
+		String[] categoryKeys = new String[categories.length];
+		for (int i = 0; i < categories.length; i++)
+			categoryKeys[i] = (categories[i] != null) ? categories[i].getKey() : null;
+	
+		// PRECOMPUTE FACET VALUES, the categories as bitmaps of every recipe in them, locked or not
+		if (facetIndex == null || !facetIndex.counts(categoryKeys)) {
+			RecipeBitmap[] categoryRecipes = new RecipeBitmap[categories.length];
+			for (int i = 0; i < categories.length; i++) {
+				if (categories[i] != null) {
+					RecipeQuery.Node root = categories[i].getRoot();
+					categoryRecipes[i] = (root != null) ? matchQuery(root) : new RecipeBitmap();
+				}
+			}
+	
+			facetIndex = new FacetIndex(ordinalMap, categoryKeys, categoryRecipes, vegetarianRecipes);
+		}
+	
+		return facetIndex.count(results.getOrdinals());
 	}
 	
 	/**
 	 * Returns a List of favorite Recipes, sorted by name.
 	 * @return a List of favorite Recipes, sorted by name.
 	 */
-	public List<Recipe> getFavoriteRecipes() {
-		return getRecipesById(favoriteRecipes);
+	public synchronized List<Recipe> getFavoriteRecipes() {
+		return getRecipesByOrdinal(favoriteRecipes);
+	}
+	
+	/**
+	 * Returns a cursor over the favorite Recipes, sorted by name, to be read a page at a time.
+	 * @return a cursor over the favorite Recipes, sorted by name.
+	 */
+	public synchronized RecipeCursor getFavoriteRecipesCursor() {
+		return newCursor(favoriteRecipes);
+	}
+	
+	/**
+	 * Helper function which takes a Set of recipeId's and returns the ordinals of the corresponding Recipes, leaving out recipeId's no longer in the database and locked Recipes.
+	 * @param recipeIdSet the Set of recipeId's, null for none.
+	 * @return a new array of recipe ordinals, in no particular order.
+	 */
+	private int[] getOrdinalsById(Set<Integer> recipeIdSet) {
+		if (recipeIdSet == null)
+			return new int[0];
+		
+		int[] ordinals = new int[recipeIdSet.size()];
+		int count = 0;
+		for (int i : recipeIdSet) {
+			Recipe recipe = getRecipeById(i);
+			if (recipe != null && unlockedRecipes.contains(recipe.ordinal))
+				ordinals[count++] = recipe.ordinal;
+		}
+		
+		if (count == ordinals.length)
+			return ordinals;
+		
+		int[] result = new int[count];
+		System.arraycopy(ordinals, 0, result, 0, count);
+		return result;
 	}
 	
 	/**
@@ -241,19 +567,67 @@ public final class RecipeDatabase {
 	 * @param recipeId the unique identifier for the Recipe being queried.
 	 * @return the quantity of the specified Recipe stored in the shopping list.
 	 */
-	public byte getQuantity(int recipeId) {
+	public synchronized byte getQuantity(int recipeId) {
 		Byte result = shoppingListRecipes.get(recipeId);
 		
 		return (result == null) ? 0 : result;
 	}
 	
+	/**
+	 * Returns the number of search results evicted from the query cache to make room for others.
+	 * @return the number of query cache evictions since the database was reset.
+	 */
+	public synchronized long getQueryCacheEvictions() {
+		return queryCache.getEvictions();
+	}
+	
+	/**
+	 * Returns the number of searches answered from the query cache.
+	 * @return the number of query cache hits since the database was reset.
+	 */
+	public synchronized long getQueryCacheHits() {
+		return queryCache.getHits();
+	}
+	
+	/**
+	 * Returns the number of searches that had to be run, because they were not in the query cache or recipes changed since.
+	 * @return the number of query cache misses since the database was reset.
+	 */
+	public synchronized long getQueryCacheMisses() {
+		return queryCache.getMisses();
+	}
+	
+	/**
+	 * Helper function which returns the recipe with a recipeId, through the id table.
+	 * @param recipeId the unique identifier of the recipe.
+	 * @return the recipe, null if no recipe has the recipeId.
+	 */
+	private Recipe getRecipeById(int recipeId) {
+		int ordinal = idMap.get(recipeId);
+		
+		return (ordinal != RecipeIdTable.NOT_FOUND) ? ordinalMap.get(ordinal) : null;
+	}
+	
 	/**
 	 * Returns a List of Recipes applicable to the specified Box, sorted by name.
 	 * @param boxId the unique identifier for the specified Box.
+	 * Read from the current catalog version without taking the lock, see getCatalog().
 	 * @return a List of Recipes applicable to the specified Box, sorted by name.
 	 */
 	public List<Recipe> getRecipesByBox(short boxId) {
-		return getRecipesById(boxMap.get(boxId));
+		return getCatalog().getRecipesByBox(boxId);
+	}
+	
+	/**
+	 * Helper function which returns a precomputed recipe order, building it if recipes were added since it was last used.
+	 * @param order the order, one of the ORDER constants.
+	 * @return the recipe order.
+	 */
+	private RecipeOrder getRecipeOrder(int order) {
+		if (recipeOrders[order] == null)
+			recipeOrders[order] = new RecipeOrder(ordinalMap, order);
+		
+		return recipeOrders[order];
 	}
 	
 	/**
@@ -261,46 +635,36 @@ public final class RecipeDatabase {
 	 * @param recipeIdSet the Set of recipeId's to retrieve the sorted List for.
 	 * @return the List of Recipes corresponding to the Set of recipeId's, sorted by name.
 	 */
-	List<Recipe> getRecipesById(Set<Integer> recipeIdSet) {
-		List<Recipe> result = new ArrayList<Recipe>();
-		
-		if (recipeIdSet != null) {
-			Map<String, Set<Recipe>> resultTree = new TreeMap<String, Set<Recipe>>();
-			
-			for (int i : recipeIdSet) {
-				Recipe recipe = idMap.get(i);
-				String recipeName = recipe.name;
-				
-				// sort recipes by name, duplicate names OK
-				if (!resultTree.containsKey(recipeName))
-					resultTree.put(recipeName, new HashSet<Recipe>());
-				resultTree.get(recipeName).add(recipe);
-			}
-			
-			// transfer sorted results from Map to List
-			for (Map.Entry<String, Set<Recipe>> entry : resultTree.entrySet()) {
-				for (Recipe r : entry.getValue()) {
-					// FILTER OUT LOCKED RECIPES
-					if (r.unlocked)
-						result.add(r);
-				}
-			}
-		}
+	synchronized List<Recipe> getRecipesById(Set<Integer> recipeIdSet) {
+		int[] ordinals = getOrdinalsById(recipeIdSet);
 		
-		return result;
+		return getRecipeOrder(ORDER_NAME).list(ordinalMap, ordinals, ordinals.length);
 	}
 	
+	/**
+	 * Helper function which takes a bitmap of recipe ordinals and returns the corresponding List of Recipes, sorted by name.
+	 * @param ordinals the bitmap of recipe ordinals to retrieve the sorted List for.
+	 * @return the List of Recipes corresponding to the recipe ordinals, sorted by name.
+	 */
+	private List<Recipe> getRecipesByOrdinal(RecipeBitmap ordinals) {
+		if (ordinals == null)
+			return new ArrayList<Recipe>();
+		
+		// locked recipes are left out before sorting, rather than walked and skipped
+		int[] array = RecipeBitmap.and(ordinals, unlockedRecipes).toArray();
+		return getRecipeOrder(ORDER_NAME).list(ordinalMap, array, array.length);
+	}
 	/**
 	 * Returns a serialized string containing all the favorite recipe indexes.
 	 * Used to conveniently store favoriteRecipes in the preferences file.
 	 * @return a serialized string containing all the favorite recipe indexes.
 	 */
-	public String getSerializedFavorites() {
+	public synchronized String getSerializedFavorites() {
 		String result = "";
 		
 		if (!favoriteRecipes.isEmpty()) {
-			for (int i : favoriteRecipes)
-				result += String.valueOf(i) + " ";
+			for (int ordinal : favoriteRecipes.toArray())
+				result += String.valueOf(ordinalMap.get(ordinal).recipeId) + " ";
 			
 			result = result.substring(0, result.length() - 1); // remove trailing space
 		}
@@ -313,7 +677,7 @@ public final class RecipeDatabase {
 	 * Used to conveniently store shoppingListRecipes in the preferences file.
 	 * @return a serialized string containing all the shopping list recipe indexes and respective quantities.
 	 */
-	public String getSerializedShoppingList() {
+	public synchronized String getSerializedShoppingList() {
 		String result = "";
 		
 		if (!shoppingListRecipes.isEmpty()) {
@@ -330,7 +694,7 @@ public final class RecipeDatabase {
 	 * Returns a ShoppingList object containing the aggregated shopping list ingredients.
 	 * @return a ShoppingList object containing the aggregated shopping list ingredients.
 	 */
-	public ShoppingList getShoppingList() {
+	public synchronized ShoppingList getShoppingList() {
 		ShoppingList result = new ShoppingList();
 		
 		Map<String, Double> amountMap = new HashMap<String, Double>(); // maps the ingredient name to the amount
@@ -339,11 +703,11 @@ public final class RecipeDatabase {
 		 
 		// for each recipe on the shopping list
 		for (Map.Entry<Integer, Byte> entry : shoppingListRecipes.entrySet()) {
-			Recipe recipe = findRecipeById(entry.getKey());
+			Recipe recipe = getRecipeById(entry.getKey());
 			
-			// ignore locked Recipes
-			if (recipe.unlocked) {
-				List<RecipeIngredient> recipeIngredients = recipe.ingredients;
+			// ignore locked Recipes, and recipes no longer in the database
+			if (recipe != null && unlockedRecipes.contains(recipe.ordinal)) {
+				List<RecipeIngredient> recipeIngredients = recipe.getIngredients();
 				
 				// for each ingredient of each recipe
 				for (RecipeIngredient ri : recipeIngredients) {
@@ -406,39 +770,227 @@ public final class RecipeDatabase {
 	 * Returns a List of shopping list Recipes, sorted by name.
 	 * @return a List of shopping list Recipes, sorted by name.
 	 */
-	public List<Recipe> getShoppingListRecipes() {
+	public synchronized List<Recipe> getShoppingListRecipes() {
 		return getRecipesById(shoppingListRecipes.keySet());
 	}
 	
+	/**
+	 * Returns a cursor over the shopping list Recipes, sorted by name, to be read a page at a time.
+	 * @return a cursor over the shopping list Recipes, sorted by name.
+	 */
+	public synchronized RecipeCursor getShoppingListRecipesCursor() {
+		int[] ordinals = getOrdinalsById(shoppingListRecipes.keySet());
+		
+		return getRecipeOrder(ORDER_NAME).cursor(this, ordinalMap, ordinals, ordinals.length);
+	}
+	
+	/**
+	 * Returns the unlocked recipes most similar to a recipe by their ingredients, as linked by linkSimilarRecipes().
+	 * @param recipeId the unique identifier of the recipe.
+	 * @param limit the most recipes to return.
+	 * Read from the current catalog version without taking the lock, see getCatalog().
+	 * @return a List of the unlocked recipes most similar to the recipe, most similar first; empty for an unknown recipe, or one whose ingredients are alike no other.
+	 */
+	public List<Recipe> getSimilarRecipes(int recipeId, int limit) {
+		return getCatalog().getSimilarRecipes(recipeId, limit);
+	}
+	
+	/**
+	 * Returns the string pool shared by the loaders and the index while loading, creating it if needed.
+	 * Release it with releaseStringPool() once loading is done.
+	 * @return the load-time string pool.
+	 */
+	synchronized StringPool getStringPool() {
+		if (stringPool == null)
+			stringPool = new StringPool();
+		
+		return stringPool;
+	}
+	
+	/**
+	 * Helper function which returns the sorted view of the indexMap words, rebuilding it if words were added or removed since it was last used.
+	 * @return the term dictionary of the search index.
+	 */
+	private TermDictionary getTermDictionary() {
+		if (termDictionary == null)
+			termDictionary = new TermDictionary(indexMap);
+		
+		return termDictionary;
+	}
+	
+	/**
+	 * Returns the number of unlocked Recipes, without listing them.
+	 * Read from the current catalog version without taking the lock, see getCatalog().
+	 * @return the number of unlocked Recipes.
+	 */
+	public int getUnlockedCount() {
+		return getCatalog().getUnlockedCount();
+	}
+	
 	/**
 	 * Returns a List of vegetarian Recipes, sorted by name.
 	 * @return a List of vegetarian Recipes, sorted by name.
 	 */
-	public List<Recipe> getVegetarianRecipes() {
-		return getRecipesById(vegetarianRecipes);
+	public synchronized List<Recipe> getVegetarianRecipes() {
+		return getRecipesByOrdinal(vegetarianRecipes);
+	}
+	
+	/**
+	 * Returns a cursor over the vegetarian Recipes, sorted by name, to be read a page at a time.
+	 * @return a cursor over the vegetarian Recipes, sorted by name.
+	 */
+	public synchronized RecipeCursor getVegetarianRecipesCursor() {
+		return newCursor(vegetarianRecipes);
 	}
 	
 	/**
-	 * Helper function that indexes the given recipe by the words contained in the specified String.
+	 * Helper function that indexes the given recipe by the words contained in the specified String, counting them towards its name or ingredient length.
+	 * Words used more than once are recorded in repeatIndexMap, except within the name, where a word counts once.
+	 * Ingredient words are also added to the similarity signature in progress, see indexRecipeBody().
 	 * @param string String containing the words to index the given recipe by.
-	 * @param recipeId the unique identifier for the Recipe being indexed.
+	 * @param recipe the Recipe being indexed.
+	 * @param inName true if the String is the name of the Recipe, false if it is an ingredient name.
+	 * @return true if any of the indexed words is a meat, false otherwise.
 	 */
-	private void index(String string, int recipeId) {
-		// convert to lowercase and parse
-		String[] words = string.toLowerCase(Locale.US).split(" ");
-
-		for (String word : words) {
-			// new word, did not exist previously
-			if (!indexMap.containsKey(word))
-				indexMap.put(word, new HashSet<Integer>());
+	private boolean index(String string, Recipe recipe, boolean inName) {
+		boolean containsMeat = false;
+		int ordinal = recipe.ordinal;
+		
+		analyzer.reset(string);
+		while (analyzer.next()) {
+			String word = analyzer.term();
+			
+			// count towards the field length
+			if (inName) {
+				recipe.nameLength++;
+				totalNameLength++;
+			} else {
+				recipe.ingredientLength++;
+				totalIngredientLength++;
+			}
+			
+			RecipeBitmap recipes = indexMap.get(word);
+			
+			// new word, did not exist previously; while loading, share the instance with identical catalog text
+			if (recipes == null) {
+				recipes = new RecipeBitmap();
+				if (stringPool != null)
+					word = stringPool.intern(word);
+				indexMap.put(word, recipes);
+				if (analyzer.isStemmed())
+					termLabels.put(word, analyzer.token());
+				termDictionary = null;
+			}
 
-			// add recipeId to search index
-			indexMap.get(word).add(recipeId);
+			// add recipe to search index, and to the name index or the repeats of the word
+			if (inName) {
+				RecipeBitmap nameRecipes = nameIndexMap.get(word);
+				if (nameRecipes == null) {
+					nameRecipes = new RecipeBitmap();
+					nameIndexMap.put(word, nameRecipes);
+				}
+				if (nameRecipes.add(ordinal) && !recipes.add(ordinal))
+					indexRepeat(word, ordinal);
+			} else {
+				if (!recipes.add(ordinal))
+					indexRepeat(word, ordinal);
+				similarityIndex.add(word);
+			}
+			indexedWords++;
 			
-			// strike from vegetarianRecipes if contains meat
 			if (meats.contains(word))
-				vegetarianRecipes.remove(recipeId);
+				containsMeat = true;
+		}
+		
+		return containsMeat;
+	}
+	
+	/**
+	 * Helper function which indexes a recipe by the words of its author, for author: queries.
+	 * @param author the author of the recipe.
+	 * @param ordinal the ordinal of the recipe.
+	 */
+	private void indexAuthor(String author, int ordinal) {
+		analyzer.reset(author);
+		while (analyzer.next()) {
+			String word = analyzer.term();
+			RecipeBitmap recipes = authorIndexMap.get(word);
+			if (recipes == null) {
+				recipes = new RecipeBitmap();
+				authorIndexMap.put(word, recipes);
+			}
+			recipes.add(ordinal);
+		}
+	}
+	
+	/**
+	 * Indexes the ingredients of recipes previously added with addRecipeHeaders(), and classifies them as vegetarian or not.
+	 * Recipes replaced by a recipe pack in the meantime are skipped.
+	 * The lock is taken per recipe so readers on other threads are never held up for the whole batch.
+	 * @param recipes the recipes whose ingredients are to be indexed.
+	 */
+	void indexRecipeBodies(List<Recipe> recipes) {
+		for (Recipe recipe : recipes) {
+			synchronized(this) {
+				indexRecipeBody(recipe);
+			}
+		}
+	}
+	
+	/**
+	 * Helper function which indexes the ingredients of a recipe and adds it to vegetarianRecipes if neither its name nor its ingredients contain meat.
+	 * @param recipe the recipe whose ingredients are to be indexed.
+	 */
+	private void indexRecipeBody(Recipe recipe) {
+		if (getRecipeById(recipe.recipeId) != recipe)
+			return;
+		
+		boolean containsMeat = containsMeat(recipe.name);
+		queryCache.invalidate();
+		facetIndex = null;
+		
+		// INDEX INGREDIENT NAMES, by their words and whole for pantry matching, signing the words for similar recipes
+		recipe.ingredientLength = 0;
+		similarityIndex.begin();
+		for (RecipeIngredient ri : recipe.getIngredients()) {
+			if (index(ri.ingredientName, recipe, false))
+				containsMeat = true;
+			
+			RecipeBitmap recipes = ingredientMap.get(ri.ingredientName);
+			if (recipes == null) {
+				recipes = new RecipeBitmap();
+				ingredientMap.put(ri.ingredientName, recipes);
+			}
+			recipes.add(recipe.ordinal);
+		}
+		pantryIndex = null;
+		similarityIndex.store(recipe.ordinal);
+		
+		if (!containsMeat)
+			vegetarianRecipes.add(recipe.ordinal);
+	}
+	
+	/**
+	 * Helper function which records one more use of a word by a recipe already indexed under it.
+	 * @param word the search word.
+	 * @param ordinal the ordinal of the Recipe using the word again.
+	 */
+	private void indexRepeat(String word, int ordinal) {
+		RecipeBitmap[] repeats = repeatIndexMap.get(word);
+		int numRepeats = (repeats != null) ? repeats.length : 0;
+		
+		// find the first count the recipe has not reached, adding a bitmap for a new highest count
+		for (int i = 0; i < numRepeats; i++) {
+			if (repeats[i].add(ordinal))
+				return;
 		}
+		
+		RecipeBitmap[] grown = new RecipeBitmap[numRepeats + 1];
+		if (repeats != null)
+			System.arraycopy(repeats, 0, grown, 0, numRepeats);
+		grown[numRepeats] = new RecipeBitmap();
+		grown[numRepeats].add(ordinal);
+		repeatIndexMap.put(word, grown);
 	}
 	
 	/**
@@ -446,17 +998,50 @@ public final class RecipeDatabase {
 	 * @param recipeId the unique identifier for the Recipe being queried.
 	 * @return true if the recipeId corresponds to a Recipe currently marked as a favorite, false otherwise.
 	 */
-	public boolean isFavorite(int recipeId) {
-		if (favoriteRecipes.contains(recipeId))
+	public synchronized boolean isFavorite(int recipeId) {
+		Recipe recipe = getRecipeById(recipeId);
+		if (recipe != null && favoriteRecipes.contains(recipe.ordinal))
 			return true;
 		
 		return false;
 	}
 	
+	/**
+	 * Links each recipe to the recipes most similar to it by their ingredients, replacing its linkedRecipes; see SimilarityIndex.
+	 * Call once recipe ingredients are indexed, see indexRecipeBodies(); recipes are linked to locked recipes too, which getSimilarRecipes() leaves out until they are unlocked.
+	 * The neighbors are found on a copy of the signatures, without holding the lock; recipes replaced by a recipe pack in the meantime keep their links.
+	 * The links are published as a new catalog version once all recipes are linked.
+	 */
+	void linkSimilarRecipes() {
+		SimilarityIndex signatures;
+		Recipe[] recipes;
+		synchronized(this) {
+			recipes = ordinalMap.toArray(new Recipe[ordinalMap.size()]);
+			signatures = similarityIndex.copy(recipes.length);
+		}
+		
+		int[][] neighbors = signatures.findNeighbors(NUM_SIMILAR_RECIPES);
+		
+		synchronized(this) {
+			for (int ordinal = 0; ordinal < recipes.length; ordinal++) {
+				Recipe recipe = recipes[ordinal];
+				if (ordinalMap.get(ordinal) != recipe)
+					continue;
+				
+				int[] linkedRecipes = new int[neighbors[ordinal].length];
+				for (int i = 0; i < linkedRecipes.length; i++)
+					linkedRecipes[i] = recipes[neighbors[ordinal][i]].recipeId;
+				recipe.linkedRecipes = linkedRecipes;
+			}
+			
+			publishCatalog();
+		}
+	}
+	
 	/**
 	 * Load favorite Recipes into database from a serialized String containing the recipe indexes.
 	 */
-	public void loadFavoriteRecipes() {
+	public synchronized void loadFavoriteRecipes() {
 		String serialized = sharedPref.getString("SERIALIZED_FAVORITES", null);
 		
 		if (serialized == null || serialized.length() == 0)
@@ -465,11 +1050,11 @@ public final class RecipeDatabase {
 		String[] deserialized = serialized.split(" ");
 		
 		for (String s : deserialized) {
-			int recipeId = Integer.valueOf(s);
+			Recipe recipe = getRecipeById(Integer.parseInt(s));
 			
 			// in case recipe no longer exists
-			if (idMap.containsKey(recipeId))
-				favoriteRecipes.add(recipeId);
+			if (recipe != null)
+				favoriteRecipes.add(recipe.ordinal);
 		}
 	}
 	
@@ -479,7 +1064,7 @@ public final class RecipeDatabase {
 	private void loadFoodTypes() {
 		for (int i : MEAT) {
 			String meat = context.getString(i).toLowerCase(Locale.US);
-			meats.add(meat);
+			meats.add(analyzer.analyze(meat));
 			foodTypeMap.put(meat, TYPE_MEAT);
 		}
 			
@@ -508,7 +1093,7 @@ public final class RecipeDatabase {
 	/**
 	 * Load shopping list Recipes into database from a serialized String containing the recipe indexes and respective quantities.
 	 */
-	public void loadShoppingListRecipes() {
+	public synchronized void loadShoppingListRecipes() {
 		String serialized = sharedPref.getString("SERIALIZED_SHOPPING_LIST", null);
 		
 		if (serialized == null || serialized.length() == 0)
@@ -528,56 +1113,551 @@ public final class RecipeDatabase {
 		// load data
 		for (int i = 0; i < length; i++) {
 			// in case recipe no longer exists
-			if (idMap.containsKey(recipeIds[i]))
+			if (idMap.get(recipeIds[i]) != RecipeIdTable.NOT_FOUND)
 				shoppingListRecipes.put(recipeIds[i], recipeQuantities[i]);
 		}
 	}
 	
 	/**
-	 * Helper function which cleans up the measurement term.
-	 * @param string the original string to clean up.
-	 * @return the cleaned string.
+	 * Helper function which returns the recipes matching a search String as typed so far, as searchRecipesByPrefix() does.
+	 * @param searchString String containing the search term(s), the last one possibly incomplete.
+	 * @return a bitmap of recipe ordinals, not to be modified; null if the String holds nothing to search by and so matches every recipe.
 	 */
-	private String measurementCleaner(String string) {
-		if (string == null || string.equals(""))
-			return "";
+	private RecipeBitmap matchPrefixString(String searchString) {
+		// parse search terms
+		List<String> searchWords = parseSearchString(searchString);
 		
-		// convert to lowercase
-		string = string.toLowerCase(Locale.US);
+		if (searchWords.isEmpty())
+			return null;
 		
-		// remove trailing period if any
-		if (string.charAt(string.length() - 1) == '.')
-			string = string.substring(0, string.length() - 1);
+		// get the recipes containing each complete word other than stopwords, and any word starting with the last one; a word without any rules out the search
+		int numWords = searchWords.size();
+		RecipeBitmap[] matches = new RecipeBitmap[numWords];
+		int numMatches = 0;
+		for (int i = 0; i < numWords - 1; i++) {
+			String word = analyzer.analyze(searchWords.get(i));
+			if (word != null)
+				matches[numMatches++] = searchWord(word);
+		}
+		RecipeBitmap lastMatch = searchPrefix(searchWords.get(numWords - 1));
+		if (lastMatch != null)
+			matches[numMatches++] = lastMatch;
 		
-		return string;
+		if (numMatches == 0)
+			return null;
+		
+		for (int i = 0; i < numMatches; i++) {
+			if (matches[i].isEmpty())
+				return new RecipeBitmap();
+		}
+		
+		return RecipeBitmap.and(matches, numMatches);
 	}
 	
 	/**
-	 * Release all system references for immediate garbage collection.
+	 * Helper function which runs a node of a query plan as set operations on the index.
+	 * @param node the node of the query plan.
+	 * @return a read-only bitmap of the ordinals of the matching recipes, locked or not.
 	 */
-	void release() {
-		holder = null;
+	private RecipeBitmap matchQuery(RecipeQuery.Node node) {
+		RecipeBitmap result;
+		
+		switch (node.type) {
+		case RecipeQuery.AND:
+			// intersect the children, narrow that down by time, then take out the negated ones, so that only negations on their own need every recipe
+			RecipeBitmap[] matches = new RecipeBitmap[node.children.length];
+			int numMatches = 0;
+			for (RecipeQuery.Node child : node.children) {
+				if (child.type != RecipeQuery.NOT && child.type != RecipeQuery.TIME) {
+					matches[numMatches] = matchQuery(child);
+					if (matches[numMatches++].isEmpty())
+						return new RecipeBitmap();
+				}
+			}
+			
+			result = (numMatches > 0) ? RecipeBitmap.and(matches, numMatches) : null;
+			for (RecipeQuery.Node child : node.children) {
+				if (child.type == RecipeQuery.TIME && (result == null || !result.isEmpty()))
+					result = matchTime(child, result);
+			}
+			if (result == null)
+				result = allOrdinals();
+			for (RecipeQuery.Node child : node.children) {
+				if (child.type == RecipeQuery.NOT && !result.isEmpty())
+					result = RecipeBitmap.andNot(result, matchQuery(child.children[0]));
+			}
+			return result;
+		case RecipeQuery.OR:
+			result = new RecipeBitmap();
+			for (RecipeQuery.Node child : node.children)
+				result = RecipeBitmap.or(result, matchQuery(child));
+			return result;
+		case RecipeQuery.NOT:
+			return RecipeBitmap.andNot(allOrdinals(), matchQuery(node.children[0]));
+		case RecipeQuery.WORDS:
+		case RecipeQuery.PHRASE:
+			RecipeBitmap[] wordMatches = new RecipeBitmap[node.terms.length];
+			for (int i = 0; i < node.terms.length; i++) {
+				wordMatches[i] = matchWord(node.terms[i], node.field);
+				if (wordMatches[i].isEmpty())
+					return wordMatches[i];
+			}
+			result = RecipeBitmap.and(wordMatches, wordMatches.length);
+			if (node.type == RecipeQuery.WORDS)
+				return result;
+			
+			// PHRASE, the index has no word positions so the recipes using all the words are checked one by one
+			RecipeBitmap phraseMatches = new RecipeBitmap();
+			for (int ordinal : result.toArray()) {
+				if (containsPhrase(ordinalMap.get(ordinal), node.field, node.terms))
+					phraseMatches.add(ordinal);
+			}
+			return phraseMatches;
+		case RecipeQuery.BOX:
+			result = boxMap.get((short) node.value);
+			return (result != null) ? result : new RecipeBitmap();
+		case RecipeQuery.VEGETARIAN:
+			return (node.value != 0) ? vegetarianRecipes : RecipeBitmap.andNot(allOrdinals(), vegetarianRecipes);
+		case RecipeQuery.TIME:
+			return matchTime(node, null);
+		default:
+			return new RecipeBitmap();
+		}
 	}
 	
 	/**
-	 * Remove Recipe from favoriteRecipes.
-	 * @param recipeId the unique identifier of the Recipe to remove from favoriteRecipes.
+	 * Helper function which returns the recipes matching all the search words of a search String: each search word in the name or ingredient list.
+	 * @param searchString String containing the search term(s).
+	 * @param words List to add the search words of a matching String to, leaving out those already in it; null if they are not needed.
+	 * @return a read-only bitmap of recipe ordinals, null if the String matches no recipe or holds no search words.
 	 */
-	public void removeFavorite(int recipeId) {
-		favoriteRecipes.remove(recipeId);
-	}
+	private RecipeBitmap matchSearchString(String searchString, List<String> words) {
+		// a word without any recipes rules out the whole search String
+		List<String> searchWords = new ArrayList<String>();
+		List<RecipeBitmap> matches = new ArrayList<RecipeBitmap>();
+		analyzer.reset(searchString);
+		while (analyzer.next()) {
+			String word = analyzer.term();
+			RecipeBitmap recipes = indexMap.get(word);
+			if (recipes == null)
+				return null;
+			
+			searchWords.add(word);
+			matches.add(recipes);
+		}
+		
+		if (matches.isEmpty())
+			return null;
+		
+		RecipeBitmap result = RecipeBitmap.and(matches.toArray(new RecipeBitmap[matches.size()]), matches.size());
+		if (result.isEmpty())
+			return null;
+		
+		if (words != null) {
+			for (String word : searchWords) {
+				if (!words.contains(word))
+					words.add(word);
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Helper function which returns the recipes whose time is in the range of a TIME node of a query plan, among the recipes of another result.
+	 * The result is narrowed down by looking up the time of each of its recipes if it is smaller than the range, and intersected with the recipes in the range otherwise.
+	 * @param node the TIME node.
+	 * @param within the ordinals of the result to narrow down, null for all recipes.
+	 * @return a bitmap of the ordinals of the recipes of the result in the range, locked or not.
+	 */
+	private RecipeBitmap matchTime(RecipeQuery.Node node, RecipeBitmap within) {
+		if (timeIndex == null)
+			timeIndex = new TimeIndex(ordinalMap);
+		
+		if (within == null)
+			return timeIndex.range(node.field, node.low, node.high);
+		if (within.cardinality() <= timeIndex.count(node.field, node.low, node.high))
+			return timeIndex.filter(within, node.field, node.low, node.high);
+		
+		return RecipeBitmap.and(within, timeIndex.range(node.field, node.low, node.high));
+	}
+	
+	/**
+	 * Helper function which returns the recipes using a search word in a field.
+	 * @param word the search word, analyzed.
+	 * @param field the field, one of the RecipeQuery FIELD constants.
+	 * @return a read-only bitmap of recipe ordinals, empty if no recipe uses the word in the field.
+	 */
+	private RecipeBitmap matchWord(String word, int field) {
+		RecipeBitmap result;
+		
+		switch (field) {
+		case RecipeQuery.FIELD_NAME:
+			result = nameIndexMap.get(word);
+			break;
+		case RecipeQuery.FIELD_AUTHOR:
+			result = authorIndexMap.get(word);
+			break;
+		case RecipeQuery.FIELD_INGREDIENT:
+			// the name counts a word once, so a recipe using it in its name has it in an ingredient if it uses it again
+			result = indexMap.get(word);
+			RecipeBitmap nameRecipes = nameIndexMap.get(word);
+			if (result != null && nameRecipes != null) {
+				RecipeBitmap[] repeats = repeatIndexMap.get(word);
+				result = RecipeBitmap.andNot(result, nameRecipes);
+				if (repeats != null)
+					result = RecipeBitmap.or(result, RecipeBitmap.and(nameRecipes, repeats[0]));
+			}
+			break;
+		default:
+			result = indexMap.get(word);
+			break;
+		}
+		
+		return (result != null) ? result : new RecipeBitmap();
+	}
+	
+	/**
+	 * Helper function which cleans up the measurement term.
+	 * @param string the original string to clean up.
+	 * @return the cleaned string.
+	 */
+	private String measurementCleaner(String string) {
+		if (string == null || string.equals(""))
+			return "";
+		
+		// convert to lowercase
+		string = string.toLowerCase(Locale.US);
+		
+		// remove trailing period if any
+		if (string.charAt(string.length() - 1) == '.')
+			string = string.substring(0, string.length() - 1);
+		
+		return string;
+	}
+	
+	/**
+	 * Rewrites favorites and shopping list saved under the old sequential recipeId's, which were positions in the catalog file, to stable recipeId's.
+	 * Does nothing once the saved data has been migrated. Must be called before loadFavoriteRecipes() and loadShoppingListRecipes().
+	 * @param catalogRecipes the catalog Recipes in catalog order, already added to the database.
+	 */
+	public synchronized void migrateRecipeIds(List<Recipe> catalogRecipes) {
+		if (sharedPref.getInt(ID_SCHEME_KEY, ID_SCHEME_SEQUENTIAL) == ID_SCHEME_STABLE)
+			return;
+		
+		SharedPreferences.Editor editor = sharedPref.edit();
+		
+		// FAVORITES, a list of recipeId's
+		String serialized = sharedPref.getString("SERIALIZED_FAVORITES", null);
+		if (serialized != null && serialized.length() > 0) {
+			String result = "";
+			for (String s : serialized.split(" ")) {
+				int position = Integer.valueOf(s);
+				
+				// in case recipe no longer exists
+				if (position < catalogRecipes.size())
+					result += catalogRecipes.get(position).recipeId + " ";
+			}
+			
+			editor.putString("SERIALIZED_FAVORITES", result.trim());
+		}
+		
+		// SHOPPING LIST, pairs of recipeId and quantity
+		serialized = sharedPref.getString("SERIALIZED_SHOPPING_LIST", null);
+		if (serialized != null && serialized.length() > 0) {
+			String[] deserialized = serialized.split(" ");
+			String result = "";
+			for (int i = 0; i + 1 < deserialized.length; i += 2) {
+				int position = Integer.valueOf(deserialized[i]);
+				
+				// in case recipe no longer exists
+				if (position < catalogRecipes.size())
+					result += catalogRecipes.get(position).recipeId + " " + deserialized[i + 1] + " ";
+			}
+			
+			editor.putString("SERIALIZED_SHOPPING_LIST", result.trim());
+		}
+		
+		editor.putInt(ID_SCHEME_KEY, ID_SCHEME_STABLE).commit();
+	}
+	
+	/**
+	 * Helper function which returns a cursor over the unlocked recipes of a bitmap of recipe ordinals, sorted by name.
+	 * @param ordinals the bitmap of recipe ordinals, null for none.
+	 * @return a new cursor over the recipes.
+	 */
+	private RecipeCursor newCursor(RecipeBitmap ordinals) {
+		int[] array = (ordinals != null) ? RecipeBitmap.and(ordinals, unlockedRecipes).toArray() : new int[0];
+		
+		return getRecipeOrder(ORDER_NAME).cursor(this, ordinalMap, array, array.length);
+	}
+	
+	/**
+	 * Helper function which splits a search String as typed so far into lowercase words, without punctuation, but neither stemmed nor rid of stopwords; the last word may be incomplete.
+	 * @param searchString the search String to split.
+	 * @return the List of words, in order.
+	 */
+	private List<String> parseSearchString(String searchString) {
+		List<String> result = new ArrayList<String>();
+		
+		analyzer.reset(searchString);
+		while (analyzer.nextToken())
+			result.add(analyzer.term());
+		
+		return result;
+	}
+	
+	/**
+	 * Helper function which builds a new catalog version from the database and publishes it, replacing the current one; called under the lock once a batch of changes is complete.
+	 * Readers keep the version they took until they take the current one again.
+	 */
+	private void publishCatalog() {
+		catalog = new CatalogVersion(ordinalMap, idMap, boxMap, unlockedRecipes, getRecipeOrder(ORDER_NAME));
+	}
+	
+	/**
+	 * Helper function which publishes a catalog version with the recipes now unlocked.
+	 * Only the unlocked bitmap is copied, the rest is shared with the current version.
+	 */
+	private void publishUnlocked() {
+		catalog = catalog.withUnlocked(unlockedRecipes.copy());
+	}
+	
+	/**
+	 * Helper function which returns the query cache key of a List of search String's: the same for all Lists matching the same recipes by the same words.
+	 * The search words of each String are sorted and repeats dropped, then the Strings the same way, so "Eggs and bacon" and "bacon egg" share a key.
+	 * @param searchStrings List of String's containing the search term(s).
+	 * @return the query key.
+	 */
+	private String queryKey(List<String> searchStrings) {
+		Set<String> stringKeys = new TreeSet<String>();
+		for (String searchString : searchStrings) {
+			Set<String> words = new TreeSet<String>();
+			analyzer.reset(searchString);
+			while (analyzer.next())
+				words.add(analyzer.term());
+			
+			// a String without search words matches nothing, leaving it out does not change the result
+			if (words.isEmpty())
+				continue;
+			
+			StringBuilder sb = new StringBuilder();
+			for (String word : words) {
+				if (sb.length() > 0)
+					sb.append(' ');
+				sb.append(word);
+			}
+			stringKeys.add(sb.toString());
+		}
+		
+		StringBuilder key = new StringBuilder();
+		for (String stringKey : stringKeys) {
+			if (key.length() > 0)
+				key.append('|');
+			key.append(stringKey);
+		}
+		
+		return key.toString();
+	}
+	
+	/**
+	 * Returns a list of all recipes matching a query in the query language of RecipeQuery, sorted by name.
+	 * The query language adds AND, OR, NOT, parentheses, quoted phrases, field scopes and time ranges to plain search terms: "chicken NOT fried", "ingredient:salmon box:3", "chicken time:<30".
+	 * @param query the query.
+	 * @return a list of all recipes matching the query, sorted by name.
+	 */
+	public synchronized List<Recipe> queryRecipes(String query) {
+		RecipeCursor cursor = queryRecipesCursor(RecipeQuery.parse(query));
+		
+		return cursor.getPage(0, cursor.getCount());
+	}
+	
+	/**
+	 * Returns a cursor over the recipes matching a parsed query, sorted by name, to be read a page at a time; see queryRecipes().
+	 * Recent queries are cached until recipes are added, indexed, unlocked or locked, see QueryCache.
+	 * @param query the parsed query.
+	 * @return a cursor over the recipes matching the query, sorted by name.
+	 */
+	public synchronized RecipeCursor queryRecipesCursor(RecipeQuery query) {
+		if (query == null)
+			return null;
+		
+		// CACHED RESULT, unless recipes changed since; query keys are set apart from search String keys, which never hold a '?'
+		String key = "?" + query.getKey();
+		RecipeCursor result = queryCache.get(key);
+		if (result != null)
+			return result;
+		
+		RecipeQuery.Node root = query.getRoot();
+		result = newCursor((root != null) ? matchQuery(root) : null);
+		queryCache.put(key, result);
+		
+		return result;
+	}
+	
+	/**
+	 * Reads the recipe catalog without adding it to the database; safe to call from any thread.
+	 * The compiled snapshot is used when it was built from the installed catalog; otherwise the raw text catalog is parsed and compiled into a fresh snapshot for the next launch.
+	 * Recipes read from the snapshot are headers only, their bodies stay in the mapped file until needed.
+	 * @param report the load report to record the read and parse phases into, LoadReport.DISABLED to record nothing.
+	 * @return the List of catalog Recipes, in catalog order.
+	 * @throws InterruptedException if the calling thread is interrupted while the catalog is parsed; no snapshot is written from a parse cut short.
+	 */
+	List<Recipe> readCatalog(LoadReport report) throws InterruptedException {
+		// the catalog ships inside the APK, so it can only change when the APK does
+		File snapshotFile = new File(context.getFilesDir(), CatalogSnapshot.FILE_NAME);
+		long sourceStamp = new File(context.getPackageCodePath()).lastModified();
+		
+		report.beginPhase(LoadReport.PHASE_READ);
+		CatalogSnapshot snapshot = CatalogSnapshot.open(snapshotFile, sourceStamp);
+		report.endPhase(LoadReport.PHASE_READ);
+		
+		if (snapshot != null) {
+			report.beginPhase(LoadReport.PHASE_PARSE);
+			List<Recipe> result = snapshot.readHeaders();
+			report.endPhase(LoadReport.PHASE_PARSE);
+			
+			report.setSource(LoadReport.SOURCE_SNAPSHOT);
+			snapshot.describeTo(report);
+			
+			return result;
+		}
+		
+		InputStream inputStream = context.getResources().openRawResource(R.raw.master_recipe_data);
+		RecipeLoader loader = new RecipeLoader(inputStream, this);
+		loader.setLoadReport(report);
+		List<Recipe> result = loader.parseData(Runtime.getRuntime().availableProcessors());
+		report.setSource(LoadReport.SOURCE_TEXT);
+		
+		// switch over to the fresh snapshot so the parsed bodies can be released; keep them, compacted, if it could not be written
+		if (CatalogSnapshot.write(snapshotFile, sourceStamp, result)) {
+			snapshot = CatalogSnapshot.open(snapshotFile, sourceStamp);
+			if (snapshot != null)
+				return snapshot.readHeaders();
+		}
+		RecipeBodyTable.moveBodies(result);
+		
+		return result;
+	}
+	
+	/**
+	 * Reads a recipe pack without adding it to the database; safe to call from any thread.
+	 * A pack is a text file in the catalog format. Packs are small, so they are parsed on every load and held in full rather than compiled into a snapshot, their bodies in a RecipeBodyTable.
+	 * @param packFile the pack file to read.
+	 * @param report the load report to record the read and parse phases into, LoadReport.DISABLED to record nothing.
+	 * @return the List of pack Recipes, in file order; empty if the pack could not be opened.
+	 * @throws InterruptedException if the calling thread is interrupted while the pack is parsed.
+	 */
+	List<Recipe> readPack(File packFile, LoadReport report) throws InterruptedException {
+		InputStream inputStream;
+		try {
+			inputStream = new FileInputStream(packFile);
+		} catch (FileNotFoundException e) {
+			Log.e(TAG, "Recipe pack could not be opened: " + packFile, e);
+			return new ArrayList<Recipe>();
+		}
+		
+		RecipeLoader loader = new RecipeLoader(inputStream, this);
+		loader.setLoadReport(report);
+		List<Recipe> result = loader.parseData(Runtime.getRuntime().availableProcessors());
+		RecipeBodyTable.moveBodies(result);
+		report.addPack();
+		
+		return result;
+	}
+	
+	/**
+	 * Release all system references for immediate garbage collection.
+	 */
+	void release() {
+		holder = null;
+	}
+	
+	/**
+	 * Drops the load-time string pool, so that it no longer holds on to the text it has seen.
+	 * @param report the load report to add the pool statistics to, LoadReport.DISABLED to record nothing.
+	 */
+	synchronized void releaseStringPool(LoadReport report) {
+		if (stringPool != null) {
+			stringPool.describeTo(report);
+			stringPool = null;
+		}
+	}
+	
+	/**
+	 * Remove Recipe from favoriteRecipes.
+	 * @param recipeId the unique identifier of the Recipe to remove from favoriteRecipes.
+	 */
+	public synchronized void removeFavorite(int recipeId) {
+		Recipe recipe = getRecipeById(recipeId);
+		if (recipe != null)
+			favoriteRecipes.remove(recipe.ordinal);
+	}
+	
+	/**
+	 * Helper function which removes a recipe from every index, ahead of it being replaced.
+	 * Favorites and shopping list entries are kept, they carry over to the replacing recipe along with the ordinal.
+	 * @param recipe the recipe to remove.
+	 */
+	private void removeRecipe(Recipe recipe) {
+		int ordinal = recipe.ordinal;
+		
+		idMap.remove(recipe.recipeId);
+		vegetarianRecipes.remove(ordinal);
+		
+		unindex(recipe.name, ordinal);
+		unindexAuthor(recipe.author, ordinal);
+		for (RecipeIngredient ri : recipe.getIngredients()) {
+			unindex(ri.ingredientName, ordinal);
+			
+			RecipeBitmap recipes = ingredientMap.get(ri.ingredientName);
+			if (recipes != null) {
+				recipes.remove(ordinal);
+				if (recipes.isEmpty())
+					ingredientMap.remove(ri.ingredientName);
+			}
+		}
+		pantryIndex = null;
+		similarityIndex.clear(ordinal);
+		totalNameLength -= recipe.nameLength;
+		totalIngredientLength -= recipe.ingredientLength;
+		
+		for (short boxId : recipe.boxes) {
+			RecipeBitmap recipes = boxMap.get(boxId);
+			if (recipes != null)
+				recipes.remove(ordinal);
+		}
+	}
 	
 	/**
 	 * Resets the database.
 	 */
 	@SuppressLint("UseSparseArrays")
 	private void resetDatabase() {
-		indexMap = new HashMap<String, Set<Integer>>();
-		idMap = new HashMap<Integer, Recipe>();
-		favoriteRecipes = new HashSet<Integer>();
+		indexMap = new HashMap<String, RecipeBitmap>();
+		nameIndexMap = new HashMap<String, RecipeBitmap>();
+		authorIndexMap = new HashMap<String, RecipeBitmap>();
+		ingredientMap = new HashMap<String, RecipeBitmap>();
+		pantryIndex = null;
+		similarityIndex = new SimilarityIndex();
+		repeatIndexMap = new HashMap<String, RecipeBitmap[]>();
+		totalNameLength = 0;
+		totalIngredientLength = 0;
+		termLabels = new HashMap<String, String>();
+		indexedWords = 0;
+		termDictionary = null;
+		idMap = new RecipeIdTable();
+		ordinalMap = new ArrayList<Recipe>();
+		recipeOrders = new RecipeOrder[NUM_ORDERS];
+		timeIndex = null;
+		queryCache = new QueryCache(QUERY_CACHE_SIZE);
+		facetIndex = null;
+		favoriteRecipes = new RecipeBitmap();
 		shoppingListRecipes = new HashMap<Integer, Byte>();
-		vegetarianRecipes = new HashSet<Integer>();
-		boxMap = new HashMap<Short, Set<Integer>>();
+		vegetarianRecipes = new RecipeBitmap();
+		unlockedRecipes = new RecipeBitmap();
+		boxMap = new HashMap<Short, RecipeBitmap>();
+		publishCatalog();
 		
 		// MEASUREMENT ALIASES
 		measurementAliases = new HashMap<String, String>();
@@ -595,11 +1675,30 @@ public final class RecipeDatabase {
 	 * Revert Recipe unlock status for all Recipes.
 	 * Called by GameData to clear game progress.
 	 */
-	void resetRecipeLocks() {
-		for (Recipe r : idMap.values()) {
-			if (r.unlocked)
-				r.unlocked = false;
-		}
+	synchronized void resetRecipeLocks() {
+		unlockedRecipes = new RecipeBitmap();
+		queryCache.invalidate();
+		publishUnlocked();
+	}
+	
+	/**
+	 * Helper function which returns the recipes matching the last word of a search String, which may be incomplete: recipes with a word starting with it, or with its singular if the word is complete.
+	 * A word matching neither is taken as misspelled, see searchWord(), unless it is a stopword, which is then ignored.
+	 * @param prefix the last word, as returned by parseSearchString().
+	 * @return a read-only bitmap of recipe ordinals, empty if no word matches; null for an ignored stopword.
+	 */
+	private RecipeBitmap searchPrefix(String prefix) {
+		RecipeBitmap result = getTermDictionary().recipesWithPrefix(prefix);
+		
+		String word = analyzer.analyze(prefix);
+		if (word == null)
+			return result.isEmpty() ? null : result;
+		
+		RecipeBitmap stemmed = indexMap.get(word);
+		if (stemmed != null && !word.equals(prefix))
+			result = RecipeBitmap.or(result, stemmed);
+		
+		return result.isEmpty() ? getTermDictionary().recipesNear(word) : result;
 	}
 	
 	/**
@@ -608,7 +1707,7 @@ public final class RecipeDatabase {
 	 * @param searchString String containing the specified search term(s).
 	 * @return a list of all recipes matching the specified search String, sorted by name.
 	 */
-	public List<Recipe> searchRecipes(String searchString) {
+	public synchronized List<Recipe> searchRecipes(String searchString) {
 		if (searchString == null)
 			return null;
 		
@@ -618,59 +1717,226 @@ public final class RecipeDatabase {
 		return searchSetRecipes(s);
 	}
 	
+	/**
+	 * Returns the recipes that can best be cooked with the ingredients on hand, ranked by the share of their ingredients the pantry covers.
+	 * Unlike searchSetRecipes(), a recipe need not use every pantry item, nor the pantry cover every ingredient: a recipe using 4 of its 5 ingredients from the pantry ranks above one using 3 of 6.
+	 * A pantry item covers an ingredient when either holds all the search words of the other, so "chicken" covers "chicken breast"; see PantryIndex.
+	 * @param pantry the ingredients on hand, as typed, one per String.
+	 * @param ignoreStaples true to leave salt, pepper, water and other staples out of the share.
+	 * @param limit the most recipes to return.
+	 * @return a List of the unlocked recipes using at least one pantry item, best covered first; recipes covered equally rank by the number of ingredients covered, then in catalog order.
+	 */
+	public synchronized List<Recipe> searchRecipesByPantry(List<String> pantry, boolean ignoreStaples, int limit) {
+		if (pantryIndex == null)
+			pantryIndex = new PantryIndex(ingredientMap, ordinalMap.size());
+		
+		List<Recipe> result = new ArrayList<Recipe>();
+		for (int ordinal : pantryIndex.match(pantry, unlockedRecipes, ignoreStaples, limit))
+			result.add(ordinalMap.get(ordinal));
+		
+		return result;
+	}
+	
+	/**
+	 * Returns a list of all recipes matching the specified search String as typed so far, sorted by name.
+	 * All search terms must match to return a recipe, the last one as the start of a word: "garlic chick" finds recipes with garlic and chicken, or garlic and chickpeas.
+	 * Terms are analyzed as in searchSetRecipes(); a complete last word also matches its singular, so "tomatoes" finds recipes with tomato.
+	 * Terms matching no word are taken as misspelled and matched to the closest words instead, see TermDictionary: "bacn" finds recipes with bacon.
+	 * @param searchString String containing the specified search term(s), the last one possibly incomplete.
+	 * @return a list of all recipes matching the specified search String, sorted by name.
+	 */
+	public synchronized List<Recipe> searchRecipesByPrefix(String searchString) {
+		if (searchString == null)
+			return null;
+		
+		RecipeBitmap matches = matchPrefixString(searchString);
+		
+		return (matches != null) ? getRecipesByOrdinal(matches) : allRecipes();
+	}
+	
+	/**
+	 * Returns a cursor over the recipes matching the specified search String as typed so far, sorted by name, to be read a page at a time; see searchRecipesByPrefix().
+	 * @param searchString String containing the specified search term(s), the last one possibly incomplete.
+	 * @return a cursor over the recipes matching the specified search String, sorted by name.
+	 */
+	public synchronized RecipeCursor searchRecipesByPrefixCursor(String searchString) {
+		if (searchString == null)
+			return null;
+		
+		RecipeBitmap matches = matchPrefixString(searchString);
+		
+		return (matches != null) ? newCursor(matches) : allRecipesCursor();
+	}
+	
+	/**
+	 * Returns a cursor over the recipes matching the specified search String, sorted by name, to be read a page at a time; see searchRecipes().
+	 * @param searchString String containing the specified search term(s).
+	 * @return a cursor over the recipes matching the specified search String, sorted by name.
+	 */
+	public synchronized RecipeCursor searchRecipesCursor(String searchString) {
+		if (searchString == null)
+			return null;
+		
+		List<String> s = new ArrayList<String>();
+		s.add(searchString);
+		
+		return searchSetRecipesCursor(s);
+	}
+	
+	/**
+	 * Returns the recipes matching the specified search String as searchRecipes() does, ranked by relevance instead of sorted by name; see searchSetRecipesRanked().
+	 * @param searchString String containing the specified search term(s).
+	 * @param limit the maximum number of recipes to return.
+	 * @return a list of the best matching recipes, most relevant first.
+	 */
+	public synchronized List<Recipe> searchRecipesRanked(String searchString, int limit) {
+		if (searchString == null)
+			return null;
+		
+		List<String> s = new ArrayList<String>();
+		s.add(searchString);
+		
+		return searchSetRecipesRanked(s, limit);
+	}
+	
 	/**
 	 * Returns a list of all recipes matching the specified List of search String's, sorted by name.
 	 * This function is to facilitate returning multiple related-but-exclusive searches, such as returning results for "beef" and "steak" together in the same Recipe List, but not the same as searching for "beef steak".
 	 * Each search String can contain multiple terms, and all terms must match in each String to return a recipe.
+	 * Terms match regardless of case, punctuation and plural endings, and stopwords such as "and" are ignored; see TextAnalyzer.
 	 * @param searchStrings List of String's containing the specified search term(s).
 	 * @return a list of all recipes matching the specified List of search String's, sorted by name.
 	 */
-	@SuppressLint("UseSparseArrays")
-	public List<Recipe> searchSetRecipes(List<String> searchStrings) {
+	public synchronized List<Recipe> searchSetRecipes(List<String> searchStrings) {
 		if (searchStrings == null)
 			return null;
 		
-		Set<Integer> resultSet = new HashSet<Integer>();
+		RecipeCursor cursor = searchSetRecipesCursor(searchStrings);
 		
+		return cursor.getPage(0, cursor.getCount());
+	}
+	
+	/**
+	 * Returns a cursor over the recipes matching the specified List of search String's, sorted by name, to be read a page at a time; see searchSetRecipes().
+	 * Recent searches are cached until recipes are added, indexed, unlocked or locked, see QueryCache.
+	 * @param searchStrings List of String's containing the specified search term(s).
+	 * @return a cursor over the recipes matching the specified List of search String's, sorted by name.
+	 */
+	public synchronized RecipeCursor searchSetRecipesCursor(List<String> searchStrings) {
+		if (searchStrings == null)
+			return null;
+		
+		// CACHED RESULT, unless recipes changed since
+		String key = queryKey(searchStrings);
+		RecipeCursor result = queryCache.get(key);
+		if (result != null)
+			return result;
+		
+		RecipeBitmap matches = new RecipeBitmap();
+		
+		// add recipes matching all words of each search String to the matches of the other search String's
 		for (String searchString : searchStrings) {
-			// parse search terms
-			String[] searchWords = searchString.toLowerCase(Locale.US).split(" ");
-			
-			// eliminate duplicate search terms
-			Set<String> searchWordSet = new HashSet<String>();
-			for (String s : searchWords)
-				searchWordSet.add(s);
-			
-			// number of matches required
-			int numMatchesRequired = searchWordSet.size();
-			
-			// create structure to hold unique recipes and count the number of hits for each
-			Map<Integer, Integer> hitTable = new HashMap<Integer, Integer>();
-			
-			for (String s : searchWordSet) {
-				// get all recipes containing the current word in the name or ingredient list
-				Set<Integer> set = indexMap.get(s);
-				
-				// fill out hitTable
-				if (set != null) {
-					for (int i : set) {
-						Integer count = hitTable.get(i);
-						count = (count == null) ? 1 : (count + 1);
-						
-						hitTable.put(i, count);
-					}
-				}
-			}
-			
-			// add to Set of matches
-			for (Map.Entry<Integer, Integer> entry : hitTable.entrySet()) {
-				if (entry.getValue() == numMatchesRequired)
-					resultSet.add(entry.getKey());
-			}
+			RecipeBitmap stringMatches = matchSearchString(searchString, null);
+			if (stringMatches != null)
+				matches = RecipeBitmap.or(matches, stringMatches);
+		}
+		
+		result = newCursor(matches);
+		queryCache.put(key, result);
+		
+		return result;
+	}
+	
+	/**
+	 * Returns the recipes matching the specified List of search String's as searchSetRecipes() does, ranked by relevance instead of sorted by name.
+	 * Recipes using more of the search words, rarer ones, or using them in their name rank higher; see RecipeRanker.
+	 * Only the best recipes are returned, without sorting the rest.
+	 * @param searchStrings List of String's containing the specified search term(s).
+	 * @param limit the maximum number of recipes to return.
+	 * @return a list of the best matching recipes, most relevant first.
+	 */
+	public synchronized List<Recipe> searchSetRecipesRanked(List<String> searchStrings, int limit) {
+		if (searchStrings == null)
+			return null;
+		
+		// get the matching recipes, and the words they matched by
+		RecipeBitmap matches = new RecipeBitmap();
+		List<String> words = new ArrayList<String>();
+		for (String searchString : searchStrings) {
+			RecipeBitmap stringMatches = matchSearchString(searchString, words);
+			if (stringMatches != null)
+				matches = RecipeBitmap.or(matches, stringMatches);
+		}
+		
+		// score the unlocked recipes, keeping the best
+		matches = RecipeBitmap.and(matches, unlockedRecipes);
+		RecipeRanker ranker = new RecipeRanker(ordinalMap.size(), totalNameLength, totalIngredientLength, Math.min(limit, matches.cardinality()));
+		for (String word : words)
+			ranker.addWord(indexMap.get(word), nameIndexMap.get(word), repeatIndexMap.get(word));
+		
+		for (int ordinal : matches.toArray())
+			ranker.rank(ordinalMap.get(ordinal));
+		
+		List<Recipe> result = new ArrayList<Recipe>();
+		for (int ordinal : ranker.toArray())
+			result.add(ordinalMap.get(ordinal));
+		
+		return result;
+	}
+	
+	/**
+	 * Helper function which returns the recipes indexed under a search word, or under the closest words if it is misspelled.
+	 * @param word the search word, in lowercase.
+	 * @return a read-only bitmap of recipe ordinals, empty if no word matches.
+	 */
+	private RecipeBitmap searchWord(String word) {
+		RecipeBitmap result = indexMap.get(word);
+		
+		return (result != null) ? result : getTermDictionary().recipesNear(word);
+	}
+	
+	/**
+	 * Sorts a List of Recipes, such as a listing or search results, in one of the precomputed orders.
+	 * Recipes the order does not tell apart are sorted by name; recipes no longer in the database are left out.
+	 * @param recipes the List of Recipes to sort.
+	 * @param order the order, one of the ORDER constants.
+	 * @return a new List of the Recipes, sorted.
+	 */
+	public synchronized List<Recipe> sortRecipes(List<Recipe> recipes, int order) {
+		if (order < 0 || order >= NUM_ORDERS)
+			throw new IllegalArgumentException("Unknown recipe order: " + order);
+		
+		int[] ordinals = new int[recipes.size()];
+		int count = 0;
+		for (Recipe recipe : recipes) {
+			if (recipe.ordinal < ordinalMap.size() && ordinalMap.get(recipe.ordinal) == recipe)
+				ordinals[count++] = recipe.ordinal;
 		}
 		
-		// convert Set of recipeId's to List of sorted Recipes and return
-		return getRecipesById(resultSet);
+		return getRecipeOrder(order).list(ordinalMap, ordinals, count);
+	}
+	
+	/**
+	 * Returns the stable recipeId for a recipe, derived from its name and author only, so that it survives recipes being added, removed or reordered in the catalog.
+	 * The id is a 31-bit FNV-1a hash; the rare recipe whose hash collides with a recipe already added takes the next free id instead, and an id once given out is never changed.
+	 * The catalog is added first, in file order, and packs after it in file name order, so the ids of catalog recipes never depend on the packs installed,
+	 * and the ids of a pack's recipes only on the catalog and the packs before it; the same files always give the same ids.
+	 * @param name the name of the recipe.
+	 * @param author the author of the recipe.
+	 * @return the stable recipeId, never negative.
+	 */
+	static int stableRecipeId(String name, String author) {
+		int hash = 0x811c9dc5; // FNV offset basis
+		
+		for (int i = 0; i < name.length(); i++)
+			hash = (hash ^ name.charAt(i)) * 0x01000193; // FNV prime
+		
+		hash *= 0x01000193; // separator, so that "ab" + "c" and "a" + "bc" differ
+		
+		for (int i = 0; i < author.length(); i++)
+			hash = (hash ^ author.charAt(i)) * 0x01000193;
+		
+		return hash & Integer.MAX_VALUE;
 	}
 	
 	/**
@@ -693,29 +1959,163 @@ public final class RecipeDatabase {
 		return result;
 	}
 	
+	/**
+	 * Returns search suggestions for the specified search String as typed so far, for search-as-you-type.
+	 * The last word is completed to indexed words, the words found in the most recipes first; completions which would find no recipe together with the other words are left out.
+	 * A last word which starts no indexed word is taken as misspelled and corrected to the closest words instead, and misspelled other words match as in searchRecipesByPrefix().
+	 * Completions read as in the catalog rather than as the stemmed words indexed, i.e. "tom" suggests "tomatoes".
+	 * @param searchString String containing the search term(s) typed so far, the last one possibly incomplete.
+	 * @param limit the maximum number of suggestions to return.
+	 * @return a List of complete search String's, empty if there are none.
+	 */
+	public synchronized List<String> suggestSearches(String searchString, int limit) {
+		List<String> result = new ArrayList<String>();
+		if (searchString == null)
+			return result;
+		
+		// parse search terms
+		List<String> searchWords = parseSearchString(searchString);
+		
+		if (searchWords.isEmpty())
+			return result;
+		
+		// the recipes matching the complete words other than stopwords, which the completions must share
+		String prefix = searchWords.remove(searchWords.size() - 1);
+		List<RecipeBitmap> matches = new ArrayList<RecipeBitmap>();
+		StringBuilder head = new StringBuilder();
+		for (String searchWord : searchWords) {
+			String word = analyzer.analyze(searchWord);
+			if (word != null) {
+				RecipeBitmap recipes = searchWord(word);
+				if (recipes.isEmpty())
+					return result;
+				matches.add(recipes);
+			}
+			head.append(searchWord).append(' ');
+		}
+		
+		RecipeBitmap filter = null;
+		if (!matches.isEmpty()) {
+			filter = RecipeBitmap.and(matches.toArray(new RecipeBitmap[matches.size()]), matches.size());
+			if (filter.isEmpty())
+				return result;
+		}
+		
+		// complete the last word; failing that, it may be a complete plural whose stem it does not start, or misspelled
+		List<String> words = getTermDictionary().complete(prefix, filter, limit);
+		if (words.isEmpty()) {
+			String word = analyzer.analyze(prefix);
+			if (word == null)
+				return result;
+			
+			RecipeBitmap recipes = indexMap.get(word);
+			if (recipes != null && (filter == null || !RecipeBitmap.and(filter, recipes).isEmpty())) {
+				words = new ArrayList<String>();
+				words.add(word);
+			} else {
+				words = getTermDictionary().correct(word, filter, limit);
+			}
+		}
+		
+		// show stemmed words as they appear in the catalog
+		for (String word : words) {
+			String label = termLabels.get(word);
+			result.add(head + ((label != null) ? label : word));
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Helper function that removes the given recipe from the index entries of the words contained in the specified String.
+	 * @param string String containing the words the given recipe was indexed by.
+	 * @param ordinal the ordinal of the Recipe being removed.
+	 */
+	private void unindex(String string, int ordinal) {
+		analyzer.reset(string);
+		while (analyzer.next()) {
+			String word = analyzer.term();
+			RecipeBitmap recipes = indexMap.get(word);
+			
+			if (recipes != null) {
+				recipes.remove(ordinal);
+				if (recipes.isEmpty()) {
+					indexMap.remove(word);
+					termLabels.remove(word);
+					termDictionary = null;
+				}
+			}
+			
+			RecipeBitmap nameRecipes = nameIndexMap.get(word);
+			if (nameRecipes != null) {
+				nameRecipes.remove(ordinal);
+				if (nameRecipes.isEmpty())
+					nameIndexMap.remove(word);
+			}
+			
+			// the repeats of a word are nested, so once one is empty all those after it are too
+			RecipeBitmap[] repeats = repeatIndexMap.get(word);
+			if (repeats != null) {
+				int numRepeats = 0;
+				for (RecipeBitmap repeat : repeats) {
+					repeat.remove(ordinal);
+					if (!repeat.isEmpty())
+						numRepeats++;
+				}
+				if (numRepeats == 0)
+					repeatIndexMap.remove(word);
+				else if (numRepeats < repeats.length) {
+					RecipeBitmap[] shrunk = new RecipeBitmap[numRepeats];
+					System.arraycopy(repeats, 0, shrunk, 0, numRepeats);
+					repeatIndexMap.put(word, shrunk);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Helper function which removes a recipe from the author index.
+	 * @param author the author of the recipe.
+	 * @param ordinal the ordinal of the recipe.
+	 */
+	private void unindexAuthor(String author, int ordinal) {
+		analyzer.reset(author);
+		while (analyzer.next()) {
+			String word = analyzer.term();
+			RecipeBitmap recipes = authorIndexMap.get(word);
+			if (recipes != null) {
+				recipes.remove(ordinal);
+				if (recipes.isEmpty())
+					authorIndexMap.remove(word);
+			}
+		}
+	}
+	
 	/**
 	 * Unlocks all Recipes that apply to the specified Box.
 	 * @param boxId the unique identifier for the Box whose recipes are to be unlocked.
 	 * @return a Set of recipeId's whose Recipes have been newly unlocked, excluding Recipes already unlocked.
 	 */
-	public Set<Integer> unlockRecipesByBox(short boxId) {
-		Set<Integer> unlockedRecipes = new HashSet<Integer>();
+	public synchronized Set<Integer> unlockRecipesByBox(short boxId) {
+		Set<Integer> newlyUnlocked = new HashSet<Integer>();
 		
-		// retrieve the Set of Recipes unlocked by this Box
-		Set<Integer> recipeSet = boxMap.get(boxId);
+		// retrieve the Recipes unlocked by this Box
+		RecipeBitmap recipes = boxMap.get(boxId);
 		
 		// unlock Recipes, counting only the ones not already unlocked
-		if (recipeSet != null) {
-			for (int recipeId : recipeSet) {
-				Recipe recipe = findRecipeById(recipeId);
-				if (!recipe.unlocked) {
-					recipe.unlocked = true;
-					unlockedRecipes.add(recipeId);
-				}
+		if (recipes != null) {
+			for (int ordinal : RecipeBitmap.andNot(recipes, unlockedRecipes).toArray()) {
+				unlockedRecipes.add(ordinal);
+				newlyUnlocked.add(ordinalMap.get(ordinal).recipeId);
 			}
 		}
 		
-		return unlockedRecipes;
+		if (!newlyUnlocked.isEmpty()) {
+			queryCache.invalidate();
+			publishUnlocked();
+		}
+		
+		return newlyUnlocked;
 	}
 	
 	/**
@@ -723,7 +2123,7 @@ public final class RecipeDatabase {
 	 * @param recipeId the unique identifier for the Recipe whose shopping list quantity is to be updated.
 	 * @param quantity the new quantity of the Recipe to be saved to the shopping list.
 	 */
-	public void updateQuantity(int recipeId, byte quantity) {
+	public synchronized void updateQuantity(int recipeId, byte quantity) {
 		if (quantity == 0)
 			shoppingListRecipes.remove(recipeId);
 		else
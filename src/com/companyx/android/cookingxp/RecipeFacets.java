@@ -0,0 +1,75 @@
+package com.companyx.android.cookingxp;
+
+import java.util.Map;
+
+/**
+ * Recipe Facets
+ *
+ * The recipes of a result set counted by category, author, box and vegetarian flag, such as for showing "Chicken (42)" next to a category.
+ * Counted by RecipeDatabase.getFacets(), see FacetIndex.
+ */
+final class RecipeFacets {
+	// STATE VARIABLES
+	private final int total;
+	private final int[] categoryCounts; // by position of the category in the categories counted
+	private final int vegetarianCount;
+	private final Map<String, Integer> authorCounts; // by author, in author order; only authors of some result
+	private final Map<Short, Integer> boxCounts; // by boxId, ascending; only boxes of some result
+
+	/**
+	 * Constructor.
+	 * @param total the number of results.
+	 * @param categoryCounts the number of results in each category, by position of the category in the categories counted.
+	 * @param vegetarianCount the number of vegetarian results.
+	 * @param authorCounts the number of results by each author, in author order.
+	 * @param boxCounts the number of results in each box, by ascending boxId.
+	 */
+	RecipeFacets(int total, int[] categoryCounts, int vegetarianCount, Map<String, Integer> authorCounts, Map<Short, Integer> boxCounts) {
+		this.total = total;
+		this.categoryCounts = categoryCounts;
+		this.vegetarianCount = vegetarianCount;
+		this.authorCounts = authorCounts;
+		this.boxCounts = boxCounts;
+	}
+
+	/**
+	 * Returns the number of results by each author.
+	 * @return a read-only Map of author to number of results, in author order; authors without results are left out.
+	 */
+	Map<String, Integer> getAuthorCounts() {
+		return authorCounts;
+	}
+
+	/**
+	 * Returns the number of results in each box.
+	 * @return a read-only Map of boxId to number of results, by ascending boxId; boxes without results are left out.
+	 */
+	Map<Short, Integer> getBoxCounts() {
+		return boxCounts;
+	}
+
+	/**
+	 * Returns the number of results in a category.
+	 * @param category the position of the category in the categories counted.
+	 * @return the number of results in the category.
+	 */
+	int getCategoryCount(int category) {
+		return categoryCounts[category];
+	}
+
+	/**
+	 * Returns the number of results.
+	 * @return the number of results counted.
+	 */
+	int getTotal() {
+		return total;
+	}
+
+	/**
+	 * Returns the number of vegetarian results; the others are getTotal() - getVegetarianCount().
+	 * @return the number of vegetarian results.
+	 */
+	int getVegetarianCount() {
+		return vegetarianCount;
+	}
+}
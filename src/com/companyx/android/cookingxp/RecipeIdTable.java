@@ -0,0 +1,161 @@
+package com.companyx.android.cookingxp;
+
+import java.util.Arrays;
+
+/**
+ * Recipe Id Table
+ *
+ * Maps recipeId to recipe ordinal, in two parallel int arrays rather than a HashMap of boxed keys and entry objects: 11 to 22 bytes per recipe, as the table fills between doublings, instead of about 50.
+ * RecipeIds are derived from titles and authors and so are spread over all non-negative ints, too sparse to index an array by; the table hashes them with linear probing instead, and removes by shifting the following entries back rather than leaving markers.
+ *
+ * Not thread-safe; the database only touches its table under its lock, and a copy handed to a CatalogVersion is never modified.
+ */
+final class RecipeIdTable {
+	// CONSTANTS
+	static final int NOT_FOUND = -1;
+	private static final int EMPTY = -1; // key of a free slot; recipeIds are never negative
+	private static final int INITIAL_CAPACITY = 64;
+
+	// STATE VARIABLES
+	private int[] keys; // recipeId in each slot, EMPTY for free slots; the length is a power of 2
+	private int[] ordinals; // ordinal of the recipe in each slot
+	private int size;
+
+	/**
+	 * Constructor.
+	 */
+	RecipeIdTable() {
+		keys = new int[INITIAL_CAPACITY];
+		ordinals = new int[INITIAL_CAPACITY];
+		Arrays.fill(keys, EMPTY);
+	}
+
+	/**
+	 * Private constructor, for copy().
+	 * @param keys the recipeIds by slot.
+	 * @param ordinals the ordinals by slot.
+	 * @param size the number of recipeIds.
+	 */
+	private RecipeIdTable(int[] keys, int[] ordinals, int size) {
+		this.keys = keys;
+		this.ordinals = ordinals;
+		this.size = size;
+	}
+
+	/**
+	 * Returns a copy of the table which shares nothing with it.
+	 * @return a new table of the same recipeIds.
+	 */
+	RecipeIdTable copy() {
+		int[] keysCopy = new int[keys.length];
+		int[] ordinalsCopy = new int[ordinals.length];
+		System.arraycopy(keys, 0, keysCopy, 0, keys.length);
+		System.arraycopy(ordinals, 0, ordinalsCopy, 0, ordinals.length);
+
+		return new RecipeIdTable(keysCopy, ordinalsCopy, size);
+	}
+
+	/**
+	 * Returns the ordinal of a recipe.
+	 * @param recipeId the unique identifier of the recipe.
+	 * @return the ordinal of the recipe, NOT_FOUND if no recipe has the recipeId.
+	 */
+	int get(int recipeId) {
+		if (recipeId < 0)
+			return NOT_FOUND;
+
+		int mask = keys.length - 1;
+		for (int slot = slot(recipeId, mask); keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+			if (keys[slot] == recipeId)
+				return ordinals[slot];
+		}
+
+		return NOT_FOUND;
+	}
+
+	/**
+	 * Helper function which doubles the slots once the table is three quarters full, keeping probe runs short.
+	 */
+	private void grow() {
+		int[] oldKeys = keys;
+		int[] oldOrdinals = ordinals;
+		keys = new int[oldKeys.length * 2];
+		ordinals = new int[oldKeys.length * 2];
+		Arrays.fill(keys, EMPTY);
+
+		int mask = keys.length - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] == EMPTY)
+				continue;
+
+			int slot = slot(oldKeys[i], mask);
+			while (keys[slot] != EMPTY)
+				slot = (slot + 1) & mask;
+			keys[slot] = oldKeys[i];
+			ordinals[slot] = oldOrdinals[i];
+		}
+	}
+
+	/**
+	 * Maps a recipeId to an ordinal, replacing any ordinal it had.
+	 * @param recipeId the unique identifier of the recipe, not negative.
+	 * @param ordinal the ordinal of the recipe.
+	 */
+	void put(int recipeId, int ordinal) {
+		int mask = keys.length - 1;
+		int slot = slot(recipeId, mask);
+		while (keys[slot] != EMPTY) {
+			if (keys[slot] == recipeId) {
+				ordinals[slot] = ordinal;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		keys[slot] = recipeId;
+		ordinals[slot] = ordinal;
+		if (++size > keys.length - (keys.length >>> 2))
+			grow();
+	}
+
+	/**
+	 * Removes a recipeId, if present.
+	 * @param recipeId the unique identifier of the recipe.
+	 */
+	void remove(int recipeId) {
+		if (recipeId < 0)
+			return;
+
+		int mask = keys.length - 1;
+		int slot = slot(recipeId, mask);
+		while (keys[slot] != recipeId) {
+			if (keys[slot] == EMPTY)
+				return;
+			slot = (slot + 1) & mask;
+		}
+
+		// SHIFT BACK the entries of the run after the free slot that would no longer be found past it
+		int free = slot;
+		for (int next = (free + 1) & mask; keys[next] != EMPTY; next = (next + 1) & mask) {
+			int home = slot(keys[next], mask);
+			if (((next - home) & mask) >= ((next - free) & mask)) {
+				keys[free] = keys[next];
+				ordinals[free] = ordinals[next];
+				free = next;
+			}
+		}
+		keys[free] = EMPTY;
+		size--;
+	}
+
+	/**
+	 * Helper function which returns the home slot of a recipeId, mixing its bits since recipeIds probed past a collision are consecutive.
+	 * @param recipeId the recipeId.
+	 * @param mask the number of slots less one.
+	 * @return the slot the search for the recipeId starts at.
+	 */
+	private static int slot(int recipeId, int mask) {
+		int h = recipeId * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+}
@@ -1,147 +1,624 @@
 package com.companyx.android.cookingxp;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Scanner;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import android.util.Log;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import com.companyx.android.cookingxp.RecipeDatabase.Recipe;
 import com.companyx.android.cookingxp.RecipeDatabase.RecipeDirection;
 import com.companyx.android.cookingxp.RecipeDatabase.RecipeIngredient;
 import com.companyx.android.cookingxp.RecipeDatabase.RecipeTime;
 
-@SuppressWarnings("unused")
 // Recipe Reader
 // @author Adam Hackbarth <adam.hackbarth@gmail.com>
+//
+// Single-pass streaming parser for the recipe data format:
+//
+//   0:E                                    recipe marker
+//   title:author:boxId:boxId...            title line
+//   prep:inactive:cook:servings            time line
+//   amount:measurement:ingredient:notes    ingredient line(s)
+//   _direction:direction:...               direction line
+//
+// Characters are pulled from the stream in blocks into a reusable line buffer; each completed line is
+// handed to a small state machine which scans its fields in place. No regex, Scanner or split() is
+// involved, only the final Strings and Recipe objects are allocated.
+//
+// A recipe which is cut short by the next marker or the end of the data, or whose numbers cannot be read,
+// is skipped and counted as malformed; parsing resumes at the next marker.
+//
+// Recipes are independent blocks starting at a marker line, and the state machine resets on every
+// marker, so the catalog can also be cut at marker lines and the pieces parsed on separate threads.
+// Every recipe is given its stable recipeId from its title and author (see RecipeDatabase.stableRecipeId),
+// so the pieces are simply concatenated in file order.
 public class RecipeLoader {
+	// PARSER STATES
+	private static final int STATE_MARKER = 0; // scanning for the next "0:E" recipe marker
+	private static final int STATE_TITLE = 1; // expecting the title line
+	private static final int STATE_TIME = 2; // expecting the time line
+	private static final int STATE_INGREDIENTS = 3; // reading ingredient lines until the direction line
+
+	// CONSTANTS
+	private static final int READ_BUFFER_SIZE = 8192;
+	private static final int PARALLEL_MIN_CHARS = 65536; // below this, thread handoff costs more than it saves
+	private static final int CHUNKS_PER_THREAD = 4; // extra chunks even out uneven recipe sizes
+	private static final char FIELD_SEPARATOR = ':';
+	private static final char DIRECTIONS_PREFIX = '_';
+
 	InputStream inputStream;
 	RecipeDatabase recipeDatabase;
+	private LoadReport report = LoadReport.DISABLED;
+	private final StringPool stringPool; // shares repeated field values between recipes, and with the RecipeDatabase index
+	private final Map<Long, RecipeTime> recipeTimes = new HashMap<Long, RecipeTime>(); // shared between recipes of the same times
+
+	// PARSER STATE
+	private char[] line; // reusable buffer holding the current line
+	private int lineLength;
+	private int state;
+	private List<Recipe> recipes; // completed recipes, in file order
+	private int ingredientCount; // ingredients of completed recipes
+	private int directionCount; // directions of completed recipes
+	private int malformedCount; // recipes skipped
+
+	// RECIPE UNDER CONSTRUCTION
+	private String title;
+	private String author;
+	private List<Short> boxAssignment;
+	private RecipeTime recipeTime;
+	private byte numOfServings;
+	private List<RecipeIngredient> ingredients;
+
+	/**
+	 * Input stream which counts the bytes read through it, used for the load report.
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+		long count;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int result = super.read();
+			if (result != -1)
+				count++;
+			return result;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int result = super.read(b, off, len);
+			if (result != -1)
+				count += result;
+			return result;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long result = super.skip(n);
+			count += result;
+			return result;
+		}
+	}
 
 	// constructor
 	RecipeLoader(InputStream inputStream, RecipeDatabase recipeDatabase) {
 		this.inputStream = inputStream;
 		this.recipeDatabase = recipeDatabase;
+		stringPool = (recipeDatabase != null) ? recipeDatabase.getStringPool() : new StringPool();
 	}
 
+	// constructor for a chunk parser, fed from an in-memory range
+	private RecipeLoader(StringPool stringPool) {
+		this.stringPool = stringPool;
+	}
+
+	/**
+	 * Parses the entire input stream in one pass, then adds the complete recipes to the RecipeDatabase as one batch.
+	 */
 	public void loadData() {
-		
-		/* Loading Raw Data from File Location into Scanner */
-		Scanner scanner = new Scanner(inputStream);
-		scanner.useDelimiter(System.getProperty("line.separator"));
-		String INPUT = scanner.next();
-		String keyLine = "";
-		int recipeNumber = 0;
-		
-		while (scanner.hasNext()) {
-			if ("0:E".matches(INPUT.trim())) {
-				ArrayList<String> ingredListArray = new ArrayList<String>();
-				List<Short> boxAssignment = new ArrayList<Short>();
-				List<String> directList = new ArrayList<String>();
-				List<Integer> linkedRecipe = new ArrayList<Integer>();
-				keyLine = INPUT; // saving the recipe key line
-				String initVal = scanner.next(); // Starting Point Holder
-				String regex = "\\b  +";
-				String blank = "";
-				String title = "";
-				String auth = "";
-				INPUT = initVal;
-				
-				// Recipe Linking Placeholder - Currently just linking to itself
-				linkedRecipe.add(recipeNumber);
-
-				// Storing Recipe title
-				while (scanner.hasNext()) {
-					if ("0:E".equals(INPUT.trim())) {
-						INPUT = scanner.next();
-					} else {
-						title = INPUT;
-						INPUT = scanner.next();
-						break;
-					}
-				}
+		List<Recipe> result = parseData();
+		recipeDatabase.addRecipeHeaders(result);
+		recipeDatabase.indexRecipeBodies(result);
+	}
 
-				// Check for Author and update auth string if one is found.
-				if (title.contains(":")) {
-					String titleS[] = title.split("\\b:");
-					title = titleS[0].trim();
-					auth = titleS[1].trim();
-					for (int j = 2; j < titleS.length; j++) {
-						int boxId = Integer.valueOf(titleS[j].trim());
-						boxAssignment.add((short) boxId);
-					}
-				}
-				
-				// Time Split into Int - then Short into the RecipeTime
-				String timeL[] = INPUT.split("\\:");
-				int pr = Integer.valueOf(timeL[0].trim());
-				int ipr = Integer.valueOf(timeL[1].trim());
-				int c = Integer.valueOf(timeL[2].trim());
-
-				RecipeTime timeC = new RecipeTime((short) pr, (short) ipr,
-						(short) c);
-
-				// Serving size byte (serveSize)
-				int q = Integer.valueOf(timeL[3].trim());
-				byte serveSize = (byte) q;
-				INPUT = scanner.next();
-
-				// Grabbing Recipe Ingredients
-				while (scanner.hasNext()) {
-					Log.d("RECIPE INGREDIENTS LOOP", INPUT);
-					ingredListArray.add(INPUT);
-					INPUT = scanner.next();
-					if (INPUT.contains("_")) {
-						Log.d("Looking for Directions", "FOUND THEM");
-						break;
-					}
-				}
-				// Grabbing Recipe Directions/Instructions
-				String dirL[] = INPUT.substring(1, INPUT.length()).split("\\:");
-				directList = Arrays.asList(dirL);
-
-				while (scanner.hasNext()) {
-					if ("0:E".matches(INPUT.trim())) {
-						break;
-					} else {
-						INPUT = scanner.next();
-					}
+	/**
+	 * Parses the entire input stream in one pass without touching the RecipeDatabase.
+	 * @return the List of complete recipes, in file order.
+	 */
+	List<Recipe> parseData() {
+		reset();
+		report.beginPhase(LoadReport.PHASE_PARSE);
+
+		CountingInputStream countingStream = report.isEnabled() ? new CountingInputStream(inputStream) : null;
+		Reader reader = new InputStreamReader((countingStream != null) ? countingStream : inputStream);
+		char[] buffer = new char[READ_BUFFER_SIZE];
+
+		try {
+			int count;
+			while ((count = reader.read(buffer)) != -1)
+				feed(buffer, 0, count);
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			try {
+				reader.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		finish();
+
+		report.endPhase(LoadReport.PHASE_PARSE);
+		report.addRecords(recipes.size(), ingredientCount, directionCount, malformedCount);
+		if (countingStream != null)
+			report.addBytesRead(countingStream.count);
+
+		return recipes;
+	}
+
+	/**
+	 * Parses the entire input stream, splitting it at recipe markers and parsing the chunks on multiple threads.
+	 * The result is identical to parseData().
+	 * @param numThreads the number of parser threads to use; 1 or less parses on the calling thread.
+	 * @return the List of complete recipes, in file order.
+	 * @throws InterruptedException if the calling thread is interrupted while the chunks are parsed; no partial result is returned.
+	 */
+	List<Recipe> parseData(int numThreads) throws InterruptedException {
+		if (numThreads <= 1)
+			return parseData();
+
+		// READ WHOLE CATALOG
+		report.beginPhase(LoadReport.PHASE_READ);
+		CountingInputStream countingStream = report.isEnabled() ? new CountingInputStream(inputStream) : null;
+		char[] data = new char[READ_BUFFER_SIZE];
+		int length = 0;
+		Reader reader = new InputStreamReader((countingStream != null) ? countingStream : inputStream);
+		try {
+			int count;
+			while ((count = reader.read(data, length, data.length - length)) != -1) {
+				length += count;
+				if (length == data.length) {
+					char[] grown = new char[data.length * 2];
+					System.arraycopy(data, 0, grown, 0, length);
+					data = grown;
 				}
-				
-				// Separating the Ingredients for Database import
-				List<RecipeIngredient> riList = new ArrayList<RecipeIngredient>();
-				for (String z : ingredListArray) {
-					regex = "\\:";
-					Pattern p = Pattern.compile(regex);
-					String[] ami = p.split(z.toLowerCase());
-					RecipeIngredient newIngredient = new RecipeIngredient(
-							ami[0].trim(), ami[1].trim(), ami[2].trim(),
-							ami[3].trim());
-					riList.add(newIngredient);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			try {
+				reader.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		report.endPhase(LoadReport.PHASE_READ);
+		if (countingStream != null)
+			report.addBytesRead(countingStream.count);
+
+		report.beginPhase(LoadReport.PHASE_PARSE);
+		if (length < PARALLEL_MIN_CHARS) {
+			parseRange(data, 0, length);
+
+			report.endPhase(LoadReport.PHASE_PARSE);
+			report.addRecords(recipes.size(), ingredientCount, directionCount, malformedCount);
+
+			return recipes;
+		}
+
+		// CHUNK BOUNDARIES, snapped forward to the nearest marker line
+		int numChunks = numThreads * CHUNKS_PER_THREAD;
+		int[] bounds = new int[numChunks + 1];
+		bounds[numChunks] = length;
+		for (int k = 1; k < numChunks; k++)
+			bounds[k] = nextMarker(data, Math.max(bounds[k - 1], (int) ((long) length * k / numChunks)), length);
+
+		// PARSE CHUNKS
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		List<Future<RecipeLoader>> futures = new ArrayList<Future<RecipeLoader>>();
+		for (int k = 0; k < numChunks; k++) {
+			if (bounds[k] == bounds[k + 1])
+				continue;
+
+			final char[] chunkData = data;
+			final int chunkStart = bounds[k];
+			final int chunkEnd = bounds[k + 1];
+			futures.add(executor.submit(new Callable<RecipeLoader>() {
+				@Override
+				public RecipeLoader call() {
+					RecipeLoader chunkLoader = new RecipeLoader(stringPool);
+					chunkLoader.parseRange(chunkData, chunkStart, chunkEnd);
+					return chunkLoader;
 				}
+			}));
+		}
+
+		// MERGE IN FILE ORDER
+		reset();
+		try {
+			for (Future<RecipeLoader> future : futures) {
+				RecipeLoader chunkLoader = future.get();
+				recipes.addAll(chunkLoader.recipes);
+				ingredientCount += chunkLoader.ingredientCount;
+				directionCount += chunkLoader.directionCount;
+				malformedCount += chunkLoader.malformedCount;
+			}
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+
+		report.endPhase(LoadReport.PHASE_PARSE);
+		report.addRecords(recipes.size(), ingredientCount, directionCount, malformedCount);
+
+		return recipes;
+	}
 
-				List<RecipeDirection> dirList = new ArrayList<RecipeDirection>();
-				for (String s : directList) {
-					dirList.add(new RecipeDirection(s));
+	/**
+	 * Pushes a range of characters through the state machine, one line at a time.
+	 * @param data the characters to parse.
+	 * @param start the start index of the range, inclusive.
+	 * @param end the end index of the range, exclusive.
+	 */
+	private void feed(char[] data, int start, int end) {
+		for (int i = start; i < end; i++) {
+			char c = data[i];
+
+			if (c == '\n') {
+				processLine();
+				lineLength = 0;
+			} else if (c != '\r') {
+				if (lineLength == line.length) {
+					char[] grown = new char[line.length * 2];
+					System.arraycopy(line, 0, grown, 0, lineLength);
+					line = grown;
 				}
+				line[lineLength++] = c;
+			}
+		}
+	}
+
+	/**
+	 * Helper function which returns the index of the next field separator at or after the given index, or the line length if there is none.
+	 * @param from the index to start scanning from.
+	 * @return the index of the next field separator, or the line length if there is none.
+	 */
+	private int fieldEnd(int from) {
+		while (from < lineLength && line[from] != FIELD_SEPARATOR)
+			from++;
+
+		return from;
+	}
+
+	/**
+	 * Processes the last line, which may not be newline-terminated, and counts a recipe left incomplete as malformed.
+	 */
+	private void finish() {
+		if (lineLength > 0)
+			processLine();
+
+		if (state != STATE_MARKER) {
+			malformedCount++;
+			state = STATE_MARKER;
+		}
+	}
 
-				Recipe newRecipe = new Recipe(recipeNumber, title, auth,
-						riList, dirList, linkedRecipe, boxAssignment, timeC,
-						serveSize);
-				recipeDatabase.addRecipe(newRecipe);
+	/**
+	 * Returns true if the current line is a recipe marker, ignoring surrounding whitespace.
+	 * @return true if the current line is a recipe marker, false otherwise.
+	 */
+	private boolean isMarker() {
+		int start = trimStart(0, lineLength);
+		int end = trimEnd(start, lineLength);
 
-				recipeNumber++; // increment recipe numbering system
+		return end - start == 3 && line[start] == '0' && line[start + 1] == FIELD_SEPARATOR && line[start + 2] == 'E';
+	}
+
+	/**
+	 * Returns true if the character counts as a word character, used to find title field boundaries.
+	 * @param c the character to test.
+	 * @return true if the character is a letter, digit or underscore, false otherwise.
+	 */
+	private static boolean isWordChar(char c) {
+		return Character.isLetterOrDigit(c) || c == '_';
+	}
+
+	/**
+	 * Returns the start index of the first marker line beginning at or after the given index, or the end index if there is none.
+	 * @param data the characters to scan.
+	 * @param from the index to start scanning from.
+	 * @param end the end index of the scan, exclusive.
+	 * @return the start index of the next marker line, or the end index if there is none.
+	 */
+	private static int nextMarker(char[] data, int from, int end) {
+		// move to the start of a line
+		int lineStart = from;
+		if (lineStart > 0 && data[lineStart - 1] != '\n') {
+			while (lineStart < end && data[lineStart] != '\n')
+				lineStart++;
+			lineStart++;
+		}
+
+		while (lineStart < end) {
+			int lineEnd = lineStart;
+			while (lineEnd < end && data[lineEnd] != '\n')
+				lineEnd++;
+
+			// trimmed line equals "0:E"
+			int s = lineStart;
+			int e = lineEnd;
+			while (s < e && data[s] <= ' ')
+				s++;
+			while (e > s && data[e - 1] <= ' ')
+				e--;
+			if (e - s == 3 && data[s] == '0' && data[s + 1] == FIELD_SEPARATOR && data[s + 2] == 'E')
+				return lineStart;
+
+			lineStart = lineEnd + 1;
+		}
+
+		return end;
+	}
+
+	/**
+	 * Helper function which parses a whitespace-padded integer field of the current line without allocating.
+	 * @param start the start index of the field, inclusive.
+	 * @param end the end index of the field, exclusive.
+	 * @return the integer value of the field.
+	 * @throws NumberFormatException if the field does not contain a valid integer.
+	 */
+	private int parseInt(int start, int end) {
+		start = trimStart(start, end);
+		end = trimEnd(start, end);
+
+		if (start == end)
+			throw new NumberFormatException("empty field in line: " + new String(line, 0, lineLength));
+
+		boolean negative = line[start] == '-';
+		if (negative || line[start] == '+')
+			start++;
+
+		int result = 0;
+		for (int i = start; i < end; i++) {
+			int digit = line[i] - '0';
+			if (digit < 0 || digit > 9)
+				throw new NumberFormatException("invalid number in line: " + new String(line, 0, lineLength));
+			result = result * 10 + digit;
+		}
+
+		return negative ? -result : result;
+	}
+
+	/**
+	 * Parses the direction line and completes the recipe under construction.
+	 */
+	private void parseDirections() {
+		List<RecipeDirection> directions = new ArrayList<RecipeDirection>();
+
+		// directions are separated by colons and kept untrimmed; trailing empty directions are dropped
+		int start = 1; // skip directions prefix
+		while (start <= lineLength) {
+			int end = fieldEnd(start);
+			directions.add(new RecipeDirection(new String(line, start, end - start)));
+			start = end + 1;
+		}
+		while (!directions.isEmpty() && directions.get(directions.size() - 1).direction.length() == 0)
+			directions.remove(directions.size() - 1);
+
+		int recipeId = RecipeDatabase.stableRecipeId(title, author);
+
+		short[] boxes = new short[boxAssignment.size()];
+		for (int i = 0; i < boxes.length; i++)
+			boxes[i] = boxAssignment.get(i);
+
+		// linked to itself until similar recipes are linked, see RecipeDatabase.linkSimilarRecipes()
+		recipes.add(new Recipe(recipeId, title, author, ingredients, directions, new int[] {recipeId}, boxes, recipeTime, numOfServings));
+		ingredientCount += ingredients.size();
+		directionCount += directions.size();
+	}
+
+	/**
+	 * Parses an ingredient line of the form amount:measurement:ingredient:notes, lowercased and trimmed.
+	 * Missing fields are left empty, fields past the fourth are ignored.
+	 */
+	private void parseIngredient() {
+		for (int i = 0; i < lineLength; i++)
+			line[i] = Character.toLowerCase(line[i]);
+
+		String[] fields = new String[4];
+		int start = 0;
+		for (int f = 0; f < fields.length; f++) {
+			if (start > lineLength) {
+				fields[f] = "";
+				continue;
+			}
+
+			int end = fieldEnd(start);
+			fields[f] = trimmedString(start, end);
+			start = end + 1;
+		}
 
-			} else {
-				INPUT = scanner.next();
+		ingredients.add(new RecipeIngredient(fields[0], fields[1], fields[2], fields[3]));
+	}
+
+	/**
+	 * Parses the time line of the form prep:inactive:cook:servings.
+	 */
+	private void parseTime() {
+		int[] values = new int[4];
+		int start = 0;
+		for (int f = 0; f < values.length; f++) {
+			int end = fieldEnd(start);
+			values[f] = parseInt(start, end);
+			start = end + 1;
+		}
+
+		long timeKey = ((long) (values[0] & 0xFFFF) << 32) | ((long) (values[1] & 0xFFFF) << 16) | (values[2] & 0xFFFF);
+		recipeTime = recipeTimes.get(timeKey);
+		if (recipeTime == null) {
+			recipeTime = new RecipeTime((short) values[0], (short) values[1], (short) values[2]);
+			recipeTimes.put(timeKey, recipeTime);
+		}
+		numOfServings = (byte) values[3];
+	}
+
+	/**
+	 * Parses the title line of the form title:author:boxId:boxId...
+	 * A colon only separates fields when it directly follows a word character, so titles such as "Recipe 1: Stew" stay intact.
+	 */
+	private void parseTitle() {
+		boxAssignment = new ArrayList<Short>();
+		author = "";
+
+		int field = 0;
+		int start = 0;
+		for (int i = 0; i <= lineLength; i++) {
+			if (i < lineLength && (line[i] != FIELD_SEPARATOR || i == 0 || !isWordChar(line[i - 1])))
+				continue;
+
+			if (field == 0)
+				title = trimmedString(start, i);
+			else if (field == 1)
+				author = trimmedString(start, i);
+			else
+				boxAssignment.add((short) parseInt(start, i));
+
+			field++;
+			start = i + 1;
+		}
+	}
+
+	/**
+	 * Parses an in-memory range holding whole lines.
+	 * @param data the characters to parse.
+	 * @param start the start index of the range, inclusive.
+	 * @param end the end index of the range, exclusive.
+	 */
+	private void parseRange(char[] data, int start, int end) {
+		reset();
+		feed(data, start, end);
+		finish();
+	}
+
+	/**
+	 * Advances the state machine by one complete line held in the line buffer.
+	 */
+	private void processLine() {
+		// blank lines carry no data in any state
+		if (trimStart(0, lineLength) == lineLength)
+			return;
+
+		// a marker always starts a new recipe, discarding any incomplete one
+		if (isMarker()) {
+			if (state != STATE_MARKER)
+				malformedCount++;
+			state = STATE_TITLE;
+			return;
+		}
+
+		try {
+			switch (state) {
+			case STATE_MARKER:
+				break;
+			case STATE_TITLE:
+				parseTitle();
+				state = STATE_TIME;
+				break;
+			case STATE_TIME:
+				parseTime();
+				ingredients = new ArrayList<RecipeIngredient>();
+				state = STATE_INGREDIENTS;
+				break;
+			case STATE_INGREDIENTS:
+				if (line[0] == DIRECTIONS_PREFIX) {
+					parseDirections();
+					state = STATE_MARKER;
+				} else
+					parseIngredient();
+				break;
 			}
+		} catch (NumberFormatException e) {
+			// skip the rest of the recipe
+			malformedCount++;
+			state = STATE_MARKER;
 		}
+	}
+
+	/**
+	 * Resets the parser state.
+	 */
+	private void reset() {
+		line = new char[256];
+		lineLength = 0;
+		state = STATE_MARKER;
+		recipes = new ArrayList<Recipe>();
+		ingredientCount = 0;
+		directionCount = 0;
+		malformedCount = 0;
+	}
+
+	/**
+	 * Sets the report which the next parse records its timings and counts into.
+	 * @param report the load report, LoadReport.DISABLED to record nothing.
+	 */
+	void setLoadReport(LoadReport report) {
+		this.report = report;
+	}
+
+	/**
+	 * Returns the end index of the range with trailing whitespace removed.
+	 * @param start the start index of the range, inclusive.
+	 * @param end the end index of the range, exclusive.
+	 * @return the end index of the range with trailing whitespace removed.
+	 */
+	private int trimEnd(int start, int end) {
+		while (end > start && line[end - 1] <= ' ')
+			end--;
+
+		return end;
+	}
+
+	/**
+	 * Helper function which returns the pooled String for a range of the line buffer, with leading and trailing whitespace removed.
+	 * @param start the start index of the range, inclusive.
+	 * @param end the end index of the range, exclusive.
+	 * @return the trimmed String.
+	 */
+	private String trimmedString(int start, int end) {
+		start = trimStart(start, end);
+		end = trimEnd(start, end);
+
+		return (start == end) ? "" : stringPool.intern(line, start, end - start);
+	}
+
+	/**
+	 * Returns the start index of the range with leading whitespace removed.
+	 * @param start the start index of the range, inclusive.
+	 * @param end the end index of the range, exclusive.
+	 * @return the start index of the range with leading whitespace removed.
+	 */
+	private int trimStart(int start, int end) {
+		while (start < end && line[start] <= ' ')
+			start++;
 
-		scanner.close();
+		return start;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,174 @@
+package com.companyx.android.cookingxp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import com.companyx.android.cookingxp.RecipeDatabase.Recipe;
+import com.companyx.android.cookingxp.RecipeDatabase.RecipeTime;
+
+/**
+ * Recipe Order
+ *
+ * One way of ordering all the recipes in the database, computed once so that listings need not sort.
+ * The order is kept as a rank per recipe ordinal; a set of recipes is listed in order by marking the ranks of its recipes in a bitset and reading the bitset back, in time linear in the size of the set plus a word per 64 recipes in the database. Sets too small to be worth the bitset have their ranks sorted instead.
+ * A cursor over a set keeps the bitset rather than reading it all back, see RecipeCursor.
+ * Recipes the order does not tell apart, such as recipes of the same name, are listed by name and then in catalog order.
+ *
+ * An order must be rebuilt when recipes are added to the database, or replaced.
+ */
+final class RecipeOrder {
+	// CONSTANTS
+	private static final int SORT_FRACTION = 4; // sets of fewer recipes than a quarter of the bitset words are sorted instead
+
+	// COMPARATORS, by the RecipeDatabase ORDER constants
+	private static final Comparator<Recipe> BY_NAME = new Comparator<Recipe>() {
+		@Override
+		public int compare(Recipe a, Recipe b) {
+			int result = a.name.compareTo(b.name);
+			return (result != 0) ? result : a.ordinal - b.ordinal;
+		}
+	};
+	private static final Comparator<Recipe> BY_TIME = new Comparator<Recipe>() {
+		@Override
+		public int compare(Recipe a, Recipe b) {
+			int timeA = totalTime(a.recipeTime);
+			int timeB = totalTime(b.recipeTime);
+			return (timeA < timeB) ? -1 : ((timeA == timeB) ? 0 : 1);
+		}
+	};
+	private static final Comparator<Recipe> BY_SERVINGS = new Comparator<Recipe>() {
+		@Override
+		public int compare(Recipe a, Recipe b) {
+			return a.numOfServings - b.numOfServings;
+		}
+	};
+	private static final Comparator<Recipe> BY_AUTHOR = new Comparator<Recipe>() {
+		@Override
+		public int compare(Recipe a, Recipe b) {
+			return a.author.compareTo(b.author);
+		}
+	};
+	private static final Comparator<Recipe>[] COMPARATORS = newComparators();
+
+	// STATE VARIABLES
+	private final int[] ordinals; // recipe ordinals, in order
+	private final int[] ranks; // position in ordinals of each recipe ordinal
+
+	/**
+	 * Constructor.
+	 * @param recipes the recipes of the database, indexed by ordinal.
+	 * @param order the order, one of the RecipeDatabase ORDER constants.
+	 */
+	RecipeOrder(List<Recipe> recipes, int order) {
+		Recipe[] sorted = recipes.toArray(new Recipe[recipes.size()]);
+
+		// the sort is stable, so sorting by name first breaks the ties of the other orders
+		Arrays.sort(sorted, BY_NAME);
+		if (order != RecipeDatabase.ORDER_NAME)
+			Arrays.sort(sorted, COMPARATORS[order]);
+
+		ordinals = new int[sorted.length];
+		ranks = new int[sorted.length];
+		for (int rank = 0; rank < sorted.length; rank++) {
+			ordinals[rank] = sorted[rank].ordinal;
+			ranks[sorted[rank].ordinal] = rank;
+		}
+	}
+
+	/**
+	 * Returns a cursor over a set of recipes, in order.
+	 * @param lock the lock guarding recipes.
+	 * @param recipes the recipes of the database, indexed by ordinal.
+	 * @param set the ordinals of the recipes, in any order.
+	 * @param count the number of ordinals in set.
+	 * @return a new cursor over the recipes of the set.
+	 */
+	RecipeCursor cursor(Object lock, List<Recipe> recipes, int[] set, int count) {
+		return new RecipeCursor(lock, recipes, ordinals, mark(set, count));
+	}
+
+	/**
+	 * Lists a set of recipes in order.
+	 * @param recipes the recipes of the database, indexed by ordinal.
+	 * @param set the ordinals of the recipes to list, in any order; repeated ordinals are listed once.
+	 * @param count the number of ordinals in set.
+	 * @return a new List of the recipes, in order.
+	 */
+	List<Recipe> list(List<Recipe> recipes, int[] set, int count) {
+		List<Recipe> result = new ArrayList<Recipe>(count);
+
+		// FEW RECIPES, cheaper to sort their ranks than to read back every word of the bitset
+		if (count < (ordinals.length >>> 6) / SORT_FRACTION) {
+			int[] setRanks = new int[count];
+			for (int i = 0; i < count; i++)
+				setRanks[i] = ranks[set[i]];
+			Arrays.sort(setRanks);
+
+			for (int i = 0; i < count; i++) {
+				if (i == 0 || setRanks[i] != setRanks[i - 1])
+					result.add(recipes.get(ordinals[setRanks[i]]));
+			}
+
+			return result;
+		}
+
+		// PLAN: mark the rank of each recipe, then read the marks back in rank order
+		long[] marks = mark(set, count);
+		for (int i = 0; i < marks.length; i++) {
+			long word = marks[i];
+			while (word != 0) {
+				int rank = (i << 6) + Long.numberOfTrailingZeros(word);
+				word &= word - 1;
+
+				result.add(recipes.get(ordinals[rank]));
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Helper function which marks the ranks of a set of recipes in a bitset.
+	 * @param set the ordinals of the recipes to mark, in any order.
+	 * @param count the number of ordinals in set.
+	 * @return the bitset, a bit per rank.
+	 */
+	private long[] mark(int[] set, int count) {
+		long[] result = new long[(ordinals.length + 63) >>> 6];
+
+		for (int i = 0; i < count; i++) {
+			int rank = ranks[set[i]];
+			result[rank >>> 6] |= 1L << rank;
+		}
+
+		return result;
+	}
+
+	/**
+	 * Helper function which creates the comparators of the orders, by the RecipeDatabase ORDER constants.
+	 * @return the comparators; null for ORDER_NAME, which BY_NAME handles.
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static Comparator<Recipe>[] newComparators() {
+		Comparator<Recipe>[] result = new Comparator[RecipeDatabase.NUM_ORDERS];
+		result[RecipeDatabase.ORDER_TIME] = BY_TIME;
+		result[RecipeDatabase.ORDER_SERVINGS] = BY_SERVINGS;
+		result[RecipeDatabase.ORDER_AUTHOR] = BY_AUTHOR;
+
+		return result;
+	}
+
+	/**
+	 * Helper function which returns the total time of a recipe, for sorting.
+	 * @param recipeTime the cooking times of the recipe, null if unknown.
+	 * @return the total time in minutes, Integer.MAX_VALUE if unknown so that such recipes come last.
+	 */
+	private static int totalTime(RecipeTime recipeTime) {
+		if (recipeTime == null)
+			return Integer.MAX_VALUE;
+
+		return recipeTime.prepTimeInMin + recipeTime.inactivePrepTimeInMin + recipeTime.cookTimeInMin;
+	}
+}
@@ -0,0 +1,465 @@
+package com.companyx.android.cookingxp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Recipe Query
+ *
+ * A recipe search written in a small query language, parsed once into a query plan that RecipeDatabase runs as set operations on its index.
+ *
+ * LANGUAGE:
+ * - words: recipes using every word, in the name or an ingredient; analyzed as in searchRecipes(), so case, plurals and stopwords do not matter
+ * - "quoted phrases": recipes using the words in that order, next to each other
+ * - AND, OR, NOT (upper case), and parentheses: words next to each other are ANDed, AND binds tighter than OR; -word is short for NOT word
+ * - field scopes: name:word, ingredient:word and author:word, each also taking a quoted phrase; box:3 for the recipes of a box, veg:yes or veg:no for vegetarian recipes or the others
+ * - time scopes, in minutes: time: for the total time, active: for prep and cook time, cook: for cook time; each taking <30, <=30, >60, >=60 or a range 15-30, and a bare 30 for at most 30; see TimeIndex
+ *
+ * Parsing is lenient, the way a search box has to be: unbalanced parentheses are closed or ignored, unknown fields are searched as words, and operators with nothing to apply to are dropped.
+ * Examples: "chicken NOT fried", "ingredient:salmon box:3", "(beef OR steak) veg:no", "name:\"olive oil\" -garlic", "chicken time:<30".
+ */
+final class RecipeQuery {
+	// NODE TYPES
+	static final int AND = 0; // all children match
+	static final int OR = 1; // any child matches
+	static final int NOT = 2; // the only child does not match
+	static final int WORDS = 3; // every term, anywhere in the field
+	static final int PHRASE = 4; // the terms in order, next to each other in the field
+	static final int BOX = 5; // the recipes of a box
+	static final int VEGETARIAN = 6; // vegetarian recipes, or the others
+	static final int TIME = 7; // recipes whose time is in a range
+
+	// FIELDS
+	static final int FIELD_ANY = 0; // the name or an ingredient name
+	static final int FIELD_NAME = 1;
+	static final int FIELD_INGREDIENT = 2;
+	static final int FIELD_AUTHOR = 3;
+	private static final String[] FIELD_NAMES = {"", "name", "ingredient", "author"};
+
+	// TIMES, the measures of time of TIME nodes
+	static final int TIME_TOTAL = 0; // prep, inactive prep and cook time
+	static final int TIME_ACTIVE = 1; // prep and cook time
+	static final int TIME_COOK = 2;
+	private static final String[] TIME_NAMES = {"time", "active", "cook"};
+
+	// STATE VARIABLES
+	private final Node root; // null for a query without anything to search by
+	private final String key; // canonical form of the plan, the same for queries written differently but planned the same
+
+	/**
+	 * A node of the query plan.
+	 */
+	static final class Node {
+		final int type;
+		final int field; // WORDS and PHRASE: one of the FIELD constants; TIME: one of the TIME constants
+		final String[] terms; // WORDS and PHRASE only, analyzed
+		final int value; // BOX: the boxId; VEGETARIAN: 1 for vegetarian recipes, 0 for the others
+		final int low; // TIME only: the shortest time in the range, in minutes
+		final int high; // TIME only: the longest time in the range, in minutes, Integer.MAX_VALUE for no limit
+		final Node[] children; // AND, OR and NOT only
+
+		Node(int type, int field, String[] terms, int value, Node[] children) {
+			this(type, field, terms, value, 0, 0, children);
+		}
+
+		Node(int type, int field, String[] terms, int value, int low, int high, Node[] children) {
+			this.type = type;
+			this.field = field;
+			this.terms = terms;
+			this.value = value;
+			this.low = low;
+			this.high = high;
+			this.children = children;
+		}
+
+		/**
+		 * Appends the canonical form of this node, which is also how it reads in the query language.
+		 * @param sb the StringBuilder to append to.
+		 */
+		void appendTo(StringBuilder sb) {
+			switch (type) {
+			case AND:
+			case OR:
+				sb.append('(');
+				for (int i = 0; i < children.length; i++) {
+					if (i > 0)
+						sb.append((type == AND) ? " AND " : " OR ");
+					children[i].appendTo(sb);
+				}
+				sb.append(')');
+				break;
+			case NOT:
+				sb.append("NOT ");
+				children[0].appendTo(sb);
+				break;
+			case WORDS:
+			case PHRASE:
+				if (field != FIELD_ANY)
+					sb.append(FIELD_NAMES[field]).append(':');
+				if (type == PHRASE)
+					sb.append('"');
+				for (int i = 0; i < terms.length; i++) {
+					if (i > 0)
+						sb.append(' ');
+					sb.append(terms[i]);
+				}
+				if (type == PHRASE)
+					sb.append('"');
+				break;
+			case BOX:
+				sb.append("box:").append(value);
+				break;
+			case VEGETARIAN:
+				sb.append((value != 0) ? "veg:yes" : "veg:no");
+				break;
+			case TIME:
+				sb.append(TIME_NAMES[field]).append(':');
+				if (high == Integer.MAX_VALUE)
+					sb.append(">=").append(low);
+				else if (low == 0)
+					sb.append("<=").append(high);
+				else
+					sb.append(low).append('-').append(high);
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Reads the query text a token at a time.
+	 */
+	private static class Parser {
+		private final String text;
+		private final TextAnalyzer analyzer = new TextAnalyzer();
+		private int position; // index in text of the next character to read
+
+		Parser(String text) {
+			this.text = text;
+		}
+
+		/**
+		 * Consumes the next token if it is the specified operator or parenthesis.
+		 * @param operator the operator: "AND", "OR", "NOT", "-", "(" or ")".
+		 * @return true if it was consumed, false otherwise.
+		 */
+		boolean accept(String operator) {
+			if (!peek(operator))
+				return false;
+
+			position += operator.length();
+			return true;
+		}
+
+		/**
+		 * Returns true at the end of the text, or of the group being parsed.
+		 * @return true if there is nothing left to parse in the group.
+		 */
+		boolean atEnd() {
+			skipSpaces();
+			return position == text.length() || text.charAt(position) == ')';
+		}
+
+		/**
+		 * Parses a word, a quoted phrase or a field scope, see the language in the class comment.
+		 * @return the node, or null if there is nothing to search by.
+		 */
+		Node parseTerm() {
+			skipSpaces();
+
+			// FIELD SCOPE, a field name followed by a colon and its value
+			int colon = position;
+			while (colon < text.length() && Character.isLetter(text.charAt(colon)))
+				colon++;
+
+			if (colon > position && colon + 1 < text.length() && text.charAt(colon) == ':' && !Character.isWhitespace(text.charAt(colon + 1)) && text.charAt(colon + 1) != '(' && text.charAt(colon + 1) != ')') {
+				String field = text.substring(position, colon).toLowerCase(Locale.US);
+				int start = position;
+				position = colon + 1;
+
+				for (int i = 1; i < FIELD_NAMES.length; i++) {
+					if (field.equals(FIELD_NAMES[i]))
+						return parseTerms(i);
+				}
+
+				if (field.equals("box")) {
+					try {
+						return new Node(BOX, FIELD_ANY, null, Short.parseShort(readWord()), null);
+					} catch (NumberFormatException e) {
+						return null;
+					}
+				}
+
+				if (field.equals("veg")) {
+					String value = readWord().toLowerCase(Locale.US);
+					boolean vegetarian = !(value.equals("no") || value.equals("false") || value.equals("0"));
+					return new Node(VEGETARIAN, FIELD_ANY, null, vegetarian ? 1 : 0, null);
+				}
+
+				for (int i = 0; i < TIME_NAMES.length; i++) {
+					if (field.equals(TIME_NAMES[i]))
+						return parseTime(i);
+				}
+
+				// unknown field, searched as words
+				position = start;
+			}
+
+			return parseTerms(FIELD_ANY);
+		}
+
+		/**
+		 * Parses the terms of a word or quoted phrase in a field.
+		 * @param field the field, one of the FIELD constants.
+		 * @return the node, or null if there is nothing to search by, such as a stopword.
+		 */
+		Node parseTerms(int field) {
+			boolean phrase = position < text.length() && text.charAt(position) == '"';
+			String string;
+			if (phrase) {
+				int end = text.indexOf('"', position + 1);
+				if (end < 0)
+					end = text.length();
+				string = text.substring(position + 1, end);
+				position = Math.min(end + 1, text.length());
+			} else {
+				string = readWord();
+			}
+
+			List<String> terms = new ArrayList<String>();
+			analyzer.reset(string);
+			while (analyzer.next())
+				terms.add(analyzer.term());
+
+			if (terms.isEmpty())
+				return null;
+
+			return new Node((phrase && terms.size() > 1) ? PHRASE : WORDS, field, terms.toArray(new String[terms.size()]), 0, null);
+		}
+
+		/**
+		 * Parses the range of a time scope: <30, <=30, >60, >=60, 15-30, or 30 for at most 30.
+		 * @param measure the measure of time, one of the TIME constants.
+		 * @return the node, or null if the range is not a number of minutes.
+		 */
+		Node parseTime(int measure) {
+			String range = readWord();
+			int low = 0;
+			int high = Integer.MAX_VALUE;
+			try {
+				int dash = range.indexOf('-', 1);
+				if (range.startsWith("<="))
+					high = Integer.parseInt(range.substring(2));
+				else if (range.startsWith("<"))
+					high = Integer.parseInt(range.substring(1)) - 1;
+				else if (range.startsWith(">="))
+					low = Integer.parseInt(range.substring(2));
+				else if (range.startsWith(">"))
+					low = Integer.parseInt(range.substring(1)) + 1;
+				else if (dash > 0) {
+					low = Integer.parseInt(range.substring(0, dash));
+					high = Integer.parseInt(range.substring(dash + 1));
+				} else {
+					high = Integer.parseInt(range);
+				}
+			} catch (NumberFormatException e) {
+				return null;
+			}
+
+			// no recipe takes less than no time; an empty range matches nothing
+			low = Math.max(low, 0);
+			if (high < low)
+				high = low - 1;
+			if (high < 0) {
+				low = 1;
+				high = 0;
+			}
+
+			return new Node(TIME, measure, null, 0, low, high, null);
+		}
+
+		/**
+		 * Returns true if the next token is the specified operator or parenthesis, without consuming it.
+		 * @param operator the operator: "AND", "OR", "NOT", "-", "(" or ")".
+		 * @return true if the next token is the operator, false otherwise.
+		 */
+		boolean peek(String operator) {
+			skipSpaces();
+			if (!text.startsWith(operator, position))
+				return false;
+
+			// a keyword must stand alone, "ORANGE" is a word
+			int end = position + operator.length();
+			return operator.length() == 1 || end == text.length() || isDelimiter(text.charAt(end));
+		}
+
+		/**
+		 * Helper function which reads up to the next space, parenthesis or quote.
+		 * @return the word read, possibly empty.
+		 */
+		private String readWord() {
+			int start = position;
+			while (position < text.length() && !isDelimiter(text.charAt(position)))
+				position++;
+
+			return text.substring(start, position);
+		}
+
+		/**
+		 * Helper function which skips spaces.
+		 */
+		private void skipSpaces() {
+			while (position < text.length() && Character.isWhitespace(text.charAt(position)))
+				position++;
+		}
+	}
+
+	/**
+	 * Private constructor, see parse().
+	 * @param root the root of the query plan, null for none.
+	 */
+	private RecipeQuery(Node root) {
+		this.root = root;
+
+		StringBuilder sb = new StringBuilder();
+		if (root != null)
+			root.appendTo(sb);
+		key = sb.toString();
+	}
+
+	/**
+	 * Helper function which returns a node combining children, or the only child on its own.
+	 * @param type AND or OR.
+	 * @param children the children, without nulls.
+	 * @return the node, or null if there are no children.
+	 */
+	private static Node combine(int type, List<Node> children) {
+		if (children.isEmpty())
+			return null;
+		if (children.size() == 1)
+			return children.get(0);
+
+		// flatten nested nodes of the same type, a AND (b AND c) is a AND b AND c
+		List<Node> flat = new ArrayList<Node>();
+		for (Node child : children) {
+			if (child.type == type) {
+				for (Node grandchild : child.children)
+					flat.add(grandchild);
+			} else {
+				flat.add(child);
+			}
+		}
+
+		return new Node(type, FIELD_ANY, null, 0, flat.toArray(new Node[flat.size()]));
+	}
+
+	/**
+	 * Returns the canonical form of the query plan, for caching results.
+	 * @return the query key, empty for a query without anything to search by.
+	 */
+	String getKey() {
+		return key;
+	}
+
+	/**
+	 * Returns the root of the query plan.
+	 * @return the root node, null for a query without anything to search by, which matches no recipe.
+	 */
+	Node getRoot() {
+		return root;
+	}
+
+	/**
+	 * Helper function which returns true if a character ends a word of the query text.
+	 * @param c the character.
+	 * @return true if c is a space, a parenthesis or a quote.
+	 */
+	private static boolean isDelimiter(char c) {
+		return Character.isWhitespace(c) || c == '(' || c == ')' || c == '"';
+	}
+
+	/**
+	 * Parses a query, see the language in the class comment.
+	 * @param text the query text.
+	 * @return the parsed query; never null, though it may have nothing to search by.
+	 */
+	static RecipeQuery parse(String text) {
+		Parser parser = new Parser((text != null) ? text : "");
+
+		// stray closing parentheses at the top level are ignored
+		List<Node> alternatives = new ArrayList<Node>();
+		do {
+			Node node = parseOr(parser);
+			if (node != null)
+				alternatives.add(node);
+		} while (parser.accept(")"));
+
+		return new RecipeQuery(combine(AND, alternatives));
+	}
+
+	/**
+	 * Helper function which parses terms joined by AND, or just next to each other, up to an OR or the end of the group.
+	 * @param parser the parser.
+	 * @return the node, or null if there is nothing to search by.
+	 */
+	private static Node parseAnd(Parser parser) {
+		List<Node> terms = new ArrayList<Node>();
+
+		while (!parser.atEnd() && !parser.peek("OR")) {
+			if (parser.accept("AND"))
+				continue;
+
+			Node node = parseUnary(parser);
+			if (node != null)
+				terms.add(node);
+		}
+
+		return combine(AND, terms);
+	}
+
+	/**
+	 * Helper function which parses groups joined by OR, up to the end of the group.
+	 * @param parser the parser.
+	 * @return the node, or null if there is nothing to search by.
+	 */
+	private static Node parseOr(Parser parser) {
+		List<Node> groups = new ArrayList<Node>();
+
+		do {
+			Node node = parseAnd(parser);
+			if (node != null)
+				groups.add(node);
+		} while (parser.accept("OR"));
+
+		return combine(OR, groups);
+	}
+
+	/**
+	 * Helper function which parses a term, a parenthesized group, or either negated.
+	 * @param parser the parser.
+	 * @return the node, or null if there is nothing to search by.
+	 */
+	private static Node parseUnary(Parser parser) {
+		if (parser.accept("NOT") || parser.accept("-")) {
+			Node node = parser.atEnd() ? null : parseUnary(parser);
+			if (node == null)
+				return null;
+
+			// NOT NOT a is a
+			return (node.type == NOT) ? node.children[0] : new Node(NOT, FIELD_ANY, null, 0, new Node[] {node});
+		}
+
+		if (parser.accept("(")) {
+			Node node = parseOr(parser);
+			parser.accept(")");
+			return node;
+		}
+
+		return parser.parseTerm();
+	}
+
+	@Override
+	public String toString() {
+		return key;
+	}
+}
@@ -0,0 +1,226 @@
+package com.companyx.android.cookingxp;
+
+import com.companyx.android.cookingxp.RecipeDatabase.Recipe;
+
+/**
+ * Recipe Ranker
+ *
+ * Relevance ranking of search results with BM25, over two fields: the recipe name and its ingredient names.
+ * A word weighs more the fewer recipes use it, and counts for more in the name than in the ingredients. Repeats add less and less, and a word in a long ingredient list counts for less than in a short one.
+ *
+ * Only the best recipes are kept, in a heap bounded by the number of results wanted, so ranking a large result set costs a heap update per recipe instead of a full sort.
+ * Recipes scoring the same rank in catalog order.
+ *
+ * A ranker is built for one search and is not thread-safe.
+ */
+final class RecipeRanker {
+	// CONSTANTS
+	private static final float K1 = 1.2f; // how quickly repeats stop adding to the score
+	private static final float B = 0.75f; // how much a longer field weakens its words, from 0 to 1
+	private static final float NAME_BOOST = 3.0f; // weight of a word in the name, relative to one in the ingredients
+
+	// STATE VARIABLES
+	private final int numRecipes;
+	private final float averageNameLength; // search words per recipe name
+	private final float averageIngredientLength; // search words per ingredient list
+
+	// SEARCH WORDS
+	private RecipeBitmap[] wordRecipes; // recipes using each word
+	private RecipeBitmap[] wordNameRecipes; // recipes using each word in their name, null for none
+	private RecipeBitmap[][] wordRepeats; // recipes using each word at least 2, 3, ... times, null for none
+	private float[] wordWeights; // inverse document frequency of each word
+	private int numWords;
+
+	// TOP RECIPES, a min-heap with the weakest recipe kept at the root
+	private final int[] heapOrdinals;
+	private final float[] heapScores;
+	private int heapSize;
+
+	/**
+	 * Constructor.
+	 * @param numRecipes the number of recipes in the database.
+	 * @param totalNameLength the number of search words in all recipe names.
+	 * @param totalIngredientLength the number of search words in all ingredient lists.
+	 * @param limit the number of recipes to keep.
+	 */
+	RecipeRanker(int numRecipes, long totalNameLength, long totalIngredientLength, int limit) {
+		this.numRecipes = numRecipes;
+		averageNameLength = Math.max(1.0f, (float) totalNameLength / Math.max(1, numRecipes));
+		averageIngredientLength = Math.max(1.0f, (float) totalIngredientLength / Math.max(1, numRecipes));
+
+		wordRecipes = new RecipeBitmap[4];
+		wordNameRecipes = new RecipeBitmap[4];
+		wordRepeats = new RecipeBitmap[4][];
+		wordWeights = new float[4];
+
+		heapOrdinals = new int[Math.max(0, limit)];
+		heapScores = new float[heapOrdinals.length];
+	}
+
+	/**
+	 * Adds a search word to score recipes by.
+	 * @param recipes the recipes using the word.
+	 * @param nameRecipes the recipes using the word in their name, null for none.
+	 * @param repeats the recipes using the word at least 2, 3, ... times, null for none.
+	 */
+	void addWord(RecipeBitmap recipes, RecipeBitmap nameRecipes, RecipeBitmap[] repeats) {
+		if (numWords == wordRecipes.length) {
+			int capacity = numWords * 2;
+			RecipeBitmap[] grownRecipes = new RecipeBitmap[capacity];
+			RecipeBitmap[] grownNameRecipes = new RecipeBitmap[capacity];
+			RecipeBitmap[][] grownRepeats = new RecipeBitmap[capacity][];
+			float[] grownWeights = new float[capacity];
+			System.arraycopy(wordRecipes, 0, grownRecipes, 0, numWords);
+			System.arraycopy(wordNameRecipes, 0, grownNameRecipes, 0, numWords);
+			System.arraycopy(wordRepeats, 0, grownRepeats, 0, numWords);
+			System.arraycopy(wordWeights, 0, grownWeights, 0, numWords);
+			wordRecipes = grownRecipes;
+			wordNameRecipes = grownNameRecipes;
+			wordRepeats = grownRepeats;
+			wordWeights = grownWeights;
+		}
+
+		// BM25 inverse document frequency, which stays positive for words used by most recipes
+		int frequency = recipes.cardinality();
+		wordRecipes[numWords] = recipes;
+		wordNameRecipes[numWords] = nameRecipes;
+		wordRepeats[numWords] = repeats;
+		wordWeights[numWords] = (float) Math.log(1.0 + (numRecipes - frequency + 0.5) / (frequency + 0.5));
+		numWords++;
+	}
+
+	/**
+	 * Helper function which returns true if the recipe at one heap position ranks below the one at another.
+	 * @param i the first heap position.
+	 * @param j the second heap position.
+	 * @return true if the recipe at i ranks below the one at j, false otherwise.
+	 */
+	private boolean isWeaker(int i, int j) {
+		return heapScores[i] < heapScores[j] || (heapScores[i] == heapScores[j] && heapOrdinals[i] > heapOrdinals[j]);
+	}
+
+	/**
+	 * Scores a recipe against the search words and keeps it if it ranks among the best so far.
+	 * @param recipe the recipe, which should use at least one of the search words.
+	 */
+	void rank(Recipe recipe) {
+		if (heapOrdinals.length == 0)
+			return;
+
+		float score = score(recipe);
+
+		if (heapSize < heapOrdinals.length) {
+			heapOrdinals[heapSize] = recipe.ordinal;
+			heapScores[heapSize] = score;
+			siftUp(heapSize++);
+		} else if (score > heapScores[0] || (score == heapScores[0] && recipe.ordinal < heapOrdinals[0])) {
+			heapOrdinals[0] = recipe.ordinal;
+			heapScores[0] = score;
+			siftDown(0);
+		}
+	}
+
+	/**
+	 * Helper function which returns the BM25 score of a recipe, summed over the search words.
+	 * The two fields are weighed into a single term frequency before saturation, so that a word in both the name and the ingredients does not score twice over.
+	 * @param recipe the recipe to score.
+	 * @return the score, 0 if the recipe uses none of the search words.
+	 */
+	private float score(Recipe recipe) {
+		int ordinal = recipe.ordinal;
+		float nameNorm = 1.0f - B + B * recipe.nameLength / averageNameLength;
+		float ingredientNorm = 1.0f - B + B * recipe.ingredientLength / averageIngredientLength;
+
+		float score = 0.0f;
+		for (int i = 0; i < numWords; i++) {
+			if (!wordRecipes[i].contains(ordinal))
+				continue;
+
+			// term frequencies; a word counts once for the name, the rest of its uses are in the ingredients
+			int frequency = 1;
+			RecipeBitmap[] repeats = wordRepeats[i];
+			if (repeats != null) {
+				while (frequency - 1 < repeats.length && repeats[frequency - 1].contains(ordinal))
+					frequency++;
+			}
+			int nameFrequency = (wordNameRecipes[i] != null && wordNameRecipes[i].contains(ordinal)) ? 1 : 0;
+
+			float weighted = NAME_BOOST * nameFrequency / nameNorm + (frequency - nameFrequency) / ingredientNorm;
+			score += wordWeights[i] * weighted * (K1 + 1.0f) / (weighted + K1);
+		}
+
+		return score;
+	}
+
+	/**
+	 * Helper function which moves the recipe at a heap position down to where it belongs.
+	 * @param i the heap position.
+	 */
+	private void siftDown(int i) {
+		while (true) {
+			int weakest = i;
+			int left = 2 * i + 1;
+			int right = left + 1;
+			if (left < heapSize && isWeaker(left, weakest))
+				weakest = left;
+			if (right < heapSize && isWeaker(right, weakest))
+				weakest = right;
+			if (weakest == i)
+				return;
+
+			swap(i, weakest);
+			i = weakest;
+		}
+	}
+
+	/**
+	 * Helper function which moves the recipe at a heap position up to where it belongs.
+	 * @param i the heap position.
+	 */
+	private void siftUp(int i) {
+		while (i > 0) {
+			int parent = (i - 1) / 2;
+			if (!isWeaker(i, parent))
+				return;
+
+			swap(i, parent);
+			i = parent;
+		}
+	}
+
+	/**
+	 * Helper function which swaps two heap positions.
+	 * @param i the first heap position.
+	 * @param j the second heap position.
+	 */
+	private void swap(int i, int j) {
+		int ordinal = heapOrdinals[i];
+		heapOrdinals[i] = heapOrdinals[j];
+		heapOrdinals[j] = ordinal;
+
+		float score = heapScores[i];
+		heapScores[i] = heapScores[j];
+		heapScores[j] = score;
+	}
+
+	/**
+	 * Returns the ordinals of the best recipes ranked so far, best first, and empties the ranker.
+	 * @return the recipe ordinals, at most limit long.
+	 */
+	int[] toArray() {
+		int[] result = new int[heapSize];
+
+		// the root is the weakest, so the array fills from the back
+		while (heapSize > 0) {
+			result[heapSize - 1] = heapOrdinals[0];
+			heapSize--;
+			if (heapSize > 0) {
+				heapOrdinals[0] = heapOrdinals[heapSize];
+				heapScores[0] = heapScores[heapSize];
+				siftDown(0);
+			}
+		}
+
+		return result;
+	}
+}
@@ -0,0 +1,76 @@
+package com.companyx.android.cookingxp;
+
+import java.util.List;
+
+import android.app.SearchManager;
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.provider.BaseColumns;
+
+/**
+ * Recipe Suggestion Provider
+ *
+ * Search suggestions for the searchable SelectRecipeActivity, completing the word being typed to the recipe name and ingredient words in the search index.
+ * Choosing a suggestion searches for it. Suggestions appear once the catalog is searchable, ingredient words once it is ready.
+ * Read-only; the search framework only ever queries it.
+ */
+public class RecipeSuggestionProvider extends ContentProvider {
+	// CONSTANTS
+	static final String AUTHORITY = "com.companyx.android.cookingxp.RecipeSuggestionProvider"; // must match the manifest and searchable.xml
+	private static final int DEFAULT_LIMIT = 10;
+	private static final String[] COLUMNS = {BaseColumns._ID, SearchManager.SUGGEST_COLUMN_TEXT_1, SearchManager.SUGGEST_COLUMN_QUERY};
+
+	@Override
+	public int delete(Uri uri, String selection, String[] selectionArgs) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public String getType(Uri uri) {
+		return SearchManager.SUGGEST_MIME_TYPE;
+	}
+
+	@Override
+	public Uri insert(Uri uri, ContentValues values) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean onCreate() {
+		return true;
+	}
+
+	@Override
+	public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+		// the query typed so far is the last path segment, absent while nothing has been typed
+		String query = uri.getLastPathSegment();
+		if (query == null || query.equals(SearchManager.SUGGEST_URI_PATH_QUERY))
+			query = "";
+
+		int limit = DEFAULT_LIMIT;
+		String limitParameter = uri.getQueryParameter(SearchManager.SUGGEST_PARAMETER_LIMIT);
+		if (limitParameter != null) {
+			try {
+				limit = Integer.parseInt(limitParameter);
+			} catch (NumberFormatException e) {
+				// keep the default
+			}
+		}
+
+		List<String> suggestions = RecipeDatabase.getInstance(getContext().getApplicationContext()).suggestSearches(query, limit);
+
+		MatrixCursor result = new MatrixCursor(COLUMNS, suggestions.size());
+		for (int i = 0; i < suggestions.size(); i++)
+			result.addRow(new Object[] {i, suggestions.get(i), suggestions.get(i)});
+
+		return result;
+	}
+
+	@Override
+	public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+		throw new UnsupportedOperationException();
+	}
+}
@@ -1,7 +1,9 @@
 package com.companyx.android.cookingxp;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import android.app.Activity;
@@ -16,6 +18,7 @@ import android.view.ViewGroup;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemClickListener;
 import android.widget.ArrayAdapter;
+import android.widget.BaseAdapter;
 import android.widget.LinearLayout;
 import android.widget.ListView;
 import android.widget.RelativeLayout;
@@ -35,18 +38,23 @@ import com.companyx.android.cookingxp.RecipeDatabase.ShoppingList;
 public class SelectRecipeActivity extends BaseListActivity {
 	// CONSTANTS
 	private static final int[] RECIPE_CATEGORIES = { R.string.select_recipe_all_recipes, R.string.chicken, R.string.pork, R.string.beef, R.string.select_recipe_seafood, R.string.select_recipe_vegetarian };
+	private static final int PAGE_SIZE = 50; // recipes read from the database at a time
+	private static final int PAGES_KEPT = 4; // pages of recipes kept for scrolling back, least recently used are dropped
 	
 	// VIEW HOLDERS
 	private LinearLayout layoutIngredients;
 	
 	// STATE VARIABLES
-	private List<Recipe> recipes;
+	private RecipeCursor recipes;
 	private String operation;
 	
+	// SYSTEM
+	private CatalogLoader.OnCatalogStateChangedListener catalogListener;
+	
 	/**
-	 * Custom Recipe list view adapter.
+	 * Custom Recipe list view adapter, reading the recipes a page at a time as the list scrolls.
 	 */
-	private class RecipeListViewAdapter extends ArrayAdapter<Recipe> {
+	private class RecipeListViewAdapter extends BaseAdapter {
 		class RecipeView {
 			int recipeId;
 			RelativeLayout layoutRecipeListItem;
@@ -56,12 +64,44 @@ public class SelectRecipeActivity extends BaseListActivity {
 		}
 		
 		private final Context activity;
-		private final List<Recipe> recipes;
+		private final RecipeCursor recipes;
+		private final Map<Integer, List<Recipe>> pages; // maps page number to its recipes, in access order
 		
-		RecipeListViewAdapter(Context activity, List<Recipe> recipes) {
-			super(activity, R.layout.recipe_list_item, recipes);
+		RecipeListViewAdapter(Context activity, RecipeCursor recipes) {
 			this.activity = activity;
 			this.recipes = recipes;
+			
+			pages = new LinkedHashMap<Integer, List<Recipe>>(PAGES_KEPT, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+				
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Integer, List<Recipe>> eldest) {
+					return size() > PAGES_KEPT;
+				}
+			};
+		}
+		
+		@Override
+		public int getCount() {
+			return recipes.getCount();
+		}
+		
+		@Override
+		public Recipe getItem(int position) {
+			int page = position / PAGE_SIZE;
+			List<Recipe> pageRecipes = pages.get(page);
+			
+			if (pageRecipes == null) {
+				pageRecipes = recipes.getPage(page * PAGE_SIZE, PAGE_SIZE);
+				pages.put(page, pageRecipes);
+			}
+			
+			return pageRecipes.get(position - page * PAGE_SIZE);
+		}
+		
+		@Override
+		public long getItemId(int position) {
+			return getItem(position).recipeId;
 		}
 		
 		@Override
@@ -86,7 +126,7 @@ public class SelectRecipeActivity extends BaseListActivity {
 	        	recipeView = (RecipeView) view.getTag();
 	 
 	        // set up view, store unique ID to retrieve recipe from database when selected
-	        Recipe recipe = recipes.get(position);
+	        Recipe recipe = getItem(position);
 	        int recipeId = recipe.recipeId;
 	        
 	        recipeView.recipeId = recipeId;
@@ -126,6 +166,36 @@ public class SelectRecipeActivity extends BaseListActivity {
 			RecipeActivity.addTextLine(s, viewGroup, this, scalingFactor);
 	}
 	
+	/**
+	 * Returns the query listing the recipes of a category.
+	 * @param category the category, as shown to the user.
+	 * @return the parsed query; null for all recipes.
+	 */
+	private RecipeQuery categoryQuery(String category) {
+		String query;
+		
+		if (category.equals(getString(R.string.select_recipe_all_recipes)))
+			return null;
+		else if (category.equals(getString(R.string.pork)))
+			query = getString(R.string.bacon) + " OR " + getString(R.string.ham) + " OR " + getString(R.string.pork);
+		else if (category.equals(getString(R.string.beef)))
+			query = getString(R.string.beef) + " OR " + getString(R.string.steak);
+		else if (category.equals(getString(R.string.select_recipe_seafood))) {
+			StringBuilder sb = new StringBuilder();
+			for (int i : RecipeDatabase.SEAFOOD) {
+				if (sb.length() > 0)
+					sb.append(" OR ");
+				sb.append(getString(i));
+			}
+			query = sb.toString();
+		} else if (category.equals(getString(R.string.select_recipe_vegetarian)))
+			query = "veg:yes";
+		else
+			query = category;
+		
+		return RecipeQuery.parse(query);
+	}
+	
 	/**
 	 * Builds the most current state/progress based on Intent. The Intent is used to conveniently store state information.
 	 * Performs search if user arrived at this activity via Search.
@@ -190,9 +260,15 @@ public class SelectRecipeActivity extends BaseListActivity {
 	 * Load recipe categories.
 	 */
 	private void loadCategories() {
+		// COUNT THE RECIPES OF EVERY CATEGORY AT ONCE
+		RecipeQuery[] queries = new RecipeQuery[RECIPE_CATEGORIES.length];
+		for (int i = 0; i < RECIPE_CATEGORIES.length; i++)
+			queries[i] = categoryQuery(getString(RECIPE_CATEGORIES[i]));
+		RecipeFacets facets = recipeDatabase.getFacets(recipeDatabase.allRecipesCursor(), queries);
+		
 		List<String> recipeCategories = new ArrayList<String>();
-		for (int i : RECIPE_CATEGORIES)
-			recipeCategories.add(getString(i));
+		for (int i = 0; i < RECIPE_CATEGORIES.length; i++)
+			recipeCategories.add(getString(RECIPE_CATEGORIES[i]) + " (" + facets.getCategoryCount(i) + ")");
 		
 		setListAdapter(new ArrayAdapter<String>(this, android.R.layout.simple_list_item_1, recipeCategories));
 	}
@@ -209,56 +285,38 @@ public class SelectRecipeActivity extends BaseListActivity {
 		intent.removeExtra("operation");
 		intent.putExtra("category", category);
 		
-		List<String> searchStrings = new ArrayList<String>();
-		
-		if (category.equals(getString(R.string.select_recipe_all_recipes)))
-			recipes = recipeDatabase.allRecipes();
-		else if (category.equals(getString(R.string.pork))) {
-			searchStrings.add(getString(R.string.bacon));
-			searchStrings.add(getString(R.string.ham));
-			searchStrings.add(getString(R.string.pork));
-			recipes = recipeDatabase.searchSetRecipes(searchStrings);
-		} else if (category.equals(getString(R.string.beef))) {
-			searchStrings.add(getString(R.string.beef));
-			searchStrings.add(getString(R.string.steak));
-			recipes = recipeDatabase.searchSetRecipes(searchStrings);
-		} else if (category.equals(getString(R.string.select_recipe_seafood))) {
-			for (int i : RecipeDatabase.SEAFOOD)
-				searchStrings.add(getString(i));
-			recipes = recipeDatabase.searchSetRecipes(searchStrings);
-		} else if (category.equals(getString(R.string.select_recipe_vegetarian))) {
-			recipes = recipeDatabase.getVegetarianRecipes();
-		} else
-			recipes = recipeDatabase.searchRecipes(category);
+		// the same query as the category count, see loadCategories()
+		RecipeQuery query = categoryQuery(category);
+		recipes = (query != null) ? recipeDatabase.queryRecipesCursor(query) : recipeDatabase.allRecipesCursor();
 		
 		setListAdapter(new RecipeListViewAdapter(this, recipes));
 		
 		// COUNT NOTIFICATION
-		Toast.makeText(getApplicationContext(), getString(R.string.select_recipe_showing) + " " + recipes.size() + " " + getString(R.string.select_recipe_recipes), Toast.LENGTH_SHORT).show();
+		Toast.makeText(getApplicationContext(), getString(R.string.select_recipe_showing) + " " + recipes.getCount() + " " + getString(R.string.select_recipe_recipes), Toast.LENGTH_SHORT).show();
 	}
 	
 	/**
 	 * Load favorite recipes from the RecipeDatabase, sorted by Recipe name.
 	 */
 	private void loadFavoriteRecipes() {
-		recipes = recipeDatabase.getFavoriteRecipes();
+		recipes = recipeDatabase.getFavoriteRecipesCursor();
 		setListAdapter(new RecipeListViewAdapter(this, recipes));
 		
-		// EMPTY NOTIFICATION
-		if (recipes.size() == 0)
+		// EMPTY NOTIFICATION, held back until the catalog is ready so that it shows once rather than at every stage of the load
+		if (recipes.getCount() == 0 && catalogLoader.hasReached(CatalogLoader.STATE_READY))
 			new AlertDialog.Builder(this).setTitle(R.string.select_recipe_favorites_alert_title).setMessage(R.string.select_recipe_favorites_empty).setPositiveButton(R.string.select_recipe_favorites_empty_ok, null).show();
 	}
 	
 	/**
-	 * Load recipes from the database that match the search query.
+	 * Load recipes from the database that match the search query, the last word of which may be incomplete.
 	 * @param query the user-specified search query.
 	 */
 	private void loadSearchRecipes(String query) {
-		recipes = recipeDatabase.searchRecipes(query);
+		recipes = recipeDatabase.searchRecipesByPrefixCursor(query);
 		setListAdapter(new RecipeListViewAdapter(this, recipes));
 		
 		// COUNT NOTIFICATION
-		Toast.makeText(getApplicationContext(), getString(R.string.select_recipe_showing) + " " + recipes.size() + " " + getString(R.string.select_recipe_recipes), Toast.LENGTH_SHORT).show();
+		Toast.makeText(getApplicationContext(), getString(R.string.select_recipe_showing) + " " + recipes.getCount() + " " + getString(R.string.select_recipe_recipes), Toast.LENGTH_SHORT).show();
 	}
 	
 	/**
@@ -266,7 +324,7 @@ public class SelectRecipeActivity extends BaseListActivity {
 	 * Show list of aggregated recipe ingredients.
 	 */
 	private void loadShoppingListRecipes() {
-		recipes = recipeDatabase.getShoppingListRecipes();
+		recipes = recipeDatabase.getShoppingListRecipesCursor();
 		setListAdapter(new RecipeListViewAdapter(this, recipes));
 		
 		ShoppingList list = recipeDatabase.getShoppingList();
@@ -287,8 +345,8 @@ public class SelectRecipeActivity extends BaseListActivity {
 		if (!list.other.isEmpty())
 			addIngredientViews(getString(R.string.select_recipe_other), list.other, layoutIngredients);
 		
-		// EMPTY NOTIFICATION
-		if (recipes.size() == 0)
+		// EMPTY NOTIFICATION, held back until the catalog is ready so that it shows once rather than at every stage of the load
+		if (recipes.getCount() == 0 && catalogLoader.hasReached(CatalogLoader.STATE_READY))
 			new AlertDialog.Builder(this).setTitle(R.string.select_recipe_shopping_list_alert_title).setMessage(R.string.select_recipe_shopping_list_empty).setPositiveButton(R.string.select_recipe_shopping_list_empty_ok, null).show();
 	}
 	
@@ -299,6 +357,30 @@ public class SelectRecipeActivity extends BaseListActivity {
 		
 		initialize();
 		handleIntent(getIntent());
+		
+		// refresh results as the catalog finishes loading: names first, then ingredients
+		if (!catalogLoader.hasReached(CatalogLoader.STATE_READY)) {
+			catalogListener = new CatalogLoader.OnCatalogStateChangedListener() {
+				@Override
+				public void onCatalogStateChanged(int state) {
+					if (state >= CatalogLoader.STATE_READY) {
+						catalogLoader.removeListener(this);
+						catalogListener = null;
+					}
+					
+					handleIntent(getIntent());
+				}
+			};
+			catalogLoader.addListener(catalogListener);
+		}
+	}
+	
+	@Override
+	protected void onDestroy() {
+		super.onDestroy();
+		
+		if (catalogListener != null)
+			catalogLoader.removeListener(catalogListener);
 	}
 	
 	@Override
@@ -0,0 +1,304 @@
+package com.companyx.android.cookingxp;
+
+import java.util.Arrays;
+
+/**
+ * Similarity Index
+ *
+ * Finds the recipes most like each recipe by their ingredients, for "you might also like" suggestions.
+ * Two recipes are alike by the Jaccard similarity of their ingredient words, the words they share over the words either uses; staples such as salt or water are left out, see PantryIndex.isStaple().
+ *
+ * Comparing every pair of recipes would take time growing with the square of the catalog, so each recipe is given a MinHash signature instead: for each of NUM_HASHES hash functions, the smallest hash of any of its words.
+ * Two recipes agree on each minimum with a probability equal to their similarity, so the share of minimums they agree on estimates it; only the low byte of each minimum is kept, 32 bytes a recipe.
+ * Recipes are then bucketed by locality-sensitive hashing: the signature is cut into NUM_BANDS bands of 2 minimums, and only recipes agreeing on a whole band are compared.
+ * A pair of similarity 0.5 shares some band 99% of the time, a pair of similarity 0.2 half the time, and unrelated pairs hardly ever.
+ * Buckets are found by a counting sort of the recipes on each band; within a large bucket, as for recipes sharing a common ingredient, each recipe is only compared to the WINDOW recipes either side of it.
+ * A pair is scored once for both recipes, and kept as neighbors of each if it ranks among its best; pairs already kept are not scored again in later bands.
+ *
+ * Signatures are built as recipe ingredients are indexed: begin(), then add() for each ingredient word, then store().
+ * Not thread-safe; the signatures are only touched under the RecipeDatabase lock, and neighbors are found on a copy.
+ */
+final class SimilarityIndex {
+	// CONSTANTS
+	private static final int NUM_HASHES = 32; // minhashes of each recipe, the low byte of each kept
+	private static final int NUM_BANDS = 16; // of 2 minhashes each
+	private static final int BAND_VALUES = 1 << 16; // 2 minhash bytes
+	private static final int SKETCH_LONGS = NUM_HASHES / 8; // longs holding the minhash bytes of each recipe
+	private static final int WINDOW = 8; // recipes compared on either side of a recipe in a band bucket
+	private static final int MIN_MATCHES = 8; // minhashes two recipes must agree on to be similar, an estimated similarity of 1/4
+	private static final int INITIAL_CAPACITY = 64; // recipes
+	private static final long LOW_BITS = 0x0101010101010101L; // the low bit of each byte
+
+	// STATE VARIABLES
+	private long[] sketches; // minhash bytes of each recipe, SKETCH_LONGS by ordinal, hash i in byte i % 8 of long i / 8
+	private boolean[] signed; // whether each recipe has a signature, by ordinal; recipes of staples alone have none
+	private final int[] minimums; // minhashes of the signature in progress
+	private boolean empty; // true while the signature in progress has no words
+
+	// NEIGHBORS IN PROGRESS, by ordinal
+	private int[] neighbors; // the most similar recipes found so far, best first, limit by ordinal
+	private byte[] neighborMatches; // the minhashes each agrees on
+	private byte[] neighborCounts; // neighbors kept for each recipe
+	private int limit; // most neighbors kept for each recipe
+
+	/**
+	 * Constructor.
+	 */
+	SimilarityIndex() {
+		this(new long[INITIAL_CAPACITY * SKETCH_LONGS], new boolean[INITIAL_CAPACITY]);
+	}
+
+	/**
+	 * Helper constructor which takes over existing signatures, see copy().
+	 * @param sketches the minhash bytes of each recipe, by ordinal.
+	 * @param signed whether each recipe has a signature, by ordinal.
+	 */
+	private SimilarityIndex(long[] sketches, boolean[] signed) {
+		this.sketches = sketches;
+		this.signed = signed;
+		minimums = new int[NUM_HASHES];
+		empty = true;
+	}
+
+	/**
+	 * Adds a word of the recipe being signed; staples are skipped.
+	 * @param term the ingredient word, as analyzed for the search index.
+	 */
+	void add(String term) {
+		if (PantryIndex.isStaple(term))
+			return;
+
+		// hash functions i = 0, 1, ... from two hashes of the word, h1 + i * h2, each mixed
+		int h1 = mix(term.hashCode());
+		int h2 = mix(h1 ^ 0x9e3779b9) | 1;
+		for (int i = 0; i < NUM_HASHES; i++) {
+			int hash = mix(h1 + i * h2);
+			if (hash < minimums[i])
+				minimums[i] = hash;
+		}
+		empty = false;
+	}
+
+	/**
+	 * Helper function which returns the value of a recipe in a band, its 2 minhash bytes.
+	 * @param ordinal the ordinal of the recipe.
+	 * @param band the band, from 0 to NUM_BANDS - 1.
+	 * @return the band value, from 0 to 0xffff.
+	 */
+	private int bandValue(int ordinal, int band) {
+		return (int) (sketches[ordinal * SKETCH_LONGS + band / 4] >>> ((band % 4) * 16)) & 0xffff;
+	}
+
+	/**
+	 * Starts the signature of a recipe, discarding any not stored.
+	 */
+	void begin() {
+		Arrays.fill(minimums, Integer.MAX_VALUE);
+		empty = true;
+	}
+
+	/**
+	 * Removes the signature of a recipe, for a recipe removed and not yet indexed again.
+	 * @param ordinal the ordinal of the recipe.
+	 */
+	void clear(int ordinal) {
+		if (ordinal < signed.length)
+			signed[ordinal] = false;
+	}
+
+	/**
+	 * Helper function which compares two recipes sharing a band, keeping each as a neighbor of the other if it ranks among the best so far.
+	 * @param ordinal the ordinal of the first recipe.
+	 * @param other the ordinal of the second recipe.
+	 */
+	private void compare(int ordinal, int other) {
+		// pairs kept in an earlier band are not compared again
+		if (isNeighbor(ordinal, other))
+			return;
+
+		int matches = matches(ordinal, other);
+		if (matches < MIN_MATCHES)
+			return;
+
+		keep(ordinal, other, matches);
+		keep(other, ordinal, matches);
+	}
+
+	/**
+	 * Returns a copy of the signatures, to find neighbors on without holding the database lock.
+	 * @param numRecipes the number of recipes in the database.
+	 * @return a new SimilarityIndex with the signatures of the first numRecipes ordinals.
+	 */
+	SimilarityIndex copy(int numRecipes) {
+		long[] sketchesCopy = new long[numRecipes * SKETCH_LONGS];
+		boolean[] signedCopy = new boolean[numRecipes];
+		int numCopied = Math.min(numRecipes, signed.length);
+		System.arraycopy(sketches, 0, sketchesCopy, 0, numCopied * SKETCH_LONGS);
+		System.arraycopy(signed, 0, signedCopy, 0, numCopied);
+
+		return new SimilarityIndex(sketchesCopy, signedCopy);
+	}
+
+	/**
+	 * Finds the most similar recipes to each recipe.
+	 * @param limit the most neighbors to find for each recipe, at most 127.
+	 * @return the ordinals of the neighbors of each recipe, by ordinal, most similar first; recipes agreeing on as many minhashes come in ordinal order.
+	 */
+	int[][] findNeighbors(int limit) {
+		int numRecipes = signed.length;
+		this.limit = limit;
+		neighbors = new int[numRecipes * limit];
+		neighborMatches = new byte[numRecipes * limit];
+		neighborCounts = new byte[numRecipes];
+
+		int[] bucketEnds = new int[BAND_VALUES];
+		int[] members = new int[numRecipes];
+		for (int band = 0; band < NUM_BANDS; band++) {
+			// BUCKET THE BAND, counting sort on the band value, in ordinal order within each bucket
+			Arrays.fill(bucketEnds, 0);
+			for (int ordinal = 0; ordinal < numRecipes; ordinal++) {
+				if (signed[ordinal])
+					bucketEnds[bandValue(ordinal, band)]++;
+			}
+
+			int total = 0;
+			for (int value = 0; value < BAND_VALUES; value++) {
+				total += bucketEnds[value];
+				bucketEnds[value] = total - bucketEnds[value];
+			}
+
+			// each bucket end starts out as the start of the bucket, and reaches its end as it fills
+			for (int ordinal = 0; ordinal < numRecipes; ordinal++) {
+				if (signed[ordinal])
+					members[bucketEnds[bandValue(ordinal, band)]++] = ordinal;
+			}
+
+			// COMPARE WITHIN BUCKETS
+			int bucketStart = 0;
+			for (int value = 0; value < BAND_VALUES; value++) {
+				int bucketEnd = bucketEnds[value];
+				for (int p = bucketStart; p < bucketEnd; p++) {
+					int last = Math.min(bucketEnd - 1, p + WINDOW);
+					for (int q = p + 1; q <= last; q++)
+						compare(members[p], members[q]);
+				}
+				bucketStart = bucketEnd;
+			}
+		}
+
+		int[][] result = new int[numRecipes][];
+		for (int ordinal = 0; ordinal < numRecipes; ordinal++) {
+			result[ordinal] = new int[neighborCounts[ordinal]];
+			System.arraycopy(neighbors, ordinal * limit, result[ordinal], 0, result[ordinal].length);
+		}
+		neighbors = null;
+		neighborMatches = null;
+		neighborCounts = null;
+
+		return result;
+	}
+
+	/**
+	 * Helper function which returns true if a recipe is already among the neighbors kept for another.
+	 * @param ordinal the ordinal of the recipe whose neighbors to look through.
+	 * @param other the ordinal of the candidate neighbor.
+	 * @return true if other is kept as a neighbor of ordinal, false otherwise.
+	 */
+	private boolean isNeighbor(int ordinal, int other) {
+		int start = ordinal * limit;
+		int end = start + neighborCounts[ordinal];
+		for (int i = start; i < end; i++) {
+			if (neighbors[i] == other)
+				return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Helper function which keeps a recipe as a neighbor of another if it ranks among the best so far: more matches first, then by ordinal.
+	 * @param ordinal the ordinal of the recipe.
+	 * @param other the ordinal of the candidate neighbor.
+	 * @param matches the minhashes the two recipes agree on.
+	 */
+	private void keep(int ordinal, int other, int matches) {
+		int start = ordinal * limit;
+		int count = neighborCounts[ordinal];
+		int i = count;
+		while (i > 0 && (neighborMatches[start + i - 1] < matches || (neighborMatches[start + i - 1] == matches && neighbors[start + i - 1] > other)))
+			i--;
+
+		// a neighbor kept already ranks right before where it would go again
+		if (i == limit || (i > 0 && neighbors[start + i - 1] == other))
+			return;
+
+		// shift the weaker neighbors along, dropping the last when full
+		int end = Math.min(count, limit - 1);
+		System.arraycopy(neighbors, start + i, neighbors, start + i + 1, end - i);
+		System.arraycopy(neighborMatches, start + i, neighborMatches, start + i + 1, end - i);
+		neighbors[start + i] = other;
+		neighborMatches[start + i] = (byte) matches;
+		if (count < limit)
+			neighborCounts[ordinal]++;
+	}
+
+	/**
+	 * Helper function which counts the minhashes two recipes agree on, comparing 8 at a time.
+	 * @param ordinal the ordinal of the first recipe.
+	 * @param other the ordinal of the second recipe.
+	 * @return the number of minhash bytes the recipes share, from 0 to NUM_HASHES.
+	 */
+	private int matches(int ordinal, int other) {
+		int differences = 0;
+		for (int i = 0; i < SKETCH_LONGS; i++) {
+			// fold each byte of the difference onto its low bit, set if the bytes differ
+			long x = sketches[ordinal * SKETCH_LONGS + i] ^ sketches[other * SKETCH_LONGS + i];
+			x |= x >>> 4;
+			x |= x >>> 2;
+			x |= x >>> 1;
+			differences += Long.bitCount(x & LOW_BITS);
+		}
+
+		return NUM_HASHES - differences;
+	}
+
+	/**
+	 * Helper function which scrambles the bits of a hash, the finalizer of MurmurHash3.
+	 * @param h the hash.
+	 * @return the scrambled hash.
+	 */
+	private static int mix(int h) {
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+
+		return h;
+	}
+
+	/**
+	 * Stores the signature begun with begin() as that of a recipe.
+	 * A recipe without words but staples gets no signature, and no neighbors.
+	 * @param ordinal the ordinal of the recipe.
+	 */
+	void store(int ordinal) {
+		if (ordinal >= signed.length) {
+			int capacity = Math.max(ordinal + 1, signed.length * 2);
+			long[] grownSketches = new long[capacity * SKETCH_LONGS];
+			boolean[] grownSigned = new boolean[capacity];
+			System.arraycopy(sketches, 0, grownSketches, 0, sketches.length);
+			System.arraycopy(signed, 0, grownSigned, 0, signed.length);
+			sketches = grownSketches;
+			signed = grownSigned;
+		}
+
+		signed[ordinal] = !empty;
+		for (int i = 0; i < SKETCH_LONGS; i++) {
+			long sketch = 0;
+			for (int j = 7; j >= 0; j--)
+				sketch = sketch << 8 | (minimums[i * 8 + j] & 0xff);
+			sketches[ordinal * SKETCH_LONGS + i] = sketch;
+		}
+	}
+}
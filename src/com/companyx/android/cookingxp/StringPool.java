@@ -0,0 +1,204 @@
+package com.companyx.android.cookingxp;
+
+/**
+ * String Pool
+ *
+ * Load-time deduplication of catalog text. Field values and index words which occur many times in the catalog, such as authors, measurements and common ingredient names, are kept as one shared String instance.
+ * Values can be interned straight from a char buffer, so a repeated value never allocates a String of its own.
+ *
+ * The pool is thread-safe; it is split into independently locked segments by hash so that parser threads rarely wait on each other.
+ * It holds on to every String interned, so it is meant to live for the duration of a load only.
+ */
+final class StringPool {
+	// CONSTANTS
+	private static final int SEGMENT_COUNT = 16; // power of two
+	private static final int SEGMENT_SHIFT = 4; // log2 of SEGMENT_COUNT
+	private static final int INITIAL_CAPACITY = 64; // per segment, power of two
+
+	// STATE VARIABLES
+	private final Segment[] segments;
+
+	/**
+	 * Open-addressing hash set of Strings, guarded by its own lock.
+	 */
+	private static final class Segment {
+		private String[] table;
+		private int[] hashes; // String.hashCode() of each table entry
+		private int size;
+		private int shared; // lookups answered with an existing String
+		private long sharedChars; // characters in those lookups
+
+		Segment() {
+			table = new String[INITIAL_CAPACITY];
+			hashes = new int[INITIAL_CAPACITY];
+		}
+
+		/**
+		 * Returns the pooled String equal to the character range, adding a new one if there is none.
+		 * @param chars the characters.
+		 * @param start the start index of the range, inclusive.
+		 * @param length the length of the range.
+		 * @param hash the String.hashCode() of the range.
+		 * @return the pooled String.
+		 */
+		synchronized String intern(char[] chars, int start, int length, int hash) {
+			int mask = table.length - 1;
+			int i = (spread(hash) >>> SEGMENT_SHIFT) & mask;
+
+			for (String s = table[i]; s != null; s = table[i]) {
+				if (hashes[i] == hash && equals(s, chars, start, length)) {
+					shared++;
+					sharedChars += length;
+					return s;
+				}
+				i = (i + 1) & mask;
+			}
+
+			return insert(i, new String(chars, start, length), hash);
+		}
+
+		/**
+		 * Returns the pooled String equal to the given String, adding the given String if there is none.
+		 * @param string the String.
+		 * @param hash the String.hashCode() of the String.
+		 * @return the pooled String.
+		 */
+		synchronized String intern(String string, int hash) {
+			int mask = table.length - 1;
+			int i = (spread(hash) >>> SEGMENT_SHIFT) & mask;
+
+			for (String s = table[i]; s != null; s = table[i]) {
+				if (hashes[i] == hash && s.equals(string)) {
+					if (s != string) {
+						shared++;
+						sharedChars += s.length();
+					}
+					return s;
+				}
+				i = (i + 1) & mask;
+			}
+
+			return insert(i, string, hash);
+		}
+
+		/**
+		 * Helper function which returns true if the String holds exactly the character range.
+		 * @param s the String to compare.
+		 * @param chars the characters.
+		 * @param start the start index of the range, inclusive.
+		 * @param length the length of the range.
+		 * @return true if the String equals the character range, false otherwise.
+		 */
+		private static boolean equals(String s, char[] chars, int start, int length) {
+			if (s.length() != length)
+				return false;
+
+			for (int i = 0; i < length; i++) {
+				if (s.charAt(i) != chars[start + i])
+					return false;
+			}
+
+			return true;
+		}
+
+		/**
+		 * Helper function which stores a new String in a free slot, growing the table when it gets half full.
+		 * @param i the free slot.
+		 * @param string the String to store.
+		 * @param hash the String.hashCode() of the String.
+		 * @return the stored String.
+		 */
+		private String insert(int i, String string, int hash) {
+			table[i] = string;
+			hashes[i] = hash;
+			size++;
+
+			if (size * 2 > table.length) {
+				String[] oldTable = table;
+				int[] oldHashes = hashes;
+				table = new String[oldTable.length * 2];
+				hashes = new int[oldTable.length * 2];
+
+				int mask = table.length - 1;
+				for (int j = 0; j < oldTable.length; j++) {
+					if (oldTable[j] == null)
+						continue;
+
+					int k = (spread(oldHashes[j]) >>> SEGMENT_SHIFT) & mask;
+					while (table[k] != null)
+						k = (k + 1) & mask;
+					table[k] = oldTable[j];
+					hashes[k] = oldHashes[j];
+				}
+			}
+
+			return string;
+		}
+	}
+
+	/**
+	 * Constructor.
+	 */
+	StringPool() {
+		segments = new Segment[SEGMENT_COUNT];
+		for (int i = 0; i < SEGMENT_COUNT; i++)
+			segments[i] = new Segment();
+	}
+
+	/**
+	 * Adds the pool statistics to a load report.
+	 * @param report the load report to add to.
+	 */
+	void describeTo(LoadReport report) {
+		int distinct = 0;
+		int shared = 0;
+		long sharedChars = 0;
+
+		for (Segment segment : segments) {
+			synchronized(segment) {
+				distinct += segment.size;
+				shared += segment.shared;
+				sharedChars += segment.sharedChars;
+			}
+		}
+
+		report.addStrings(distinct, shared, sharedChars);
+	}
+
+	/**
+	 * Returns the pooled String equal to the character range, creating it on first use.
+	 * @param chars the characters.
+	 * @param start the start index of the range, inclusive.
+	 * @param length the length of the range.
+	 * @return the pooled String.
+	 */
+	String intern(char[] chars, int start, int length) {
+		// same as String.hashCode(), so ranges and Strings meet in the same slots
+		int hash = 0;
+		for (int i = start; i < start + length; i++)
+			hash = 31 * hash + chars[i];
+
+		return segments[spread(hash) & (SEGMENT_COUNT - 1)].intern(chars, start, length, hash);
+	}
+
+	/**
+	 * Returns the pooled String equal to the given String, pooling the given String on first use.
+	 * @param string the String to intern.
+	 * @return the pooled String.
+	 */
+	String intern(String string) {
+		int hash = string.hashCode();
+
+		return segments[spread(hash) & (SEGMENT_COUNT - 1)].intern(string, hash);
+	}
+
+	/**
+	 * Helper function which mixes the high bits of a String hash into the low bits used for segment and slot selection.
+	 * @param hash the String hash.
+	 * @return the mixed hash.
+	 */
+	private static int spread(int hash) {
+		hash ^= (hash >>> 16);
+		return hash ^ (hash >>> 8);
+	}
+}
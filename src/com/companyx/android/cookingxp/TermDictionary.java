@@ -0,0 +1,433 @@
+package com.companyx.android.cookingxp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Term Dictionary
+ *
+ * Sorted view of the words in the search index, for search-as-you-type. All the words starting with a prefix sit next to each other, so a prefix lookup is two binary searches.
+ * The dictionary shares the recipe bitmaps of the index, so recipes indexed under existing words show up without a rebuild; it must be rebuilt when words are added to or removed from the index.
+ *
+ * FUZZY LOOKUP:
+ * Misspelled words are matched to the words within a few edits (insertions, deletions, substitutions or swaps of neighbouring letters), see maxEdits().
+ * Rather than measuring the distance to every word, candidates are drawn from a trigram index built on first use: a word within k edits of another shares most of its trigrams, as one edit changes at most 4 of them.
+ * Only the candidates sharing enough trigrams have their edit distance measured. Words allowed two edits leave out the trigrams holding a single character, which match a large share of all terms.
+ *
+ * Not thread-safe; dictionaries are only touched under the RecipeDatabase lock.
+ */
+final class TermDictionary {
+	// CONSTANTS
+	private static final int GRAM_SIZE = 3;
+	private static final int GRAM_TABLE_CAPACITY = 1024; // initial, power of two
+	private static final char GRAM_PADDING = 0; // marks the start and end of a term, so that even the shortest terms keep a trigram after one edit
+
+	// STATE VARIABLES
+	private final String[] terms; // ascending
+	private final RecipeBitmap[] recipes; // recipe ordinals indexed under each term
+
+	// TRIGRAM INDEX, built on the first fuzzy lookup
+	private long[] gramKeys; // open-addressing hash table of packed trigrams, 0 for a free slot
+	private int[][] gramTerms; // indices of the terms containing each trigram, once per occurrence, ascending
+	private int[] gramSizes; // number of term indices in each gramTerms array
+	private int numGrams;
+	private short[] termLengths; // length of each term, to rule out candidates too long or short to be close
+	private int[] sharedGrams; // scratch space for lookups: trigrams shared with the word looked up, per term
+	private int[] candidates; // scratch space for lookups: the terms with a shared trigram
+
+	/**
+	 * Constructor.
+	 * @param index the search index, mapping each word to the recipes indexed under it.
+	 */
+	TermDictionary(Map<String, RecipeBitmap> index) {
+		terms = index.keySet().toArray(new String[index.size()]);
+		Arrays.sort(terms);
+
+		recipes = new RecipeBitmap[terms.length];
+		for (int i = 0; i < terms.length; i++)
+			recipes[i] = index.get(terms[i]);
+	}
+
+	/**
+	 * Helper function which builds the trigram index over all terms.
+	 */
+	private void buildGramIndex() {
+		gramKeys = new long[GRAM_TABLE_CAPACITY];
+		gramTerms = new int[GRAM_TABLE_CAPACITY][];
+		gramSizes = new int[GRAM_TABLE_CAPACITY];
+
+		for (int i = 0; i < terms.length; i++) {
+			String term = terms[i];
+			for (int j = 0; j < term.length() + GRAM_SIZE - 1; j++) {
+				long key = gramKey(term, j);
+				int slot = gramSlot(key);
+
+				if (gramKeys[slot] == 0) {
+					if ((numGrams + 1) * 2 > gramKeys.length) {
+						growGramIndex();
+						slot = gramSlot(key);
+					}
+					gramKeys[slot] = key;
+					gramTerms[slot] = new int[2];
+					numGrams++;
+				}
+
+				// terms are added in ascending order, so each array stays sorted
+				int[] postings = gramTerms[slot];
+				if (gramSizes[slot] == postings.length) {
+					int[] grown = new int[postings.length * 2];
+					System.arraycopy(postings, 0, grown, 0, postings.length);
+					gramTerms[slot] = postings = grown;
+				}
+				postings[gramSizes[slot]++] = i;
+			}
+		}
+
+		termLengths = new short[terms.length];
+		for (int i = 0; i < terms.length; i++)
+			termLengths[i] = (short) Math.min(terms[i].length(), Short.MAX_VALUE);
+
+		sharedGrams = new int[terms.length];
+		candidates = new int[terms.length];
+	}
+
+	/**
+	 * Returns the words starting with a prefix, those indexing the most recipes first, ties in alphabetical order.
+	 * @param prefix the prefix, in lowercase.
+	 * @param filter only words sharing a recipe with this bitmap are returned; null to return any word.
+	 * @param limit the maximum number of words to return.
+	 * @return the List of completed words, at most limit long.
+	 */
+	List<String> complete(String prefix, RecipeBitmap filter, int limit) {
+		int from = lowerBound(prefix);
+		int to = upperBound(prefix, from);
+
+		int[] range = new int[to - from];
+		for (int i = from; i < to; i++)
+			range[i - from] = i;
+
+		return mostCommon(range, range.length, filter, limit);
+	}
+
+	/**
+	 * Returns the words closest to a misspelled word, those indexing the most recipes first, ties in alphabetical order.
+	 * @param word the misspelled word, in lowercase.
+	 * @param filter only words sharing a recipe with this bitmap are returned; null to return any word.
+	 * @param limit the maximum number of words to return.
+	 * @return the List of corrected words, at most limit long; empty if no word is close enough.
+	 */
+	List<String> correct(String word, RecipeBitmap filter, int limit) {
+		int[] nearest = nearestTerms(word);
+
+		return mostCommon(nearest, nearest.length, filter, limit);
+	}
+
+	/**
+	 * Helper function which returns the edit distance between two strings, counting a swap of neighbouring characters as one edit, or gives up once it exceeds a bound.
+	 * @param a the first string.
+	 * @param b the second string.
+	 * @param maxEdits the bound.
+	 * @return the edit distance, or maxEdits + 1 if it is larger than maxEdits.
+	 */
+	private static int editDistance(String a, String b, int maxEdits) {
+		int lengthA = a.length();
+		int lengthB = b.length();
+		if (Math.abs(lengthA - lengthB) > maxEdits)
+			return maxEdits + 1;
+
+		// PLAN: dynamic programming over rows of a, keeping the last two rows for swaps
+		int[] previous2 = new int[lengthB + 1];
+		int[] previous = new int[lengthB + 1];
+		int[] current = new int[lengthB + 1];
+		for (int j = 0; j <= lengthB; j++)
+			previous[j] = j;
+
+		for (int i = 1; i <= lengthA; i++) {
+			current[0] = i;
+			int rowMin = i;
+			for (int j = 1; j <= lengthB; j++) {
+				int cost = (a.charAt(i - 1) == b.charAt(j - 1)) ? 0 : 1;
+				int d = Math.min(Math.min(previous[j] + 1, current[j - 1] + 1), previous[j - 1] + cost);
+				if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1))
+					d = Math.min(d, previous2[j - 2] + 1);
+				current[j] = d;
+				rowMin = Math.min(rowMin, d);
+			}
+
+			// every later row is at least as large
+			if (rowMin > maxEdits)
+				return maxEdits + 1;
+
+			int[] recycled = previous2;
+			previous2 = previous;
+			previous = current;
+			current = recycled;
+		}
+
+		return Math.min(previous[lengthB], maxEdits + 1);
+	}
+
+	/**
+	 * Helper function which packs a trigram of a term into a long, padding the term with two characters at both ends.
+	 * A term of length n has n + 2 trigrams; the one at index 0 is the padding followed by the first character.
+	 * @param term the term.
+	 * @param index the index of the trigram.
+	 * @return the packed trigram; never 0, as every trigram holds a character of the term.
+	 */
+	private static long gramKey(String term, int index) {
+		long key = 0;
+		for (int i = index - GRAM_SIZE + 1; i <= index; i++) {
+			char c = (i < 0 || i >= term.length()) ? GRAM_PADDING : term.charAt(i);
+			key = (key << 16) | c;
+		}
+
+		return key;
+	}
+
+	/**
+	 * Helper function which returns the slot of a trigram in the hash table.
+	 * @param key the packed trigram, see gramKey().
+	 * @return the slot holding the trigram, or the free slot where it belongs.
+	 */
+	private int gramSlot(long key) {
+		int mask = gramKeys.length - 1;
+		int i = (((int) (key ^ (key >>> 17) ^ (key >>> 31)) * 0x9e3779b9) >>> 8) & mask;
+
+		while (gramKeys[i] != 0 && gramKeys[i] != key)
+			i = (i + 1) & mask;
+
+		return i;
+	}
+
+	/**
+	 * Helper function which doubles the trigram hash table.
+	 */
+	private void growGramIndex() {
+		long[] oldKeys = gramKeys;
+		int[][] oldTerms = gramTerms;
+		int[] oldSizes = gramSizes;
+		gramKeys = new long[oldKeys.length * 2];
+		gramTerms = new int[oldKeys.length * 2][];
+		gramSizes = new int[oldKeys.length * 2];
+
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != 0) {
+				int slot = gramSlot(oldKeys[i]);
+				gramKeys[slot] = oldKeys[i];
+				gramTerms[slot] = oldTerms[i];
+				gramSizes[slot] = oldSizes[i];
+			}
+		}
+	}
+
+	/**
+	 * Helper function which returns the index of the first term not less than the key.
+	 * @param key the key to search for.
+	 * @return the index of the first term not less than the key, or the number of terms if there is none.
+	 */
+	private int lowerBound(String key) {
+		int low = 0;
+		int high = terms.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (terms[mid].compareTo(key) < 0)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+
+		return low;
+	}
+
+	/**
+	 * Returns the maximum number of edits at which a word of the given length is still matched to another: none for very short words, where a single edit makes another word, then one, then two from six characters on.
+	 * @param length the length of the misspelled word.
+	 * @return the maximum number of edits.
+	 */
+	static int maxEdits(int length) {
+		if (length < 3)
+			return 0;
+
+		return (length < 6) ? 1 : 2;
+	}
+
+	/**
+	 * Helper function which returns terms, those indexing the most recipes first, ties in alphabetical order.
+	 * @param indices the indices of the terms to choose from; reordered.
+	 * @param count the number of indices.
+	 * @param filter only terms sharing a recipe with this bitmap are returned; null to return any term.
+	 * @param limit the maximum number of terms to return.
+	 * @return the List of terms, at most limit long.
+	 */
+	private List<String> mostCommon(int[] indices, int count, RecipeBitmap filter, int limit) {
+		// PLAN: sort by descending recipe count then position, packed into one long so no Comparator or boxing is needed
+		long[] order = new long[count];
+		for (int i = 0; i < count; i++)
+			order[i] = ((long) (Integer.MAX_VALUE - recipes[indices[i]].cardinality()) << 32) | indices[i];
+		Arrays.sort(order);
+
+		List<String> result = new ArrayList<String>();
+		for (int i = 0; i < order.length && result.size() < limit; i++) {
+			int term = (int) order[i];
+			if (filter == null || !RecipeBitmap.and(filter, recipes[term]).isEmpty())
+				result.add(terms[term]);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Helper function which returns the terms closest to a misspelled word, all at the same smallest edit distance, up to maxEdits().
+	 * Only terms sharing enough trigrams with the word are considered; this misses the rare matches whose edits are spread out enough to change more trigrams than usual, mostly two edits apart.
+	 * @param word the misspelled word, in lowercase.
+	 * @return the indices of the closest terms, in no particular order; empty if no term is close enough.
+	 */
+	private int[] nearestTerms(String word) {
+		int maxEdits = maxEdits(word.length());
+		if (maxEdits == 0 || terms.length == 0)
+			return new int[0];
+
+		if (gramKeys == null)
+			buildGramIndex();
+
+		// the trigrams holding a single character and padding only help short words, and draw in a large share of all terms; leave them out when two edits are allowed
+		int skippedGrams = (maxEdits > 1) ? 1 : 0;
+
+		// PLAN: rarest trigrams first, packed with their slots into longs for sorting
+		int numWordGrams = word.length() + GRAM_SIZE - 1 - 2 * skippedGrams;
+		long[] order = new long[numWordGrams];
+		for (int j = 0; j < numWordGrams; j++) {
+			int slot = gramSlot(gramKey(word, j + skippedGrams));
+			order[j] = ((long) ((gramKeys[slot] == 0) ? 0 : gramSizes[slot]) << 32) | slot;
+		}
+		Arrays.sort(order);
+
+		// a close term shares at least minShared trigrams, so it shares one of the numWordGrams - minShared + 1 rarest; the commoner ones need only be looked up for those candidates
+		int minShared = Math.max(1, numWordGrams - (GRAM_SIZE + 1) * maxEdits);
+		int numScanned = numWordGrams - minShared + 1;
+
+		// COUNT SHARED TRIGRAMS, repeated trigrams counted once per pair of occurrences, which can only overcount
+		int numCandidates = 0;
+		for (int j = 0; j < numWordGrams; j++) {
+			int slot = (int) order[j];
+			if (gramKeys[slot] == 0)
+				continue;
+
+			int[] postings = gramTerms[slot];
+			int size = gramSizes[slot];
+			if (j < numScanned) {
+				for (int k = 0; k < size; k++) {
+					int term = postings[k];
+					if (Math.abs(termLengths[term] - word.length()) <= maxEdits && sharedGrams[term]++ == 0)
+						candidates[numCandidates++] = term;
+				}
+			} else {
+				for (int i = 0; i < numCandidates; i++)
+					sharedGrams[candidates[i]] += occurrences(postings, size, candidates[i]);
+			}
+		}
+
+		// MEASURE CANDIDATES sharing enough trigrams, each edit changing at most GRAM_SIZE + 1 of them, and keep the closest
+		int[] nearest = new int[numCandidates];
+		int numNearest = 0;
+		int bestDistance = maxEdits + 1;
+		for (int i = 0; i < numCandidates; i++) {
+			int term = candidates[i];
+			int shared = sharedGrams[term];
+			sharedGrams[term] = 0;
+
+			int required = Math.max(word.length(), terms[term].length()) + GRAM_SIZE - 1 - 2 * skippedGrams - (GRAM_SIZE + 1) * maxEdits;
+			if (shared < required)
+				continue;
+
+			int distance = editDistance(word, terms[term], Math.min(maxEdits, bestDistance));
+			if (distance < bestDistance) {
+				bestDistance = distance;
+				numNearest = 0;
+			}
+			if (distance == bestDistance && distance <= maxEdits)
+				nearest[numNearest++] = term;
+		}
+
+		int[] result = new int[numNearest];
+		System.arraycopy(nearest, 0, result, 0, numNearest);
+
+		return result;
+	}
+
+	/**
+	 * Helper function which counts the occurrences of a term index in a sorted array by binary search.
+	 * @param postings the sorted term indices.
+	 * @param size the number of term indices.
+	 * @param term the term index to count.
+	 * @return the number of occurrences.
+	 */
+	private static int occurrences(int[] postings, int size, int term) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (postings[mid] < term)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+
+		int count = 0;
+		while (low + count < size && postings[low + count] == term)
+			count++;
+
+		return count;
+	}
+
+	/**
+	 * Returns the recipes indexed under the words closest to a misspelled word.
+	 * @param word the misspelled word, in lowercase.
+	 * @return a read-only bitmap of recipe ordinals, see RecipeBitmap; empty if no word is close enough.
+	 */
+	RecipeBitmap recipesNear(String word) {
+		RecipeBitmap result = new RecipeBitmap();
+		for (int term : nearestTerms(word))
+			result = RecipeBitmap.or(result, recipes[term]);
+
+		return result;
+	}
+
+	/**
+	 * Returns the recipes indexed under any word starting with a prefix.
+	 * @param prefix the prefix, in lowercase.
+	 * @return a read-only bitmap of recipe ordinals, see RecipeBitmap.
+	 */
+	RecipeBitmap recipesWithPrefix(String prefix) {
+		int from = lowerBound(prefix);
+		int to = upperBound(prefix, from);
+
+		RecipeBitmap result = new RecipeBitmap();
+		for (int i = from; i < to; i++)
+			result = RecipeBitmap.or(result, recipes[i]);
+
+		return result;
+	}
+
+	/**
+	 * Helper function which returns the index of the first term, at or after a starting index, that does not start with the prefix.
+	 * @param prefix the prefix.
+	 * @param from the index of the first term not less than the prefix.
+	 * @return the index one past the last term starting with the prefix.
+	 */
+	private int upperBound(String prefix, int from) {
+		int low = from;
+		int high = terms.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (terms[mid].startsWith(prefix))
+				low = mid + 1;
+			else
+				high = mid;
+		}
+
+		return low;
+	}
+}
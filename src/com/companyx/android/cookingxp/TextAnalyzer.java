@@ -0,0 +1,231 @@
+package com.companyx.android.cookingxp;
+
+/**
+ * Text Analyzer
+ *
+ * Turns recipe names, ingredient names and search Strings into search terms, the same way for indexing and searching so that both agree on what a word is.
+ * Words are runs of letters and digits; everything else separates them, except apostrophes inside a word, which are dropped ("chef's" is "chefs").
+ * Words are lowercased, then stopwords such as "and" or "with" are skipped and the rest are stemmed, which folds most plurals onto their singular: "Apples," and "apple" are both the term "apple".
+ *
+ * The analyzer works through the text a word at a time in a reusable buffer, without splitting the text or copying it, so only the terms asked for as Strings are allocated.
+ * Not thread-safe; RecipeDatabase only uses its analyzer under its lock.
+ */
+final class TextAnalyzer {
+	// CONSTANTS
+	private static final int INITIAL_CAPACITY = 32; // characters, grows to the longest word
+	private static final char[][] STOPWORDS = {
+		"a".toCharArray(), "an".toCharArray(), "and".toCharArray(), "as".toCharArray(), "at".toCharArray(), "by".toCharArray(),
+		"for".toCharArray(), "from".toCharArray(), "in".toCharArray(), "into".toCharArray(), "of".toCharArray(), "on".toCharArray(),
+		"or".toCharArray(), "the".toCharArray(), "to".toCharArray(), "with".toCharArray()};
+	private static final int MAX_STOPWORD_LENGTH = 4;
+
+	// STATE VARIABLES
+	private String text;
+	private int position; // index in text of the next character to read
+	private int tokenStart; // range in text of the current word
+	private int tokenEnd;
+	private char[] buffer; // the current word, lowercased and, once stemmed, turned into a term
+	private int tokenLength; // length of the current word in buffer
+	private int length; // length of the current term in buffer
+
+	/**
+	 * Constructor.
+	 */
+	TextAnalyzer() {
+		buffer = new char[INITIAL_CAPACITY];
+		text = "";
+	}
+
+	/**
+	 * Returns the single term a word analyzes to, as the index holds it.
+	 * Resets the analyzer.
+	 * @param word the word, as typed.
+	 * @return the term, or null if the word is a stopword or holds no letters or digits.
+	 */
+	String analyze(String word) {
+		reset(word);
+
+		return next() ? term() : null;
+	}
+
+	/**
+	 * Returns true if stemming changed the current word, so that its term differs from the word.
+	 * @return true if the term differs from the word, false otherwise.
+	 */
+	boolean isStemmed() {
+		return length != tokenLength;
+	}
+
+	/**
+	 * Returns true if the current word is a stopword, too common to be worth searching for.
+	 * @return true if the current word is a stopword, false otherwise.
+	 */
+	boolean isStopword() {
+		if (tokenLength > MAX_STOPWORD_LENGTH)
+			return false;
+
+		for (char[] stopword : STOPWORDS) {
+			if (stopword.length != tokenLength || stopword[0] != buffer[0])
+				continue;
+
+			int i = 0;
+			while (i < tokenLength && buffer[i] == stopword[i])
+				i++;
+			if (i == tokenLength)
+				return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Helper function which returns true if a lowercased character is a vowel.
+	 * @param c the character.
+	 * @return true if the character is a, e, i, o or u, false otherwise.
+	 */
+	private static boolean isVowel(char c) {
+		return c == 'a' || c == 'e' || c == 'i' || c == 'o' || c == 'u';
+	}
+
+	/**
+	 * Helper function which lowercases a character of a word, checking plain ASCII first as most text is.
+	 * @param c the character.
+	 * @return the character lowercased, or 0 if it is neither a letter nor a digit and so separates words.
+	 */
+	private static char lowerCase(char c) {
+		if (c < 128) {
+			if (c >= 'a' && c <= 'z' || c >= '0' && c <= '9')
+				return c;
+			if (c >= 'A' && c <= 'Z')
+				return (char) (c + ('a' - 'A'));
+			return 0;
+		}
+
+		return Character.isLetterOrDigit(c) ? Character.toLowerCase(c) : 0;
+	}
+
+	/**
+	 * Advances to the next term: the next word that is not a stopword, stemmed.
+	 * @return true if there is one, false at the end of the text.
+	 */
+	boolean next() {
+		while (nextToken()) {
+			if (!isStopword()) {
+				stem();
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Advances to the next word, lowercased but neither checked against the stopwords nor stemmed; see isStopword() and stem().
+	 * @return true if there is one, false at the end of the text.
+	 */
+	boolean nextToken() {
+		int end = text.length();
+		while (position < end && lowerCase(text.charAt(position)) == 0)
+			position++;
+
+		tokenStart = position;
+		tokenLength = 0;
+		for (; position < end; position++) {
+			char c = lowerCase(text.charAt(position));
+
+			if (c != 0) {
+				if (tokenLength == buffer.length) {
+					char[] grown = new char[buffer.length * 2];
+					System.arraycopy(buffer, 0, grown, 0, tokenLength);
+					buffer = grown;
+				}
+				buffer[tokenLength++] = c;
+			} else if (text.charAt(position) != '\'' && text.charAt(position) != '\u2019') {
+				break;
+			}
+		}
+		tokenEnd = position;
+		length = tokenLength;
+
+		return tokenLength > 0;
+	}
+
+	/**
+	 * Starts analyzing a new text.
+	 * @param text the text to analyze.
+	 */
+	void reset(String text) {
+		this.text = text;
+		position = 0;
+		tokenStart = 0;
+		tokenEnd = 0;
+		tokenLength = 0;
+		length = 0;
+	}
+
+	/**
+	 * Stems the current word into its term, stripping plural endings: "eggs" to "egg", "tomatoes" to "tomato", "peaches" to "peach", "cookies" to "cookie".
+	 * Stems need not be words, only the same for the singular and the plural; words under four letters and words ending in "ss" or "us" are left alone.
+	 * A "y" after a consonant turns into "ie", so that "berry" and "berries" both stem to "berrie" while "cookie" and "cookies" stay "cookie"; this holds for short words too, "fry" and "fries" both stem to "frie".
+	 */
+	void stem() {
+		int n = tokenLength;
+
+		// berry, fry; but not turkey or soy
+		if (n >= 3 && buffer[n - 1] == 'y' && !isVowel(buffer[n - 2])) {
+			if (n == buffer.length) {
+				char[] grown = new char[buffer.length * 2];
+				System.arraycopy(buffer, 0, grown, 0, n);
+				buffer = grown;
+			}
+			buffer[n - 1] = 'i';
+			buffer[n] = 'e';
+			length = n + 1;
+			return;
+		}
+
+		if (n < 4 || buffer[n - 1] != 's')
+			return;
+
+		char c2 = buffer[n - 2];
+		if (c2 == 's' || c2 == 'u')
+			return;
+
+		if (c2 == 'e' && n > 4) {
+			char c3 = buffer[n - 3];
+			char c4 = buffer[n - 4];
+
+			// tomatoes, peaches, radishes, boxes, glasses; and quiches too, though that parts them from quiche
+			if (c3 == 'o' || (c3 == 'h' && (c4 == 'c' || c4 == 's')) || c3 == 'x' || (c3 == 's' && c4 == 's')) {
+				length = n - 2;
+				return;
+			}
+		}
+
+		// berries, cookies and fries lose only the "s", meeting berry, cookie and fry
+		length = n - 1;
+	}
+
+	/**
+	 * Returns the current term as a String.
+	 * @return the current term.
+	 */
+	String term() {
+		return new String(buffer, 0, length);
+	}
+
+	/**
+	 * Returns the current word as it appears in the text, lowercased, whether or not it was stemmed since.
+	 * @return the current word.
+	 */
+	String token() {
+		StringBuilder sb = new StringBuilder(tokenLength);
+		for (int i = tokenStart; i < tokenEnd; i++) {
+			char c = lowerCase(text.charAt(i));
+			if (c != 0)
+				sb.append(c);
+		}
+
+		return sb.toString();
+	}
+}
@@ -0,0 +1,159 @@
+package com.companyx.android.cookingxp;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.companyx.android.cookingxp.RecipeDatabase.Recipe;
+import com.companyx.android.cookingxp.RecipeDatabase.RecipeTime;
+
+/**
+ * Time Index
+ *
+ * Secondary indexes on the times of the recipes, for queries such as "ready in under 30 minutes"; see the time: scopes of RecipeQuery.
+ * For each measure of time, the recipes are ranked by their time, so the recipes in a range of times are a run of ranks found by binary search, without looking at the others.
+ * The time of each recipe is also kept by ordinal, so a small result, such as the recipes using an ingredient, can instead be narrowed down by looking up the time of each.
+ *
+ * MEASURES, by the RecipeQuery TIME constants:
+ * - TIME_TOTAL: prep, inactive prep and cook time, as in RecipeDatabase.ORDER_TIME
+ * - TIME_ACTIVE: prep and cook time, leaving out inactive prep such as marinating or chilling
+ * - TIME_COOK: cook time
+ *
+ * Recipes without times are in no range. An index must be rebuilt when recipes are added to the database.
+ */
+final class TimeIndex {
+	// CONSTANTS
+	private static final int NUM_MEASURES = 3;
+	private static final int UNKNOWN = -1; // time of a recipe without times
+
+	// STATE VARIABLES
+	private final int[][] minutes; // time of each recipe, by measure then ordinal; UNKNOWN for recipes without times
+	private final int[][] rankedOrdinals; // ordinals of the recipes with times, by measure, shortest time first
+	private final int[][] rankedMinutes; // their times, by measure, ascending
+
+	/**
+	 * Constructor.
+	 * @param recipes the recipes of the database, indexed by ordinal.
+	 */
+	TimeIndex(List<Recipe> recipes) {
+		int numRecipes = recipes.size();
+		minutes = new int[NUM_MEASURES][numRecipes];
+		rankedOrdinals = new int[NUM_MEASURES][];
+		rankedMinutes = new int[NUM_MEASURES][];
+
+		int numTimed = 0;
+		for (int ordinal = 0; ordinal < numRecipes; ordinal++) {
+			RecipeTime recipeTime = recipes.get(ordinal).recipeTime;
+			if (recipeTime == null) {
+				for (int measure = 0; measure < NUM_MEASURES; measure++)
+					minutes[measure][ordinal] = UNKNOWN;
+				continue;
+			}
+
+			minutes[RecipeQuery.TIME_TOTAL][ordinal] = recipeTime.prepTimeInMin + recipeTime.inactivePrepTimeInMin + recipeTime.cookTimeInMin;
+			minutes[RecipeQuery.TIME_ACTIVE][ordinal] = recipeTime.prepTimeInMin + recipeTime.cookTimeInMin;
+			minutes[RecipeQuery.TIME_COOK][ordinal] = recipeTime.cookTimeInMin;
+			numTimed++;
+		}
+
+		// RANK BY TIME, sorting time and ordinal together so recipes of the same time stay in ordinal order
+		long[] keys = new long[numTimed];
+		for (int measure = 0; measure < NUM_MEASURES; measure++) {
+			int n = 0;
+			for (int ordinal = 0; ordinal < numRecipes; ordinal++) {
+				if (minutes[measure][ordinal] != UNKNOWN)
+					keys[n++] = (long) minutes[measure][ordinal] << 32 | ordinal;
+			}
+			Arrays.sort(keys);
+
+			rankedOrdinals[measure] = new int[numTimed];
+			rankedMinutes[measure] = new int[numTimed];
+			for (int rank = 0; rank < numTimed; rank++) {
+				rankedOrdinals[measure][rank] = (int) keys[rank];
+				rankedMinutes[measure][rank] = (int) (keys[rank] >>> 32);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of recipes in a range of times, without listing them.
+	 * @param measure the measure of time, one of the RecipeQuery TIME constants.
+	 * @param low the shortest time in the range, in minutes.
+	 * @param high the longest time in the range, in minutes.
+	 * @return the number of recipes whose time is from low to high, inclusive.
+	 */
+	int count(int measure, int low, int high) {
+		if (low > high)
+			return 0;
+
+		return rankOf(measure, high + 1L) - rankOf(measure, low);
+	}
+
+	/**
+	 * Narrows down a result to the recipes in a range of times, looking up the time of each; cheaper than range() for results smaller than the range.
+	 * @param recipes the ordinals of the result.
+	 * @param measure the measure of time, one of the RecipeQuery TIME constants.
+	 * @param low the shortest time in the range, in minutes.
+	 * @param high the longest time in the range, in minutes.
+	 * @return a new bitmap of the ordinals of the recipes of the result whose time is from low to high, inclusive.
+	 */
+	RecipeBitmap filter(RecipeBitmap recipes, int measure, int low, int high) {
+		RecipeBitmap result = new RecipeBitmap();
+		if (low < 0)
+			low = 0;
+
+		int[] measureMinutes = minutes[measure];
+		for (int ordinal : recipes.toArray()) {
+			int time = measureMinutes[ordinal];
+			if (time >= low && time <= high)
+				result.add(ordinal);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the recipes in a range of times.
+	 * @param measure the measure of time, one of the RecipeQuery TIME constants.
+	 * @param low the shortest time in the range, in minutes.
+	 * @param high the longest time in the range, in minutes.
+	 * @return a new bitmap of the ordinals of the recipes whose time is from low to high, inclusive.
+	 */
+	RecipeBitmap range(int measure, int low, int high) {
+		RecipeBitmap result = new RecipeBitmap();
+		if (low > high)
+			return result;
+
+		// the run of ranks in the range, put in ordinal order so the bitmap is built by appending
+		int start = rankOf(measure, low);
+		int end = rankOf(measure, high + 1L);
+		int[] ordinals = new int[end - start];
+		System.arraycopy(rankedOrdinals[measure], start, ordinals, 0, ordinals.length);
+		Arrays.sort(ordinals);
+
+		for (int ordinal : ordinals)
+			result.add(ordinal);
+
+		return result;
+	}
+
+	/**
+	 * Helper function which returns the rank of the first recipe taking at least the specified time.
+	 * @param measure the measure of time, one of the RecipeQuery TIME constants.
+	 * @param time the time, in minutes; a long so that a time past the longest can be asked for.
+	 * @return the number of recipes taking less time.
+	 */
+	private int rankOf(int measure, long time) {
+		int[] times = rankedMinutes[measure];
+		int low = 0;
+		int high = times.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (times[middle] < time)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+
+		return low;
+	}
+}
@@ -54,6 +54,7 @@ public class TreeActivity extends BaseActivity {
 	
 	// SYSTEM
 	private OnGlobalLayoutListener listenerOGL;
+	private CatalogLoader.OnCatalogStateChangedListener catalogListener;
 	
 	/**
 	 * Custom View class for drawing the path edges between Boxes.
@@ -291,6 +292,24 @@ public class TreeActivity extends BaseActivity {
 		
 		treeList = gameData.getTrees();
 		initializeSpinner();
+		
+		// rebuild once the catalog is loaded and game unlocks have been applied to its recipes
+		if (!catalogLoader.hasReached(CatalogLoader.STATE_SEARCHABLE)) {
+			catalogListener = new CatalogLoader.OnCatalogStateChangedListener() {
+				@Override
+				public void onCatalogStateChanged(int state) {
+					if (state >= CatalogLoader.STATE_SEARCHABLE) {
+						catalogLoader.removeListener(this);
+						catalogListener = null;
+						
+						layoutTree.removeAllViews();
+						dismissPopups();
+						refreshLayout();
+					}
+				}
+			};
+			catalogLoader.addListener(catalogListener);
+		}
 	}
 	
 	@Override
@@ -298,6 +317,14 @@ public class TreeActivity extends BaseActivity {
 		return super.onCreateOptionsMenu(menu);
 	}
 	
+	@Override
+	protected void onDestroy() {
+		super.onDestroy();
+		
+		if (catalogListener != null)
+			catalogLoader.removeListener(catalogListener);
+	}
+	
 	@Override
 	protected void onRestart() {
 		super.onRestart();
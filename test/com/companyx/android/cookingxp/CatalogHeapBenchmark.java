@@ -0,0 +1,156 @@
+package com.companyx.android.cookingxp;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.companyx.android.cookingxp.RecipeDatabase.Recipe;
+
+/**
+ * Catalog Heap Benchmark
+ *
+ * Measures the heap the recipe catalog takes and the time of the scans over all recipes, on a synthetic catalog of NUM_RECIPES recipes loaded as on first launch:
+ * parsed, compiled into a snapshot, read back as headers, indexed and linked.
+ * The heap is measured as the growth of the used heap after garbage collection, so the figures are only as steady as the collector; the mapped snapshot is not on the heap and is not counted.
+ */
+public class CatalogHeapBenchmark extends AndroidTestCase {
+	// SETTINGS
+	private static final String TAG = "CatalogHeapBenchmark";
+	private static final int NUM_RECIPES = 96000;
+	private static final int PACK_RECIPES = 10000;
+	private static final int RUNS = 12; // the best is reported
+	private static final long SOURCE_STAMP = 1;
+
+	// STATE VARIABLES
+	private RecipeDatabase db;
+	private File snapshotFile;
+	private File packFile;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		RecipeDatabase.getInstance(getContext()).release();
+		db = RecipeDatabase.getInstance(getContext());
+		snapshotFile = new File(getContext().getCacheDir(), "benchmark.snapshot");
+		packFile = SyntheticCatalog.write(SyntheticCatalog.generate(PACK_RECIPES, 2), new File(getContext().getCacheDir(), "benchmark_pack.txt"));
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		db.release();
+		snapshotFile.delete();
+		packFile.delete();
+		super.tearDown();
+	}
+
+	/**
+	 * Helper function which loads the catalog as on first launch: parsed, compiled into a snapshot, then read back from it as headers, indexed and linked.
+	 * @return the recipes of the catalog, as read from the snapshot.
+	 * @throws Exception if the snapshot cannot be written or read, or the load is interrupted.
+	 */
+	private List<Recipe> loadCatalog() throws Exception {
+		byte[] data = SyntheticCatalog.generate(NUM_RECIPES, 1).getBytes("UTF-8");
+		List<Recipe> parsed = new RecipeLoader(new ByteArrayInputStream(data), db).parseData(1);
+		assertTrue("snapshot not written", CatalogSnapshot.write(snapshotFile, SOURCE_STAMP, parsed));
+
+		List<Recipe> result = CatalogSnapshot.open(snapshotFile, SOURCE_STAMP).readHeaders();
+		db.addRecipeHeaders(result);
+		db.indexRecipeBodies(result);
+		db.linkSimilarRecipes();
+		db.releaseStringPool(LoadReport.DISABLED);
+
+		return result;
+	}
+
+	/**
+	 * Helper function which returns the heap in use once garbage has been collected.
+	 * @return the used heap, in bytes.
+	 */
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 4; i++) {
+			System.gc();
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Measures the heap taken by the whole database, by recipe headers read from the snapshot, and by a recipe pack with its bodies.
+	 * @throws Exception if the catalog or the pack cannot be loaded.
+	 */
+	public void testHeap() throws Exception {
+		long empty = usedHeap();
+		List<Recipe> recipes = loadCatalog();
+		long loaded = usedHeap();
+
+		List<Recipe> headers = CatalogSnapshot.open(snapshotFile, SOURCE_STAMP).readHeaders();
+		long withHeaders = usedHeap();
+
+		List<Recipe> pack = db.readPack(packFile, LoadReport.DISABLED);
+		long withPack = usedHeap();
+
+		Log.i(TAG, String.format("%d recipes: database %.1f MB (%.0f B/recipe); snapshot headers %.0f B/recipe; pack of %d with bodies %.0f B/recipe",
+				recipes.size(), (loaded - empty) / 1e6, (loaded - empty) / (double) recipes.size(), (withHeaders - loaded) / (double) headers.size(),
+				pack.size(), (withPack - withHeaders) / (double) pack.size()));
+
+		assertEquals(NUM_RECIPES, recipes.size());
+	}
+
+	/**
+	 * Times the scans over every recipe: the time index, the time order, the facet index and a catalog version, and reading the bodies of a pack.
+	 * @throws Exception if the catalog or the pack cannot be loaded.
+	 */
+	public void testScans() throws Exception {
+		List<Recipe> recipes = loadCatalog();
+		List<Recipe> pack = db.readPack(packFile, LoadReport.DISABLED);
+
+		RecipeIdTable idTable = new RecipeIdTable();
+		for (Recipe recipe : recipes)
+			idTable.put(recipe.recipeId, recipe.ordinal);
+		Map<Short, RecipeBitmap> boxMap = new HashMap<Short, RecipeBitmap>();
+		RecipeOrder nameOrder = new RecipeOrder(recipes, RecipeDatabase.ORDER_NAME);
+
+		double timeIndex = Double.MAX_VALUE;
+		double timeOrder = Double.MAX_VALUE;
+		double facetIndex = Double.MAX_VALUE;
+		double version = Double.MAX_VALUE;
+		double bodies = Double.MAX_VALUE;
+		long sink = 0;
+		for (int run = 0; run < RUNS; run++) {
+			long start = System.nanoTime();
+			sink += new TimeIndex(recipes).count(0, 0, 30);
+			timeIndex = Math.min(timeIndex, (System.nanoTime() - start) / 1e6);
+
+			start = System.nanoTime();
+			sink += new RecipeOrder(recipes, RecipeDatabase.ORDER_TIME).list(recipes, new int[] {0}, 1).size();
+			timeOrder = Math.min(timeOrder, (System.nanoTime() - start) / 1e6);
+
+			start = System.nanoTime();
+			sink += new FacetIndex(recipes, new String[0], new RecipeBitmap[0], new RecipeBitmap()).hashCode();
+			facetIndex = Math.min(facetIndex, (System.nanoTime() - start) / 1e6);
+
+			start = System.nanoTime();
+			sink += new CatalogVersion(recipes, idTable, boxMap, new RecipeBitmap(), nameOrder).getUnlockedCount();
+			version = Math.min(version, (System.nanoTime() - start) / 1e6);
+
+			start = System.nanoTime();
+			for (Recipe recipe : pack)
+				sink += recipe.getIngredients().size() + recipe.getDirections().size();
+			bodies = Math.min(bodies, (System.nanoTime() - start) / 1e6);
+		}
+
+		Log.i(TAG, String.format("%d recipes, best of %d: TimeIndex %.2f ms, ORDER_TIME %.2f ms, FacetIndex %.2f ms, CatalogVersion %.2f ms; bodies of a pack of %d read in %.2f ms [%d]",
+				recipes.size(), RUNS, timeIndex, timeOrder, facetIndex, version, pack.size(), bodies, sink));
+	}
+}
@@ -0,0 +1,198 @@
+package com.companyx.android.cookingxp;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.companyx.android.cookingxp.RecipeDatabase.Recipe;
+
+/**
+ * Catalog Version Stress Test
+ *
+ * Reads the catalog on several threads without the lock while a writer keeps unlocking, relocking and adding recipes, and checks that every version read is consistent with itself:
+ * its count and listings agree, its listings are sorted and unlocked, its recipeIds resolve to its recipes and its similar recipes are unlocked.
+ * A version read in part before a write and in part after, or published before a batch is complete, fails the test.
+ */
+public class CatalogVersionStressTest extends AndroidTestCase {
+	// SETTINGS
+	private static final String TAG = "CatalogVersionStressTest";
+	private static final int NUM_RECIPES = 10000;
+	private static final int NUM_READERS = 4;
+	private static final int BATCH_SIZE = 300; // recipes added by the writer every BATCH_CYCLES cycles
+	private static final int BATCH_CYCLES = 5;
+	private static final long DURATION_MILLIS = 8000;
+	private static final int SIMILAR_LIMIT = 5;
+
+	// STATE VARIABLES
+	private RecipeDatabase db;
+	private volatile boolean running;
+	private final AtomicLong reads = new AtomicLong();
+	private final List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		RecipeDatabase.getInstance(getContext()).release();
+		db = RecipeDatabase.getInstance(getContext());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		db.release();
+		super.tearDown();
+	}
+
+	/**
+	 * Helper function which adds a recipe pack to the database the way CatalogLoader does, as one batch.
+	 * @param catalog the pack text.
+	 * @param name the pack file name.
+	 * @return the number of recipes added.
+	 * @throws Exception if the pack cannot be written or read.
+	 */
+	private int addPack(String catalog, String name) throws Exception {
+		File packFile = SyntheticCatalog.write(catalog, new File(getContext().getCacheDir(), name));
+		try {
+			List<Recipe> recipes = db.readPack(packFile, LoadReport.DISABLED);
+			db.addRecipeHeaders(recipes);
+			db.indexRecipeBodies(recipes);
+			db.linkSimilarRecipes();
+
+			return recipes.size();
+		} finally {
+			packFile.delete();
+		}
+	}
+
+	/**
+	 * Helper function which checks one catalog version, recording what is inconsistent in failures.
+	 * @param version the version, read once.
+	 * @param random the source of the boxes and recipes to check.
+	 */
+	private void checkVersion(CatalogVersion version, Random random) {
+		int count = version.getUnlockedCount();
+		List<Recipe> all = version.allRecipes();
+		RecipeCursor cursor = version.allRecipesCursor();
+
+		// COUNT AND LISTINGS, which must agree however long after each other they are taken
+		if (all.size() != count || cursor.getCount() != count) {
+			failures.add("count " + count + ", listing " + all.size() + ", cursor " + cursor.getCount());
+			return;
+		}
+		if (!cursor.getPage(0, count).equals(all))
+			failures.add("cursor and listing differ");
+
+		Map<Recipe, Boolean> unlocked = new IdentityHashMap<Recipe, Boolean>();
+		for (int i = 0; i < all.size(); i++) {
+			Recipe recipe = all.get(i);
+			unlocked.put(recipe, Boolean.TRUE);
+			if (i > 0 && all.get(i - 1).name.compareTo(recipe.name) > 0)
+				failures.add("listing out of order at " + i);
+			if (version.findRecipeById(recipe.recipeId) != recipe)
+				failures.add("recipeId " + recipe.recipeId + " does not resolve to its recipe");
+		}
+
+		// BOX LISTINGS, unlocked recipes of the box only
+		short boxId = (short) random.nextInt(SyntheticCatalog.NUM_BOXES);
+		for (Recipe recipe : version.getRecipesByBox(boxId)) {
+			if (!unlocked.containsKey(recipe))
+				failures.add("locked recipe " + recipe.recipeId + " listed in box " + boxId);
+
+			boolean inBox = false;
+			for (short b : recipe.boxes)
+				inBox |= (b == boxId);
+			if (!inBox)
+				failures.add("recipe " + recipe.recipeId + " listed in box " + boxId + " but not in it");
+		}
+
+		// SIMILAR RECIPES, unlocked ones only
+		for (int i = 0; i < 10 && !all.isEmpty(); i++) {
+			Recipe recipe = all.get(random.nextInt(all.size()));
+			for (Recipe similar : version.getSimilarRecipes(recipe.recipeId, SIMILAR_LIMIT)) {
+				if (!unlocked.containsKey(similar))
+					failures.add("locked recipe " + similar.recipeId + " similar to " + recipe.recipeId);
+			}
+		}
+
+		if (version.getUnlockedCount() != count)
+			failures.add("count changed from " + count + " to " + version.getUnlockedCount());
+	}
+
+	/**
+	 * Helper function which counts the recipes locked in the current version, by unlocking every box.
+	 * @return the number of recipes that were locked.
+	 */
+	private int countLocked() {
+		int count = 0;
+		for (short boxId = 0; boxId < SyntheticCatalog.NUM_BOXES; boxId++)
+			count += db.unlockRecipesByBox(boxId).size();
+
+		return count;
+	}
+
+	/**
+	 * Tests that readers never see a version changing under them, or a batch in part, while a writer changes the catalog.
+	 * @throws Exception if the catalog cannot be loaded or a thread cannot be joined.
+	 */
+	public void testReadersSeeConsistentVersions() throws Exception {
+		addPack(SyntheticCatalog.generate(NUM_RECIPES, 1), "stress_0.txt");
+
+		// READERS
+		running = true;
+		List<Thread> readers = new ArrayList<Thread>();
+		for (int r = 0; r < NUM_READERS; r++) {
+			final long seed = r;
+			Thread reader = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					Random random = new Random(seed);
+					while (running) {
+						checkVersion(db.getCatalog(), random);
+						reads.incrementAndGet();
+					}
+				}
+			});
+			reader.start();
+			readers.add(reader);
+		}
+
+		// WRITER, on this thread
+		Random random = new Random(42);
+		int cycles = 0;
+		int added = 0;
+		long start = System.currentTimeMillis();
+		try {
+			while (System.currentTimeMillis() - start < DURATION_MILLIS) {
+				db.resetRecipeLocks();
+				for (short boxId = 0; boxId < SyntheticCatalog.NUM_BOXES; boxId++) {
+					if (random.nextInt(3) == 0)
+						db.unlockRecipesByBox(boxId);
+				}
+
+				cycles++;
+				if (cycles % BATCH_CYCLES == 0)
+					added += addPack(SyntheticCatalog.generate(BATCH_SIZE, cycles), "stress_" + cycles + ".txt");
+			}
+		} finally {
+			running = false;
+			for (Thread reader : readers)
+				reader.join();
+		}
+
+		long elapsed = System.currentTimeMillis() - start;
+		Log.i(TAG, "writer cycles: " + cycles + ", recipes added: " + added + ", versions checked: " + reads.get() + " (" + (reads.get() * 1000 / elapsed) + "/s)");
+
+		assertTrue("no recipes added while reading", added > 0);
+		assertTrue("no versions checked", reads.get() > 0);
+		assertEquals("inconsistent versions: " + (failures.isEmpty() ? "" : failures.get(0)), 0, failures.size());
+		int unlocked = db.getCatalog().getUnlockedCount();
+		assertEquals(NUM_RECIPES + added, unlocked + countLocked());
+	}
+}
@@ -0,0 +1,214 @@
+package com.companyx.android.cookingxp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/**
+ * Fuzzy Search Benchmark
+ *
+ * Measures the latency of TermDictionary.correct() on misspelled words at vocabularies of 10k, 100k and 1M terms, and the time to build its trigram index.
+ * The misspellings are made-up words of the vocabulary with one edit, or two for words long enough to allow them, that are not words themselves.
+ * Part of them are also corrected by measuring the edit distance to every term, for the cost of a full vocabulary scan and to check that the trigram index never returns a term the scan would not;
+ * it may miss a few two-edit terms whose edits change unusually many trigrams, which are counted.
+ */
+public class FuzzySearchBenchmark extends AndroidTestCase {
+	// SETTINGS
+	private static final String TAG = "FuzzySearchBenchmark";
+	private static final int NUM_RECIPES = 50000; // recipe ordinals the terms are indexed under
+	private static final int LIMIT = 10; // corrections asked for, as suggestSearches() would
+	private static final String LETTERS = "abcdefghijklmnopqrstuvwxyz";
+
+	/**
+	 * Helper function which returns the terms closest to a word by measuring the edit distance to every term.
+	 * @param word the misspelled word.
+	 * @param terms the vocabulary.
+	 * @return the terms at the smallest distance, if within TermDictionary.maxEdits().
+	 */
+	private static Set<String> bruteForce(String word, List<String> terms) {
+		int maxEdits = TermDictionary.maxEdits(word.length());
+		int best = maxEdits + 1;
+		Set<String> result = new HashSet<String>();
+		for (String term : terms) {
+			if (Math.abs(term.length() - word.length()) > maxEdits)
+				continue;
+
+			int distance = editDistance(word, term);
+			if (distance < best) {
+				best = distance;
+				result.clear();
+			}
+			if (distance == best && distance <= maxEdits)
+				result.add(term);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Helper function which returns the unbounded edit distance between two strings, counting a swap of neighbouring characters as one edit.
+	 * @param a the first string.
+	 * @param b the second string.
+	 * @return the edit distance.
+	 */
+	private static int editDistance(String a, String b) {
+		int[][] d = new int[a.length() + 1][b.length() + 1];
+		for (int i = 0; i <= a.length(); i++)
+			d[i][0] = i;
+		for (int j = 0; j <= b.length(); j++)
+			d[0][j] = j;
+
+		for (int i = 1; i <= a.length(); i++) {
+			for (int j = 1; j <= b.length(); j++) {
+				int cost = (a.charAt(i - 1) == b.charAt(j - 1)) ? 0 : 1;
+				d[i][j] = Math.min(Math.min(d[i - 1][j] + 1, d[i][j - 1] + 1), d[i - 1][j - 1] + cost);
+				if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1))
+					d[i][j] = Math.min(d[i][j], d[i - 2][j - 2] + 1);
+			}
+		}
+
+		return d[a.length()][b.length()];
+	}
+
+	/**
+	 * Helper function which misspells a word with one edit, or two if it is long enough: an insertion, deletion, substitution or swap of neighbouring letters.
+	 * @param word the word.
+	 * @param random the source of the edits.
+	 * @return the misspelled word.
+	 */
+	private static String misspell(String word, Random random) {
+		StringBuilder sb = new StringBuilder(word);
+		int numEdits = (word.length() >= 6 && random.nextBoolean()) ? 2 : 1;
+		for (int k = 0; k < numEdits; k++) {
+			int position = random.nextInt(sb.length());
+			char c = LETTERS.charAt(random.nextInt(LETTERS.length()));
+			switch (random.nextInt(4)) {
+			case 0:
+				sb.insert(position, c);
+				break;
+			case 1:
+				if (sb.length() > 3)
+					sb.deleteCharAt(position);
+				break;
+			case 2:
+				sb.setCharAt(position, c);
+				break;
+			default:
+				if (position + 1 < sb.length()) {
+					sb.setCharAt(position, sb.charAt(position + 1));
+					sb.setCharAt(position + 1, word.charAt(position));
+				}
+			}
+		}
+
+		return sb.toString();
+	}
+
+	/**
+	 * Helper function which benchmarks one vocabulary size and logs the results.
+	 * @param numTerms the number of terms in the vocabulary.
+	 * @param numQueries the number of misspelled words to correct.
+	 * @param numChecked the number of those also corrected by a full scan.
+	 */
+	private static void run(int numTerms, int numQueries, int numChecked) {
+		// VOCABULARY, each term indexed under a recipe or two
+		Random random = new Random(numTerms);
+		Map<String, RecipeBitmap> index = new HashMap<String, RecipeBitmap>();
+		for (String term : SyntheticCatalog.vocabulary(numTerms, numTerms)) {
+			RecipeBitmap recipes = new RecipeBitmap();
+			recipes.add(index.size() % NUM_RECIPES);
+			if (random.nextInt(10) == 0)
+				recipes.add(random.nextInt(NUM_RECIPES));
+			index.put(term, recipes);
+		}
+		List<String> terms = new ArrayList<String>(index.keySet());
+		TermDictionary dictionary = new TermDictionary(index);
+
+		// the trigram index is built on the first fuzzy lookup
+		long start = System.nanoTime();
+		dictionary.correct("zzzzzz", null, LIMIT);
+		long buildNanos = System.nanoTime() - start;
+
+		List<String> queries = new ArrayList<String>();
+		while (queries.size() < numQueries) {
+			String word = misspell(terms.get(random.nextInt(terms.size())), random);
+			if (word.length() >= 3 && !index.containsKey(word))
+				queries.add(word);
+		}
+
+		// FULL SCAN, for its cost and to check the corrections
+		int agreed = 0;
+		int missed = 0;
+		int wrong = 0;
+		long scanNanos = 0;
+		for (int i = 0; i < numChecked; i++) {
+			String word = queries.get(i);
+			start = System.nanoTime();
+			Set<String> expected = bruteForce(word, terms);
+			scanNanos += System.nanoTime() - start;
+
+			Set<String> actual = new HashSet<String>(dictionary.correct(word, null, Integer.MAX_VALUE));
+			if (actual.equals(expected)) {
+				agreed++;
+			} else {
+				for (String term : actual) {
+					if (!expected.contains(term))
+						wrong++;
+				}
+				for (String term : expected) {
+					if (!actual.contains(term))
+						missed++;
+				}
+			}
+		}
+
+		// LATENCY, the second pass timed
+		long[] latencies = new long[queries.size()];
+		int corrected = 0;
+		for (int pass = 0; pass < 2; pass++) {
+			corrected = 0;
+			for (int i = 0; i < queries.size(); i++) {
+				start = System.nanoTime();
+				if (!dictionary.correct(queries.get(i), null, LIMIT).isEmpty())
+					corrected++;
+				latencies[i] = System.nanoTime() - start;
+			}
+		}
+		Arrays.sort(latencies);
+
+		Log.i(TAG, String.format("%d terms: trigram index built in %.0f ms; correct() median %.3f ms, p90 %.3f ms, p99 %.3f ms, %d/%d corrected; full scan %.2f ms per word; %d/%d agree with the scan, %d missed, %d wrong",
+				numTerms, buildNanos / 1e6, latencies[latencies.length / 2] / 1e6, latencies[latencies.length * 9 / 10] / 1e6, latencies[latencies.length * 99 / 100] / 1e6,
+				corrected, queries.size(), scanNanos / 1e6 / numChecked, agreed, numChecked, missed, wrong));
+
+		assertEquals("corrections the full scan does not make", 0, wrong);
+	}
+
+	/**
+	 * Benchmarks a vocabulary of 100k terms.
+	 */
+	public void testHundredThousandTerms() {
+		run(100000, 1000, 150);
+	}
+
+	/**
+	 * Benchmarks a vocabulary of 1M terms.
+	 */
+	public void testMillionTerms() {
+		run(1000000, 300, 40);
+	}
+
+	/**
+	 * Benchmarks a vocabulary of 10k terms.
+	 */
+	public void testTenThousandTerms() {
+		run(10000, 1000, 1000);
+	}
+}
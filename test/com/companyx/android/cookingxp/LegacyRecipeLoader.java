@@ -0,0 +1,141 @@
+package com.companyx.android.cookingxp;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Scanner;
+import java.util.regex.Pattern;
+
+import android.util.Log;
+
+import com.companyx.android.cookingxp.RecipeDatabase.Recipe;
+import com.companyx.android.cookingxp.RecipeDatabase.RecipeDirection;
+import com.companyx.android.cookingxp.RecipeDatabase.RecipeIngredient;
+import com.companyx.android.cookingxp.RecipeDatabase.RecipeTime;
+
+/**
+ * Legacy Recipe Loader
+ *
+ * The Scanner and regex based loader RecipeLoader replaced, kept as the baseline of RecipeLoaderBenchmark.
+ * The parse is unchanged, its per-line logging and per-ingredient Pattern included; only the result differs, returned as a List instead of added to the database, with boxes and links as arrays as Recipe now takes them.
+ */
+final class LegacyRecipeLoader {
+	// STATE VARIABLES
+	private final InputStream inputStream;
+
+	/**
+	 * Constructor.
+	 * @param inputStream the catalog to parse.
+	 */
+	LegacyRecipeLoader(InputStream inputStream) {
+		this.inputStream = inputStream;
+	}
+
+	/**
+	 * Parses the entire input stream.
+	 * @return the List of recipes, in file order, numbered from 0 in file order.
+	 */
+	List<Recipe> parseData() {
+		List<Recipe> result = new ArrayList<Recipe>();
+
+		/* Loading Raw Data from File Location into Scanner */
+		Scanner scanner = new Scanner(inputStream);
+		scanner.useDelimiter(System.getProperty("line.separator"));
+		String INPUT = scanner.next();
+		int recipeNumber = 0;
+
+		while (scanner.hasNext()) {
+			if ("0:E".matches(INPUT.trim())) {
+				ArrayList<String> ingredListArray = new ArrayList<String>();
+				List<Short> boxAssignment = new ArrayList<Short>();
+				List<String> directList = new ArrayList<String>();
+				String title = "";
+				String auth = "";
+				INPUT = scanner.next();
+
+				// Storing Recipe title
+				while (scanner.hasNext()) {
+					if ("0:E".equals(INPUT.trim())) {
+						INPUT = scanner.next();
+					} else {
+						title = INPUT;
+						INPUT = scanner.next();
+						break;
+					}
+				}
+
+				// Check for Author and update auth string if one is found.
+				if (title.contains(":")) {
+					String titleS[] = title.split("\\b:");
+					title = titleS[0].trim();
+					auth = titleS[1].trim();
+					for (int j = 2; j < titleS.length; j++) {
+						int boxId = Integer.valueOf(titleS[j].trim());
+						boxAssignment.add((short) boxId);
+					}
+				}
+
+				// Time Split into Int - then Short into the RecipeTime
+				String timeL[] = INPUT.split("\\:");
+				int pr = Integer.valueOf(timeL[0].trim());
+				int ipr = Integer.valueOf(timeL[1].trim());
+				int c = Integer.valueOf(timeL[2].trim());
+
+				RecipeTime timeC = new RecipeTime((short) pr, (short) ipr, (short) c);
+
+				// Serving size byte (serveSize)
+				int q = Integer.valueOf(timeL[3].trim());
+				byte serveSize = (byte) q;
+				INPUT = scanner.next();
+
+				// Grabbing Recipe Ingredients
+				while (scanner.hasNext()) {
+					Log.d("RECIPE INGREDIENTS LOOP", INPUT);
+					ingredListArray.add(INPUT);
+					INPUT = scanner.next();
+					if (INPUT.contains("_")) {
+						Log.d("Looking for Directions", "FOUND THEM");
+						break;
+					}
+				}
+				// Grabbing Recipe Directions/Instructions
+				String dirL[] = INPUT.substring(1, INPUT.length()).split("\\:");
+				directList = Arrays.asList(dirL);
+
+				while (scanner.hasNext()) {
+					if ("0:E".matches(INPUT.trim())) {
+						break;
+					} else {
+						INPUT = scanner.next();
+					}
+				}
+
+				// Separating the Ingredients for Database import
+				List<RecipeIngredient> riList = new ArrayList<RecipeIngredient>();
+				for (String z : ingredListArray) {
+					Pattern p = Pattern.compile("\\:");
+					String[] ami = p.split(z.toLowerCase());
+					riList.add(new RecipeIngredient(ami[0].trim(), ami[1].trim(), ami[2].trim(), ami[3].trim()));
+				}
+
+				List<RecipeDirection> dirList = new ArrayList<RecipeDirection>();
+				for (String s : directList)
+					dirList.add(new RecipeDirection(s));
+
+				short[] boxes = new short[boxAssignment.size()];
+				for (int i = 0; i < boxes.length; i++)
+					boxes[i] = boxAssignment.get(i);
+
+				result.add(new Recipe(recipeNumber, title, auth, riList, dirList, new int[] {recipeNumber}, boxes, timeC, serveSize));
+				recipeNumber++;
+			} else {
+				INPUT = scanner.next();
+			}
+		}
+
+		scanner.close();
+
+		return result;
+	}
+}
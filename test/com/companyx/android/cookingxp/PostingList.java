@@ -0,0 +1,199 @@
+package com.companyx.android.cookingxp;
+
+import java.util.Arrays;
+
+/**
+ * Posting List
+ *
+ * The recipeId's indexed under one search word, kept as a sorted array of primitive ints.
+ * Recipes are indexed in catalog order, which is not recipeId order, so new ids are appended and the array is sorted once, on first read.
+ * The search index held these before RecipeBitmap, whose array containers intersect the same way; kept as the sorted array baseline of SearchIntersectionBenchmark.
+ *
+ * Not thread-safe.
+ */
+final class PostingList {
+	// CONSTANTS
+	private static final int INITIAL_CAPACITY = 4;
+	private static final int[] EMPTY = new int[0];
+
+	// STATE VARIABLES
+	private int[] ids;
+	private int size;
+	private boolean sorted; // false while appended ids are waiting to be sorted
+
+	/**
+	 * Constructor.
+	 */
+	PostingList() {
+		ids = new int[INITIAL_CAPACITY];
+		sorted = true;
+	}
+
+	/**
+	 * Adds a recipeId; adding one already present has no effect.
+	 * @param recipeId the recipeId to add.
+	 */
+	void add(int recipeId) {
+		// a recipe indexes all of its words in a row, so a repeated word shows up as the last id
+		if (size > 0 && ids[size - 1] == recipeId)
+			return;
+
+		if (size == ids.length) {
+			int[] grown = new int[ids.length * 2];
+			System.arraycopy(ids, 0, grown, 0, size);
+			ids = grown;
+		}
+
+		if (size > 0 && recipeId < ids[size - 1])
+			sorted = false;
+		ids[size++] = recipeId;
+	}
+
+	/**
+	 * Helper function which sorts appended ids into place and drops duplicates.
+	 */
+	private void ensureSorted() {
+		if (sorted)
+			return;
+
+		Arrays.sort(ids, 0, size);
+
+		int n = 1;
+		for (int i = 1; i < size; i++) {
+			if (ids[i] != ids[n - 1])
+				ids[n++] = ids[i];
+		}
+		size = n;
+		sorted = true;
+	}
+
+	/**
+	 * Helper function which returns the index of the first id at or after the starting index that is not less than the target.
+	 * Steps ahead in doubling strides, then binary searches the last stride, so a short hop costs little and a long one costs a logarithm.
+	 * @param ids the sorted ids.
+	 * @param from the index to start searching from.
+	 * @param size the number of ids.
+	 * @param target the id to search for.
+	 * @return the index of the first id not less than the target, or size if there is none.
+	 */
+	private static int gallop(int[] ids, int from, int size, int target) {
+		if (from >= size || ids[from] >= target)
+			return from;
+
+		// ids[low] < target from here on
+		int low = from;
+		int step = 1;
+		while (low + step < size && ids[low + step] < target) {
+			low += step;
+			step <<= 1;
+		}
+		int high = Math.min(low + step, size);
+
+		// ids[low] < target <= ids[high], treating ids[size] as infinite
+		while (high - low > 1) {
+			int mid = (low + high) >>> 1;
+			if (ids[mid] < target)
+				low = mid;
+			else
+				high = mid;
+		}
+
+		return high;
+	}
+
+	/**
+	 * Returns the recipeId's present in every one of the posting lists, in ascending order.
+	 * The lists are intersected smallest first, each surviving candidate being looked up by galloping through the next list, and the search stops as soon as no candidate is left.
+	 * @param lists the posting lists to intersect; reordered by size.
+	 * @param count the number of posting lists, at least one.
+	 * @return the recipeId's present in every posting list.
+	 */
+	static int[] intersect(PostingList[] lists, int count) {
+		for (int i = 0; i < count; i++)
+			lists[i].ensureSorted();
+
+		// PLAN: smallest first, insertion sort as there are only a few terms
+		for (int i = 1; i < count; i++) {
+			PostingList list = lists[i];
+			int j = i - 1;
+			while (j >= 0 && lists[j].size > list.size) {
+				lists[j + 1] = lists[j];
+				j--;
+			}
+			lists[j + 1] = list;
+		}
+
+		if (lists[0].size == 0)
+			return EMPTY;
+
+		int[] candidates = new int[lists[0].size];
+		System.arraycopy(lists[0].ids, 0, candidates, 0, candidates.length);
+		int numCandidates = candidates.length;
+
+		for (int k = 1; k < count && numCandidates > 0; k++) {
+			PostingList list = lists[k];
+			if (list == lists[k - 1])
+				continue; // repeated search term
+
+			int position = 0;
+			int kept = 0;
+			for (int i = 0; i < numCandidates; i++) {
+				position = gallop(list.ids, position, list.size, candidates[i]);
+				if (position == list.size)
+					break;
+				if (list.ids[position] == candidates[i])
+					candidates[kept++] = candidates[i];
+			}
+			numCandidates = kept;
+		}
+
+		if (numCandidates == candidates.length)
+			return candidates;
+
+		int[] result = new int[numCandidates];
+		System.arraycopy(candidates, 0, result, 0, numCandidates);
+
+		return result;
+	}
+
+	/**
+	 * Returns true if the posting list holds no recipeId's.
+	 * @return true if the posting list is empty, false otherwise.
+	 */
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Removes a recipeId, if present.
+	 * @param recipeId the recipeId to remove.
+	 */
+	void remove(int recipeId) {
+		ensureSorted();
+
+		int low = 0;
+		int high = size - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (ids[mid] < recipeId)
+				low = mid + 1;
+			else if (ids[mid] > recipeId)
+				high = mid - 1;
+			else {
+				System.arraycopy(ids, mid + 1, ids, mid, size - mid - 1);
+				size--;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of recipeId's in the posting list.
+	 * @return the number of recipeId's.
+	 */
+	int size() {
+		ensureSorted();
+
+		return size;
+	}
+}
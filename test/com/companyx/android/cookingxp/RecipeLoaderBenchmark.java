@@ -0,0 +1,140 @@
+package com.companyx.android.cookingxp;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.companyx.android.cookingxp.RecipeDatabase.Recipe;
+import com.companyx.android.cookingxp.RecipeDatabase.RecipeDirection;
+import com.companyx.android.cookingxp.RecipeDatabase.RecipeIngredient;
+
+/**
+ * Recipe Loader Benchmark
+ *
+ * Measures the parse throughput, in MB/s and recipes/s, of RecipeLoader against the loader it replaced, LegacyRecipeLoader, on the shipped catalog scaled up and on a synthetic catalog.
+ * Both parse from memory, so the figures are of the parse alone; RecipeLoader is measured on one thread and on one per processor.
+ * Also checks that both loaders read the same recipes.
+ */
+public class RecipeLoaderBenchmark extends AndroidTestCase {
+	// SETTINGS
+	private static final String TAG = "RecipeLoaderBenchmark";
+	private static final int SHIPPED_COPIES = 400; // the shipped catalog is only a few dozen recipes
+	private static final int SYNTHETIC_RECIPES = 20000;
+	private static final int WARMUP_RUNS = 3;
+	private static final int TIMED_RUNS = 5;
+
+	/**
+	 * Helper function which checks that two loaders read the same recipes; recipeIds are left out, the legacy loader numbers recipes in file order.
+	 * @param expected the recipes read by the legacy loader.
+	 * @param actual the recipes read by RecipeLoader.
+	 */
+	private static void assertSameRecipes(List<Recipe> expected, List<Recipe> actual) {
+		assertEquals("recipe count", expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			Recipe e = expected.get(i);
+			Recipe a = actual.get(i);
+			String where = "recipe " + i + " (" + e.name + ")";
+			assertEquals(where, e.name, a.name);
+			assertEquals(where, e.author, a.author);
+			assertTrue(where + " boxes", Arrays.equals(e.boxes, a.boxes));
+			assertEquals(where + " prep time", e.recipeTime.prepTimeInMin, a.recipeTime.prepTimeInMin);
+			assertEquals(where + " inactive prep time", e.recipeTime.inactivePrepTimeInMin, a.recipeTime.inactivePrepTimeInMin);
+			assertEquals(where + " cook time", e.recipeTime.cookTimeInMin, a.recipeTime.cookTimeInMin);
+			assertEquals(where + " servings", e.numOfServings, a.numOfServings);
+
+			List<RecipeIngredient> ei = e.getIngredients();
+			List<RecipeIngredient> ai = a.getIngredients();
+			assertEquals(where + " ingredients", ei.size(), ai.size());
+			for (int j = 0; j < ei.size(); j++) {
+				assertEquals(where, ei.get(j).amount, ai.get(j).amount);
+				assertEquals(where, ei.get(j).measurement, ai.get(j).measurement);
+				assertEquals(where, ei.get(j).ingredientName, ai.get(j).ingredientName);
+				assertEquals(where, ei.get(j).notes, ai.get(j).notes);
+			}
+
+			List<RecipeDirection> ed = e.getDirections();
+			List<RecipeDirection> ad = a.getDirections();
+			assertEquals(where + " directions", ed.size(), ad.size());
+			for (int j = 0; j < ed.size(); j++)
+				assertEquals(where, ed.get(j).direction, ad.get(j).direction);
+		}
+	}
+
+	/**
+	 * Helper function which parses a catalog with the legacy loader, or with RecipeLoader on a number of threads.
+	 * @param data the catalog, as UTF-8.
+	 * @param numThreads the RecipeLoader threads; 0 for the legacy loader.
+	 * @return the recipes read.
+	 * @throws InterruptedException if the benchmark is interrupted.
+	 */
+	private static List<Recipe> parse(byte[] data, int numThreads) throws InterruptedException {
+		if (numThreads == 0)
+			return new LegacyRecipeLoader(new ByteArrayInputStream(data)).parseData();
+
+		return new RecipeLoader(new ByteArrayInputStream(data), null).parseData(numThreads);
+	}
+
+	/**
+	 * Helper function which times the parse of a catalog and logs its throughput.
+	 * @param label the catalog, for the log.
+	 * @param data the catalog, as UTF-8.
+	 * @param numThreads the RecipeLoader threads; 0 for the legacy loader.
+	 * @return the throughput, in MB/s.
+	 * @throws InterruptedException if the benchmark is interrupted.
+	 */
+	private static double measure(String label, byte[] data, int numThreads) throws InterruptedException {
+		int numRecipes = 0;
+		for (int run = 0; run < WARMUP_RUNS; run++)
+			numRecipes = parse(data, numThreads).size();
+
+		long start = System.nanoTime();
+		for (int run = 0; run < TIMED_RUNS; run++)
+			parse(data, numThreads);
+		double seconds = (System.nanoTime() - start) / 1e9 / TIMED_RUNS;
+
+		double mbPerSecond = data.length / 1e6 / seconds;
+		String loader = (numThreads == 0) ? "legacy loader" : "RecipeLoader, " + numThreads + " thread(s)";
+		Log.i(TAG, String.format("%s, %s: %.1f MB/s, %.0f recipes/s (%.1f ms per parse)", label, loader, mbPerSecond, numRecipes / seconds, seconds * 1000));
+
+		return mbPerSecond;
+	}
+
+	/**
+	 * Helper function which checks and benchmarks both loaders on a catalog.
+	 * @param label the catalog, for the log.
+	 * @param catalog the catalog text.
+	 * @throws Exception if the catalog cannot be encoded or the benchmark is interrupted.
+	 */
+	private static void run(String label, String catalog) throws Exception {
+		byte[] data = catalog.getBytes("UTF-8");
+		List<Recipe> legacy = parse(data, 0);
+		assertSameRecipes(legacy, parse(data, 1));
+		Log.i(TAG, String.format("%s: %.1f MB, %d recipes", label, data.length / 1e6, legacy.size()));
+
+		double legacyRate = measure(label, data, 0);
+		double newRate = measure(label, data, 1);
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		if (numThreads > 1)
+			newRate = Math.max(newRate, measure(label, data, numThreads));
+		Log.i(TAG, String.format("%s: %.1fx the legacy throughput", label, newRate / legacyRate));
+	}
+
+	/**
+	 * Benchmarks the shipped catalog, scaled up to a size worth timing.
+	 * @throws Exception if the catalog cannot be read.
+	 */
+	public void testShippedCatalog() throws Exception {
+		run("shipped catalog x" + SHIPPED_COPIES, SyntheticCatalog.scale(SyntheticCatalog.readShipped(getContext()), SHIPPED_COPIES));
+	}
+
+	/**
+	 * Benchmarks a synthetic catalog, whose recipes vary more than copies of the shipped ones.
+	 * @throws Exception if the benchmark is interrupted.
+	 */
+	public void testSyntheticCatalog() throws Exception {
+		run("synthetic catalog", SyntheticCatalog.generate(SYNTHETIC_RECIPES, 1));
+	}
+}
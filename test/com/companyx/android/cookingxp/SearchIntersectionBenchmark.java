@@ -0,0 +1,254 @@
+package com.companyx.android.cookingxp;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.companyx.android.cookingxp.RecipeDatabase.Recipe;
+import com.companyx.android.cookingxp.RecipeDatabase.RecipeIngredient;
+
+/**
+ * Search Intersection Benchmark
+ *
+ * Measures the latency and allocation per query of matching multi-term searches, on one index held three ways:
+ * - the boxed HashSets counted through a hitTable, as searchSetRecipes() did first
+ * - sorted int[] PostingLists, intersected smallest first by galloping
+ * - RecipeBitmaps, as the search index holds them now, intersected smallest first with galloping between array containers
+ * Only the matching is measured, not the listing of the result; the three must match the same recipes.
+ */
+public class SearchIntersectionBenchmark extends AndroidTestCase {
+	// SETTINGS
+	private static final String TAG = "SearchIntersectionBenchmark";
+	private static final int NUM_RECIPES = 48000;
+	private static final int NUM_QUERIES = 3000;
+	private static final int MAX_TERMS = 4;
+	private static final int RUNS = 3; // the last is reported, the others warm up
+
+	// MATCHERS
+	private static final int HIT_TABLE = 0;
+	private static final int POSTING_LISTS = 1;
+	private static final int BITMAPS = 2;
+	private static final String[] MATCHER_NAMES = {"hitTable", "posting lists", "bitmaps"};
+
+	// STATE VARIABLES
+	private final Map<String, Set<Integer>> hashIndex = new HashMap<String, Set<Integer>>();
+	private final Map<String, PostingList> postingIndex = new HashMap<String, PostingList>();
+	private final Map<String, RecipeBitmap> bitmapIndex = new HashMap<String, RecipeBitmap>();
+	private final List<List<String>> recipeWords = new ArrayList<List<String>>(); // the words of each recipe, to make up queries from
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		byte[] data = SyntheticCatalog.generate(NUM_RECIPES, 1).getBytes("UTF-8");
+		List<Recipe> recipes = new RecipeLoader(new ByteArrayInputStream(data), null).parseData();
+		TextAnalyzer analyzer = new TextAnalyzer();
+		for (int ordinal = 0; ordinal < recipes.size(); ordinal++) {
+			Recipe recipe = recipes.get(ordinal);
+			recipeWords.add(new ArrayList<String>());
+			index(analyzer, recipe.name, ordinal);
+			for (RecipeIngredient ri : recipe.getIngredients())
+				index(analyzer, ri.ingredientName, ordinal);
+		}
+	}
+
+	/**
+	 * Helper function which makes up queries of one to MAX_TERMS words, mostly taken from one recipe so that most queries match, with a word from elsewhere, repeated or not indexed now and then.
+	 * @return the queries, as their analyzed terms.
+	 */
+	private String[][] generateQueries() {
+		List<String> words = new ArrayList<String>(hashIndex.keySet());
+
+		Random random = new Random(42);
+		String[][] result = new String[NUM_QUERIES][];
+		for (int q = 0; q < NUM_QUERIES; q++) {
+			List<String> recipe = recipeWords.get(random.nextInt(recipeWords.size()));
+			String[] terms = new String[1 + random.nextInt(MAX_TERMS)];
+			for (int t = 0; t < terms.length; t++) {
+				if (t > 0 && random.nextInt(10) == 0)
+					terms[t] = terms[t - 1];
+				else if (random.nextInt(15) == 0)
+					terms[t] = "zzz" + random.nextInt(10);
+				else if (random.nextInt(5) == 0)
+					terms[t] = words.get(random.nextInt(words.size()));
+				else
+					terms[t] = recipe.get(random.nextInt(recipe.size()));
+			}
+			result[q] = terms;
+		}
+
+		return result;
+	}
+
+	/**
+	 * Helper function which indexes the words of a name under a recipe, in all three indexes, and lists them under the recipe.
+	 * @param analyzer the analyzer to split the name with.
+	 * @param string the recipe or ingredient name.
+	 * @param ordinal the ordinal of the recipe.
+	 */
+	private void index(TextAnalyzer analyzer, String string, int ordinal) {
+		analyzer.reset(string);
+		while (analyzer.next()) {
+			String word = analyzer.term();
+			Set<Integer> set = hashIndex.get(word);
+			if (set == null) {
+				set = new HashSet<Integer>();
+				hashIndex.put(word, set);
+				postingIndex.put(word, new PostingList());
+				bitmapIndex.put(word, new RecipeBitmap());
+			}
+			if (set.add(ordinal))
+				recipeWords.get(ordinal).add(word);
+			postingIndex.get(word).add(ordinal);
+			bitmapIndex.get(word).add(ordinal);
+		}
+	}
+
+	/**
+	 * Helper function which matches a query with one of the matchers.
+	 * @param matcher the matcher, HIT_TABLE, POSTING_LISTS or BITMAPS.
+	 * @param terms the analyzed terms of the query.
+	 * @return the number of matching recipes.
+	 */
+	private int match(int matcher, String[] terms) {
+		switch (matcher) {
+		case HIT_TABLE:
+			return matchHitTable(terms).size();
+		case POSTING_LISTS:
+			return matchPostingLists(terms).length;
+		default:
+			return matchBitmaps(terms).cardinality();
+		}
+	}
+
+	/**
+	 * Helper function which matches a query on the RecipeBitmap index, stopping at the first term indexed under no recipe.
+	 * @param terms the analyzed terms of the query.
+	 * @return the matching ordinals.
+	 */
+	private RecipeBitmap matchBitmaps(String[] terms) {
+		RecipeBitmap[] bitmaps = new RecipeBitmap[terms.length];
+		for (int i = 0; i < terms.length; i++) {
+			bitmaps[i] = bitmapIndex.get(terms[i]);
+			if (bitmaps[i] == null)
+				return new RecipeBitmap();
+		}
+
+		return RecipeBitmap.and(bitmaps, bitmaps.length);
+	}
+
+	/**
+	 * Helper function which matches a query the way searchSetRecipes() first did: counting the hits of each recipe in a boxed map and keeping those hit by every distinct term.
+	 * @param terms the analyzed terms of the query.
+	 * @return the ordinals of the matching recipes, in no particular order.
+	 */
+	private Set<Integer> matchHitTable(String[] terms) {
+		Set<String> termSet = new HashSet<String>(Arrays.asList(terms));
+		int numMatchesRequired = termSet.size();
+
+		Map<Integer, Integer> hitTable = new HashMap<Integer, Integer>();
+		for (String term : termSet) {
+			Set<Integer> recipes = hashIndex.get(term);
+			if (recipes == null)
+				continue;
+
+			for (Integer ordinal : recipes) {
+				Integer hits = hitTable.get(ordinal);
+				hitTable.put(ordinal, (hits == null) ? 1 : hits + 1);
+			}
+		}
+
+		Set<Integer> result = new HashSet<Integer>();
+		for (Map.Entry<Integer, Integer> entry : hitTable.entrySet()) {
+			if (entry.getValue() == numMatchesRequired)
+				result.add(entry.getKey());
+		}
+
+		return result;
+	}
+
+	/**
+	 * Helper function which matches a query on the PostingList index, stopping at the first term indexed under no recipe.
+	 * @param terms the analyzed terms of the query.
+	 * @return the matching ordinals, in ascending order.
+	 */
+	private int[] matchPostingLists(String[] terms) {
+		PostingList[] lists = new PostingList[terms.length];
+		for (int i = 0; i < terms.length; i++) {
+			lists[i] = postingIndex.get(terms[i]);
+			if (lists[i] == null)
+				return new int[0];
+		}
+
+		return PostingList.intersect(lists, lists.length);
+	}
+
+	/**
+	 * Benchmarks the latency and allocation per query of each matcher.
+	 */
+	public void testLatencyAndAllocation() {
+		String[][] queries = generateQueries();
+		long[] latencies = new long[queries.length];
+
+		for (int matcher = HIT_TABLE; matcher <= BITMAPS; matcher++) {
+			long allocated = 0;
+			long matched = 0;
+			for (int run = 0; run < RUNS; run++) {
+				allocated = 0;
+				matched = 0;
+				Debug.startAllocCounting();
+				for (int q = 0; q < queries.length; q++) {
+					// counted per query, as the int counter would overflow over a run of the hitTable
+					Debug.resetThreadAllocSize();
+					long start = System.nanoTime();
+					matched += match(matcher, queries[q]);
+					latencies[q] = System.nanoTime() - start;
+					allocated += Debug.getThreadAllocSize();
+				}
+				Debug.stopAllocCounting();
+			}
+
+			long total = 0;
+			for (long latency : latencies)
+				total += latency;
+			Arrays.sort(latencies);
+
+			Log.i(TAG, String.format("%s: %.1f us mean, %.1f us median, %.1f us p99, %.1f KB allocated per query (%d matches)", MATCHER_NAMES[matcher],
+					total / 1e3 / queries.length, latencies[queries.length / 2] / 1e3, latencies[queries.length * 99 / 100] / 1e3, allocated / 1024.0 / queries.length, matched));
+		}
+	}
+
+	/**
+	 * Tests that the three matchers agree on every query.
+	 */
+	public void testSameMatches() {
+		int nonEmpty = 0;
+		for (String[] terms : generateQueries()) {
+			Set<Integer> hits = matchHitTable(terms);
+			int[] expected = new int[hits.size()];
+			int i = 0;
+			for (int ordinal : hits)
+				expected[i++] = ordinal;
+			Arrays.sort(expected);
+
+			String query = Arrays.toString(terms);
+			assertTrue(query, Arrays.equals(expected, matchPostingLists(terms)));
+			assertTrue(query, Arrays.equals(expected, matchBitmaps(terms).toArray()));
+			if (expected.length > 0)
+				nonEmpty++;
+		}
+
+		Log.i(TAG, NUM_QUERIES + " queries over " + hashIndex.size() + " words, " + nonEmpty + " matching at least one recipe");
+		assertTrue("too few queries match to measure", nonEmpty > NUM_QUERIES / 2);
+	}
+}
@@ -0,0 +1,151 @@
+package com.companyx.android.cookingxp;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.companyx.android.cookingxp.RecipeDatabase.Recipe;
+import com.companyx.android.cookingxp.RecipeDatabase.RecipeIngredient;
+
+/**
+ * String Pool Heap Report
+ *
+ * Reports the heap the load-time StringPool saves, on the shipped catalog and on a synthetic catalog of SYNTHETIC_RECIPES recipes.
+ * The catalog is parsed and indexed as on first launch, then the Strings held by recipe names, authors, ingredient fields and search index keys are counted:
+ * - without the pool, every one of those fields is a String of its own, so each reference counts, but for the empty String, which the loader shares anyway
+ * - with the pool, as loaded, each distinct instance counts once
+ * Directions are left out, they are not pooled. Sizes are those of a 32-bit VM: a 24-byte String and its char[], header and padding included.
+ */
+public class StringPoolHeapReport extends AndroidTestCase {
+	// SETTINGS
+	private static final String TAG = "StringPoolHeapReport";
+	private static final int SYNTHETIC_RECIPES = 100000;
+
+	// STATE VARIABLES
+	private RecipeDatabase db;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		RecipeDatabase.getInstance(getContext()).release();
+		db = RecipeDatabase.getInstance(getContext());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		db.release();
+		super.tearDown();
+	}
+
+	/**
+	 * Helper function which returns the heap taken by a String and its characters on a 32-bit VM.
+	 * @param s the String.
+	 * @return the size in bytes.
+	 */
+	private static long bytes(String s) {
+		long array = (12 + 2L * s.length() + 7) / 8 * 8;
+
+		return 24 + array;
+	}
+
+	/**
+	 * Helper function which returns the search index keys of the database.
+	 * The index is private to the database, so it is read by reflection; only its keys are of interest here.
+	 * @return the index keys.
+	 * @throws Exception if the index cannot be read.
+	 */
+	private List<String> indexKeys() throws Exception {
+		Field field = RecipeDatabase.class.getDeclaredField("indexMap");
+		field.setAccessible(true);
+		Map<?, ?> indexMap = (Map<?, ?>) field.get(db);
+
+		List<String> result = new ArrayList<String>();
+		for (Object key : indexMap.keySet())
+			result.add((String) key);
+
+		return result;
+	}
+
+	/**
+	 * Helper function which loads a catalog as on first launch and logs the String heap with and without the pool.
+	 * @param label the catalog, for the log.
+	 * @param catalog the catalog text.
+	 * @return the fraction of the String heap the pool saves.
+	 * @throws Exception if the catalog cannot be parsed or the index read.
+	 */
+	private double report(String label, String catalog) throws Exception {
+		List<Recipe> recipes = new RecipeLoader(new ByteArrayInputStream(catalog.getBytes("UTF-8")), db).parseData(1);
+		db.addRecipeHeaders(recipes);
+		db.indexRecipeBodies(recipes);
+		db.releaseStringPool(LoadReport.DISABLED);
+
+		// REFERENCES, every field and key that holds catalog text
+		List<String> strings = new ArrayList<String>();
+		for (Recipe recipe : recipes) {
+			strings.add(recipe.name);
+			strings.add(recipe.author);
+			for (RecipeIngredient ri : recipe.getIngredients()) {
+				strings.add(ri.amount);
+				strings.add(ri.measurement);
+				strings.add(ri.ingredientName);
+				strings.add(ri.notes);
+			}
+		}
+		strings.addAll(indexKeys());
+
+		int unpooledCount = 0;
+		long unpooledBytes = 0;
+		long pooledBytes = 0;
+		Map<String, Boolean> instances = new IdentityHashMap<String, Boolean>();
+		for (String s : strings) {
+			if (s.length() > 0 || !instances.containsKey(s)) {
+				unpooledCount++;
+				unpooledBytes += bytes(s);
+			}
+			if (instances.put(s, Boolean.TRUE) == null)
+				pooledBytes += bytes(s);
+		}
+
+		double saved = 1 - (double) pooledBytes / unpooledBytes;
+		Log.i(TAG, String.format("%s, %d recipes: without the pool %d Strings, %s; with the pool %d Strings, %s (%.0f%% saved)", label, recipes.size(),
+				unpooledCount, size(unpooledBytes), instances.size(), size(pooledBytes), saved * 100));
+
+		return saved;
+	}
+
+	/**
+	 * Helper function which formats a size in bytes for the log.
+	 * @param bytes the size in bytes.
+	 * @return the size, in bytes, KB or MB.
+	 */
+	private static String size(long bytes) {
+		if (bytes < 10 * 1024)
+			return bytes + " bytes";
+		if (bytes < 10 * 1024 * 1024)
+			return String.format("%.1f KB", bytes / 1024.0);
+
+		return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+	}
+
+	/**
+	 * Reports on the shipped catalog.
+	 * @throws Exception if the catalog cannot be read.
+	 */
+	public void testShippedCatalog() throws Exception {
+		assertTrue(report("shipped catalog", SyntheticCatalog.readShipped(getContext())) > 0);
+	}
+
+	/**
+	 * Reports on a synthetic catalog, far larger and more varied than the shipped one.
+	 * @throws Exception if the catalog cannot be parsed.
+	 */
+	public void testSyntheticCatalog() throws Exception {
+		assertTrue(report("synthetic catalog", SyntheticCatalog.generate(SYNTHETIC_RECIPES, 1)) > 0);
+	}
+}
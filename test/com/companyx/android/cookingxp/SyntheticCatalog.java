@@ -0,0 +1,220 @@
+package com.companyx.android.cookingxp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import android.content.Context;
+
+/**
+ * Synthetic Catalog
+ *
+ * Builds recipe catalogs in the catalog format for the stress tests and benchmarks, at sizes far beyond the shipped catalog.
+ * generate() makes up recipes from a vocabulary of made-up words, drawn with a skewed frequency as real ingredients are, with varied amounts, measurements and notes; scale() repeats the shipped catalog instead.
+ * The same arguments always give the same catalog.
+ */
+final class SyntheticCatalog {
+	// SETTINGS
+	static final int NUM_BOXES = 400;
+	private static final int VOCABULARY_SIZE = 600;
+	private static final int RECIPES_PER_FAMILY = 40; // recipes drawing on the same few ingredients, so that recipes have similar ones
+
+	// FIELD VALUES
+	private static final String[] SYLLABLES = {"ka", "lo", "mi", "ren", "tu", "sa", "vo", "pe", "di", "gra", "bel", "nor", "quin", "fa", "zu", "ho", "ta", "bri", "cho", "lan", "mo", "ve", "shi", "dor"};
+	private static final String[] AUTHORS = {"Cooking XP", "Alton Brown", "Rachael Ray", "Ina Garten", "Bobby Flay"};
+	private static final String[] DISHES = {"Soup", "Stew", "Salad", "Casserole", "Pie", "Skillet", "Roast", "Bake"};
+	private static final String[] AMOUNTS = {"1", "2", "3", "4", "1/2", "1/4", "1-1/2", "2-1/4", " "};
+	private static final String[] MEASUREMENTS = {"cup", "cups", "tbsp", "tsp", "lb", "oz", "clove", "pinch", "slab", " "};
+	private static final String[] QUALIFIERS = {"", "", "", "fresh ", "chopped ", "ground "};
+	private static final String[] NOTES = {" ", " ", " ", "diced", "thinly sliced", "to taste", "room temperature", "divided"};
+
+	/**
+	 * Private constructor, the class only has static helpers.
+	 */
+	private SyntheticCatalog() {
+	}
+
+	/**
+	 * Helper function which appends an ingredient line.
+	 * @param sb the catalog being built.
+	 * @param word the ingredient word.
+	 * @param random the source of the other field values.
+	 */
+	private static void appendIngredient(StringBuilder sb, String word, Random random) {
+		sb.append(AMOUNTS[random.nextInt(AMOUNTS.length)]).append(':');
+		sb.append(MEASUREMENTS[random.nextInt(MEASUREMENTS.length)]).append(':');
+		sb.append(QUALIFIERS[random.nextInt(QUALIFIERS.length)]).append(word).append(':');
+		sb.append(NOTES[random.nextInt(NOTES.length)]).append('\n');
+	}
+
+	/**
+	 * Helper function which capitalizes a word.
+	 * @param word the word, not empty.
+	 * @return the word with its first letter in upper case.
+	 */
+	private static String capitalize(String word) {
+		return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+	}
+
+	/**
+	 * Generates a catalog of made-up recipes over NUM_BOXES boxes.
+	 * Each recipe draws most of its ingredients from one of a few dozen ingredient families and a few from the whole vocabulary, and belongs to one or two boxes.
+	 * @param numRecipes the number of recipes.
+	 * @param seed the seed of the random choices.
+	 * @return the catalog text.
+	 */
+	static String generate(int numRecipes, long seed) {
+		Random random = new Random(seed);
+		String[] words = vocabulary(VOCABULARY_SIZE, seed);
+
+		// INGREDIENT FAMILIES
+		String[][] families = new String[Math.max(50, numRecipes / RECIPES_PER_FAMILY)][];
+		for (int f = 0; f < families.length; f++) {
+			families[f] = new String[5 + random.nextInt(7)];
+			for (int i = 0; i < families[f].length; i++)
+				families[f][i] = skewed(words, random);
+		}
+
+		StringBuilder sb = new StringBuilder(numRecipes * 300);
+		for (int r = 0; r < numRecipes; r++) {
+			// TITLE, AUTHOR AND BOXES
+			sb.append("0:E\n");
+			sb.append(capitalize(skewed(words, random))).append(' ').append(skewed(words, random)).append(' ').append(DISHES[random.nextInt(DISHES.length)]).append(' ').append(r);
+			sb.append(':').append(AUTHORS[random.nextInt(AUTHORS.length)]);
+			sb.append(':').append(random.nextInt(NUM_BOXES));
+			if (random.nextInt(4) == 0)
+				sb.append(':').append(random.nextInt(NUM_BOXES));
+			sb.append('\n');
+
+			// TIMES AND SERVINGS
+			sb.append(5 + random.nextInt(30)).append(':').append((random.nextInt(5) == 0) ? 30 + random.nextInt(90) : 0).append(':').append(5 + random.nextInt(90)).append(':').append(random.nextInt(9)).append('\n');
+
+			// INGREDIENTS
+			String[] family = families[random.nextInt(families.length)];
+			for (String word : family) {
+				if (random.nextInt(4) != 0)
+					appendIngredient(sb, word, random);
+			}
+			for (int i = random.nextInt(4); i > 0; i--)
+				appendIngredient(sb, skewed(words, random), random);
+			sb.append(" : :kosher salt: \n");
+
+			// DIRECTIONS
+			sb.append("_Prepare the ").append(family[0]).append(".:Cook for ").append(5 + random.nextInt(60)).append(" minutes.:Serve.\n");
+		}
+
+		return sb.toString();
+	}
+
+	/**
+	 * Reads the shipped catalog, master_recipe_data.txt.
+	 * @param context the context of the app under test.
+	 * @return the catalog text.
+	 * @throws IOException if the catalog cannot be read.
+	 */
+	static String readShipped(Context context) throws IOException {
+		InputStream in = context.getResources().openRawResource(R.raw.master_recipe_data);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int count;
+			while ((count = in.read(buffer)) != -1)
+				out.write(buffer, 0, count);
+
+			return out.toString("UTF-8");
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Repeats a catalog, numbering the titles of each copy so that every recipe keeps a distinct name.
+	 * @param catalog the catalog text.
+	 * @param copies the number of copies.
+	 * @return the scaled catalog text.
+	 */
+	static String scale(String catalog, int copies) {
+		String[] lines = catalog.split("\n", -1);
+		StringBuilder sb = new StringBuilder(catalog.length() * copies);
+		for (int copy = 0; copy < copies; copy++) {
+			boolean title = false;
+			for (int i = 0; i < lines.length; i++) {
+				String line = lines[i];
+				if (i == lines.length - 1 && line.length() == 0)
+					break;
+
+				// the title line follows the marker; its title ends at the first separator
+				int separator = line.indexOf(':');
+				if (title && separator > 0)
+					sb.append(line, 0, separator).append(' ').append(copy).append(line, separator, line.length());
+				else
+					sb.append(line);
+				sb.append('\n');
+				title = line.trim().equals("0:E");
+			}
+		}
+
+		return sb.toString();
+	}
+
+	/**
+	 * Helper function which picks a word, the first words far more often than the last, as a few ingredients are in most recipes and most in few.
+	 * @param words the words.
+	 * @param random the source of the choice.
+	 * @return the word picked.
+	 */
+	private static String skewed(String[] words, Random random) {
+		double u = random.nextDouble();
+
+		return words[(int) (words.length * u * u * u)];
+	}
+
+	/**
+	 * Returns distinct made-up words of two to five syllables.
+	 * @param size the number of words.
+	 * @param seed the seed of the random choices.
+	 * @return the words, in no particular order.
+	 */
+	static String[] vocabulary(int size, long seed) {
+		Random random = new Random(seed);
+		Set<String> seen = new HashSet<String>();
+		String[] result = new String[size];
+		int count = 0;
+		StringBuilder sb = new StringBuilder();
+		while (count < size) {
+			sb.setLength(0);
+			for (int i = 2 + random.nextInt(4); i > 0; i--)
+				sb.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+
+			String word = sb.toString();
+			if (seen.add(word))
+				result[count++] = word;
+		}
+
+		return result;
+	}
+
+	/**
+	 * Writes a catalog to a file, as UTF-8.
+	 * @param catalog the catalog text.
+	 * @param file the file to write.
+	 * @return the file.
+	 * @throws IOException if the file cannot be written.
+	 */
+	static File write(String catalog, File file) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(catalog.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+
+		return file;
+	}
+}